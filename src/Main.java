@@ -2,33 +2,130 @@
  * Main.java
  * purpose: entry point for the music collection manager application
  *          launches the swing gui on the event dispatch thread
+ *          and, when asked, the local query server alongside or instead of it
  * author: phin
  */
 
 import gui.CollectionManagerGUI;
+import server.CollectionServer;
+import service.CollectionService;
+
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 // main class - kicks off the whole application
+// usage: Main [collection file] [--serve port] [--headless]
+//   --serve     also answers queries on http://localhost:port (see server.CollectionServer)
+//   --headless  no window, just the server (on DEFAULT_PORT unless --serve says otherwise)
 public class Main {
 
+    // where the collection is saved unless a file is given on the command line
+    private static final Path DEFAULT_DATA_FILE =
+        Paths.get(System.getProperty("user.home"), ".music-collection", "collection.log");
+
+    // where a headless server listens if no port is given
+    private static final int DEFAULT_PORT = 8080;
+
+    // printed when the arguments don't make sense
+    private static final String USAGE = "usage: Main [collection file] [--serve port] [--headless]";
+
     public static void main(String[] args) {
+        Path dataFile = DEFAULT_DATA_FILE;
+        int port = -1;
+        boolean headless = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--serve")) {
+                port = i + 1 < args.length ? parsePort(args[++i]) : -1;
+                if (port < 0) {
+                    System.out.println("--serve needs a port from 0 to 65535");
+                    System.out.println(USAGE);
+                    System.exit(1);
+                    return;
+                }
+            } else if (args[i].equals("--headless")) {
+                headless = true;
+            } else {
+                dataFile = Paths.get(args[i]);
+            }
+        }
+        if (headless && port < 0) {
+            port = DEFAULT_PORT;
+        }
+
         // try to set a nicer look and feel
-        try {
-            // use system look and feel for native appearance
-            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        } catch (Exception e) {
-            // if that fails, just use default
-            System.out.println("couldn't set system look and feel, using default");
-        }
-
-        // launch the gui on the event dispatch thread
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                // create and show the main window
-                new CollectionManagerGUI();
+        if (!headless) {
+            try {
+                // use system look and feel for native appearance
+                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+            } catch (Exception e) {
+                // if that fails, just use default
+                System.out.println("couldn't set system look and feel, using default");
             }
-        });
+        }
+
+        if (port < 0) {
+            // just the window - it opens the collection itself
+            Path file = dataFile;
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    // create and show the main window, loading the saved collection
+                    new CollectionManagerGUI(file);
+                }
+            });
+            return;
+        }
+
+        // the jdk http server waits on delayed acks without this - it's read when the first
+        // server starts, so it has to be set before then (see server.CollectionServer)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        // the server and the window share one service, so each sees the other's changes
+        CollectionService service;
+        CollectionServer server;
+        try {
+            service = CollectionService.open(dataFile);
+            server = new CollectionServer(service);
+            server.start(port);
+        } catch (IOException e) {
+            System.out.println("couldn't start: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        System.out.println("serving " + service.size() + " items on http://localhost:" + server.getPort() + "/items");
+
+        if (headless) {
+            // the server's listener thread keeps the jvm running until it's stopped
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                try {
+                    service.close();
+                } catch (IOException e) {
+                    System.out.println("couldn't close collection log: " + e.getMessage());
+                }
+            }));
+        } else {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    new CollectionManagerGUI(service);
+                }
+            });
+        }
+    }
+
+    // a port number from the command line - -1 if it isn't one
+    private static int parsePort(String text) {
+        try {
+            int port = Integer.parseInt(text);
+            return port <= 65535 ? port : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * CatalogBenchmark.java
+ * purpose: benchmark for catalog import and export - rows per second for csv and json
+ * author: phin
+ */
+
+package benchmark;
+
+import io.CatalogExporter;
+import io.CatalogFormat;
+import io.CatalogImporter;
+import model.CollectionItem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+// times exporting a catalog as csv and json files, then times importing each one back
+// usage: java -Xmx8g -cp out benchmark.CatalogBenchmark [sizes...]
+public class CatalogBenchmark {
+
+    // default catalog sizes
+    private static final int[] DEFAULT_SIZES = {100_000, 1_000_000};
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i].replace("_", ""));
+            }
+        }
+
+        System.out.println("===========================================");
+        System.out.println("  music collection manager - catalog benchmark");
+        System.out.println("===========================================");
+        System.out.printf("%-12s %10s %10s %12s %12s%n", "case", "rows", "file mb", "ms", "rows/s");
+
+        for (int size : sizes) {
+            List<CollectionItem> data = SortBenchmark.generateCollection(size);
+            for (CatalogFormat format : CatalogFormat.values()) {
+                Path file = Files.createTempFile("catalog-benchmark", "." + format.name().toLowerCase());
+                try {
+                    runExport(data, file, format);
+                    runImport(file, format);
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+            }
+            System.out.println();
+        }
+    }
+
+    // exports the catalog once to warm up, then once for the numbers
+    private static void runExport(List<CollectionItem> data, Path file, CatalogFormat format) throws IOException {
+        new CatalogExporter().exportFile(data, file);
+        CatalogExporter.ExportResult result = new CatalogExporter().exportFile(data, file);
+
+        System.out.printf("%-12s %10d %10.1f %12.1f %12.0f%n", "export " + format.name().toLowerCase(),
+            result.getRowsWritten(), result.getBytesWritten() / (1024.0 * 1024.0),
+            result.getElapsedNanos() / 1e6, result.getRowsPerSecond());
+    }
+
+    // imports the file once to warm up, then once for the numbers
+    private static void runImport(Path file, CatalogFormat format) throws IOException {
+        new CatalogImporter().importFile(file, (batch, rowsRead, bytesRead) -> { });
+        CatalogImporter.ImportResult result = new CatalogImporter().importFile(file, (batch, rowsRead, bytesRead) -> { });
+
+        System.out.printf("%-12s %10d %10.1f %12.1f %12.0f%n", "import " + format.name().toLowerCase(),
+            result.getRowsRead(), Files.size(file) / (1024.0 * 1024.0),
+            result.getElapsedNanos() / 1e6, result.getRowsPerSecond());
+    }
+}
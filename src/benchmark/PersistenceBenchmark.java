@@ -0,0 +1,137 @@
+/*
+ * PersistenceBenchmark.java
+ * purpose: benchmark for the collection log - writing, opening and decoding at catalog scale
+ * author: phin
+ */
+
+package benchmark;
+
+import model.CollectionItem;
+import persistence.CollectionLog;
+import service.CollectionService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// writes a catalog to a temporary log, then times compacting it, opening it and reading every item back,
+// and opening a service on it once it's been closed in its sorted order
+// usage: java -Xmx8g -cp out benchmark.PersistenceBenchmark [sizes...]
+public class PersistenceBenchmark {
+
+    // default catalog sizes
+    private static final int[] DEFAULT_SIZES = {100_000, 1_000_000, 3_000_000};
+
+    // every tenth item gets edited and every twentieth deleted, so the log has some history
+    private static final int EDIT_EVERY = 10;
+    private static final int DELETE_EVERY = 20;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i].replace("_", ""));
+            }
+        }
+
+        System.out.println("===========================================");
+        System.out.println("  music collection manager - persistence benchmark");
+        System.out.println("===========================================");
+        System.out.printf("%10s %10s %12s %12s %12s %12s %12s %12s%n",
+            "items", "disk mb", "write ms", "compact ms", "open ms", "decode ms", "service ms", "live items");
+
+        for (int size : sizes) {
+            List<CollectionItem> data = SortBenchmark.generateCollection(size);
+            Path file = Files.createTempFile("collection-benchmark", ".log");
+            try {
+                run(data, file);
+            } finally {
+                for (Path part : partsOf(file)) {
+                    Files.deleteIfExists(part);
+                }
+            }
+        }
+    }
+
+    // one row - write with history, fold it into a snapshot, open (header scan only),
+    // then decode every live item
+    private static void run(List<CollectionItem> data, Path file) throws IOException {
+        Files.delete(file); // the log creates its own header
+
+        long start = System.nanoTime();
+        try (CollectionLog log = CollectionLog.open(file)) {
+            log.appendAll(CollectionLog.Operation.ADD, data);
+            List<CollectionItem> edited = new ArrayList<>();
+            List<CollectionItem> deleted = new ArrayList<>();
+            for (int i = 0; i < data.size(); i++) {
+                if (i % DELETE_EVERY == 0) {
+                    deleted.add(data.get(i));
+                } else if (i % EDIT_EVERY == 0) {
+                    edited.add(data.get(i));
+                }
+            }
+            log.appendAll(CollectionLog.Operation.EDIT, edited);
+            log.appendAll(CollectionLog.Operation.DELETE, deleted);
+        }
+        double writeMs = (System.nanoTime() - start) / 1e6;
+        long fileBytes = diskBytes(file);
+
+        start = System.nanoTime();
+        try (CollectionLog log = CollectionLog.open(file)) {
+            log.compact();
+        }
+        double compactMs = (System.nanoTime() - start) / 1e6;
+
+        double openMs;
+        double decodeMs;
+        int live;
+        start = System.nanoTime();
+        try (CollectionLog log = CollectionLog.open(file)) {
+            List<CollectionItem> items = log.items();
+            openMs = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            List<CollectionItem> collection = new ArrayList<>(items);
+            decodeMs = (System.nanoTime() - start) / 1e6;
+            live = collection.size();
+        }
+
+        // the first service sorts and saves its order on close - the second one is what a
+        // restart costs: decoding in the saved order, with the index built behind it
+        // (a search waits for the first one's index, so its build isn't still running during the timing)
+        CollectionService first = CollectionService.open(file);
+        first.query("album");
+        first.close();
+        start = System.nanoTime();
+        CollectionService service = CollectionService.open(file);
+        double serviceMs = (System.nanoTime() - start) / 1e6;
+        service.close();
+
+        System.out.printf("%10d %10.1f %12.1f %12.1f %12.1f %12.1f %12.1f %12d%n", data.size(),
+            fileBytes / (1024.0 * 1024.0), writeMs, compactMs, openMs, decodeMs, serviceMs, live);
+    }
+
+    // the journal plus whatever snapshot, half-compacted journal and saved order sit next to it
+    private static Path[] partsOf(Path file) {
+        return new Path[] {
+            file,
+            file.resolveSibling(file.getFileName() + ".old"),
+            file.resolveSibling(file.getFileName() + ".snapshot"),
+            file.resolveSibling(file.getFileName() + ".order")
+        };
+    }
+
+    // bytes on disk across all of a log's files
+    private static long diskBytes(Path file) throws IOException {
+        long bytes = 0;
+        for (Path part : partsOf(file)) {
+            if (Files.exists(part)) {
+                bytes += Files.size(part);
+            }
+        }
+        return bytes;
+    }
+}
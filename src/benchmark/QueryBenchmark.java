@@ -0,0 +1,112 @@
+/*
+ * QueryBenchmark.java
+ * purpose: benchmark for reading part of the collection - a page from the middle, or the
+ *          first k of an order - against sorting everything to get it
+ * author: phin
+ */
+
+package benchmark;
+
+import model.CollectionItem;
+import service.CollectionService;
+import strategy.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+// fills a service with a generated catalog and times fetching one page from the middle of it:
+// by copying and sorting the whole list first (what every request used to do), by building a
+// view (the first request after a write), and from the view once it's made (every one after).
+// then times top-k questions ("the 50 best", "the 20 oldest") answered by a full sort against
+// the bounded heap in SortStrategy.top
+// usage: java -Xmx4g -cp out benchmark.QueryBenchmark [sizes...]
+public class QueryBenchmark {
+
+    // default catalog sizes
+    private static final int[] DEFAULT_SIZES = {100_000, 1_000_000};
+
+    // rows per page
+    private static final int PAGE = 100;
+
+    // how many items the top-k cases ask for
+    private static final int[] TOP_KS = {20, 50, 1000};
+
+    // repeats per case - times are averaged over these
+    private static final int REPEATS = 20;
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i].replace("_", ""));
+            }
+        }
+
+        System.out.println("===========================================");
+        System.out.println("  music collection manager - query benchmark");
+        System.out.println("===========================================");
+        System.out.printf("%-28s %10s %10s %12s%n", "case", "items", "rows", "ms");
+
+        for (int size : sizes) {
+            CollectionService service = new CollectionService();
+            service.addAll(SortBenchmark.generateCollection(size));
+            int middle = size / 2;
+
+            // a page from the middle in another order - sorting everything to take 100 rows
+            SortStrategy byYear = new SortByYear();
+            measure("page by full sort", size, () -> {
+                List<CollectionItem> all = new ArrayList<>(service.snapshot());
+                byYear.sort(all);
+                return all.subList(middle, middle + PAGE).size();
+            });
+            // the same page from a view - made once, then read from
+            measure("page by new view", size, () -> {
+                service.edit(service.snapshot().get(0), item -> { }); // any write drops the views
+                return service.page("", byYear, middle, PAGE).getItems().size();
+            });
+            measure("page by cached view", size, () -> service.page("", byYear, middle, PAGE).getItems().size());
+            // the collection's own order needs no view at all, just the snapshot
+            measure("page in own order", size,
+                () -> service.page("", service.getSortStrategy(), middle, PAGE).getItems().size());
+
+            // a search paged through in another order - a new view searches and sorts just the matches
+            int matches = service.query("album z").size();
+            measure("search page by new view", size, () -> {
+                service.edit(service.snapshot().get(0), item -> { });
+                return service.page("album z", byYear, matches / 2, PAGE).getItems().size();
+            });
+            measure("search page cached", size,
+                () -> service.page("album z", byYear, matches / 2, PAGE).getItems().size());
+
+            // the first k by condition and by year - sorting a copy of everything against the heap
+            List<CollectionItem> items = service.snapshot();
+            for (SortStrategy strategy : new SortStrategy[] {new SortByCondition(), new SortByYear(), new SortByTitle()}) {
+                String name = strategy.getStrategyName().toLowerCase();
+                for (int k : TOP_KS) {
+                    measure("top " + k + " " + name + " full sort", size, () -> {
+                        List<CollectionItem> all = new ArrayList<>(items);
+                        strategy.sort(all);
+                        return all.subList(0, k).size();
+                    });
+                    measure("top " + k + " " + name + " heap", size, () -> strategy.top(items, k).size());
+                }
+            }
+            System.out.println();
+        }
+    }
+
+    // runs one case a few times to warm up, then prints its average time
+    private static void measure(String name, int size, Supplier<Integer> work) {
+        for (int i = 0; i < 3; i++) {
+            work.get();
+        }
+        int rows = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            rows = work.get();
+        }
+        System.out.printf("%-28s %10d %10d %12.3f%n", name, size, rows, (System.nanoTime() - start) / 1e6 / REPEATS);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * SearchBenchmark.java
+ * purpose: benchmark for search - indexed lookups against the old linear scan
+ *          reports query latency at catalog scale
+ * author: phin
+ */
+
+package benchmark;
+
+import index.CollectionIndex;
+import model.CollectionItem;
+
+import java.util.List;
+
+// times a handful of typical queries against the search index and a full scan, then year
+// ranges through the range index against a scan of every item's year
+// usage: java -Xmx8g -cp out benchmark.SearchBenchmark [sizes...]
+public class SearchBenchmark {
+
+    // default catalog sizes
+    private static final int[] DEFAULT_SIZES = {100_000, 1_000_000};
+
+    // a rare word, a common prefix, two words together, a year, and two mid-word fragments
+    private static final String[] QUERIES = {"artist 4242", "album z", "artist 7 album", "1969", "lbu 1a2", "rtis"};
+
+    // year ranges - the query, then the years it covers and the words a scan also has to check
+    private static final String[][] RANGES = {{"1965-1972", "1965", "1972", ""}, {"1960s", "1960", "1969", ""},
+                                              {"1969-1969", "1969", "1969", ""},
+                                              {"artist 7 1960s", "1960", "1969", "artist 7"}};
+
+    // repeats per query - latency is averaged over these
+    private static final int REPEATS = 20;
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i].replace("_", ""));
+            }
+        }
+
+        System.out.println("===========================================");
+        System.out.println("  music collection manager - search benchmark");
+        System.out.println("===========================================");
+        System.out.printf("%-20s %10s %10s %12s %12s%n", "query", "items", "matches", "index ms", "scan ms");
+
+        for (int size : sizes) {
+            List<CollectionItem> data = SortBenchmark.generateCollection(size);
+
+            long start = System.nanoTime();
+            CollectionIndex index = new CollectionIndex();
+            index.addAll(data);
+            System.out.printf("indexed %d items in %.1f ms%n", size, (System.nanoTime() - start) / 1e6);
+
+            for (String query : QUERIES) {
+                runQuery(query, index, data);
+            }
+            for (String[] range : RANGES) {
+                runRange(range, index, data);
+            }
+            System.out.println();
+        }
+    }
+
+    // times one query both ways and prints a result row
+    private static void runQuery(String query, CollectionIndex index, List<CollectionItem> data) {
+        int matches = 0;
+
+        // warm both paths up first
+        for (int i = 0; i < 3; i++) {
+            index.search(query);
+            scan(query, data);
+        }
+
+        long indexNanos = 0;
+        long scanNanos = 0;
+        for (int i = 0; i < REPEATS; i++) {
+            long start = System.nanoTime();
+            matches = index.search(query).size();
+            indexNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            scan(query, data);
+            scanNanos += System.nanoTime() - start;
+        }
+
+        System.out.printf("%-20s %10d %10d %12.3f %12.3f%n", query, data.size(), matches,
+            indexNanos / 1e6 / REPEATS, scanNanos / 1e6 / REPEATS);
+    }
+
+    // times a year range query through the range index against checking every item's year
+    private static void runRange(String[] range, CollectionIndex index, List<CollectionItem> data) {
+        int from = Integer.parseInt(range[1]);
+        int to = Integer.parseInt(range[2]);
+        int matches = 0;
+        for (int i = 0; i < 3; i++) {
+            index.search(range[0]);
+            scanYears(from, to, range[3], data);
+        }
+
+        long indexNanos = 0;
+        long scanNanos = 0;
+        for (int i = 0; i < REPEATS; i++) {
+            long start = System.nanoTime();
+            matches = index.search(range[0]).size();
+            indexNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            scanYears(from, to, range[3], data);
+            scanNanos += System.nanoTime() - start;
+        }
+
+        System.out.printf("%-20s %10d %10d %12.3f %12.3f%n", range[0], data.size(), matches,
+            indexNanos / 1e6 / REPEATS, scanNanos / 1e6 / REPEATS);
+    }
+
+    // the best a scan can do for a range - compare every year, then the words on what's left
+    private static int scanYears(int from, int to, String words, List<CollectionItem> data) {
+        int count = 0;
+        for (CollectionItem item : data) {
+            if (item.getYear() >= from && item.getYear() <= to && (words.isEmpty() || matchesAll(words, item))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // every word is the start of a word in the title or artist
+    private static boolean matchesAll(String words, CollectionItem item) {
+        String text = " " + item.getTitle().toLowerCase() + " " + item.getArtist().toLowerCase();
+        for (String word : words.split(" ")) {
+            if (!text.contains(" " + word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // what the gui used to do - lowercase and contains on every field of every item
+    private static int scan(String query, List<CollectionItem> data) {
+        String searchText = query.toLowerCase();
+        int count = 0;
+        for (CollectionItem item : data) {
+            if (item.getTitle().toLowerCase().contains(searchText) ||
+                item.getArtist().toLowerCase().contains(searchText) ||
+                item.getMediaType().toLowerCase().contains(searchText) ||
+                String.valueOf(item.getYear()).contains(searchText)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
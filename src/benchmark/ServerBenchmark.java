@@ -0,0 +1,124 @@
+/*
+ * ServerBenchmark.java
+ * purpose: load test for the local query server - throughput and latency percentiles
+ *          as the number of simultaneous clients goes up
+ * author: phin
+ */
+
+package benchmark;
+
+import model.CollectionItem;
+import server.CollectionServer;
+import service.CollectionService;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// fills a service with a generated catalog, serves it on a free local port, then has more and
+// more clients (one virtual thread each) hit it at once with a mix of page listings and searches.
+// every client sends its requests back to back - the http client's pool gives each one a connection
+// usage: java -Xmx4g -cp out benchmark.ServerBenchmark [items] [clients...]
+public class ServerBenchmark {
+
+    // default catalog size and client counts
+    private static final int DEFAULT_ITEMS = 100_000;
+    private static final int[] DEFAULT_CLIENTS = {10, 100, 1000, 4000};
+
+    // requests sent at each client count, shared out between the clients
+    private static final int REQUESTS = 20_000;
+
+    // searches in the mix - a rare word, a common prefix, two words, a year
+    private static final String[] QUERIES = {"artist+4242", "album+z", "artist+7+album", "1969"};
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int items = args.length > 0 ? Integer.parseInt(args[0].replace("_", "")) : DEFAULT_ITEMS;
+        int[] clientCounts = DEFAULT_CLIENTS;
+        if (args.length > 1) {
+            clientCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                clientCounts[i - 1] = Integer.parseInt(args[i].replace("_", ""));
+            }
+        }
+
+        System.out.println("===========================================");
+        System.out.println("  music collection manager - query server benchmark");
+        System.out.println("===========================================");
+
+        // the same socket setting Main starts the server with - see server.CollectionServer
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        List<CollectionItem> data = SortBenchmark.generateCollection(items);
+        CollectionService service = new CollectionService();
+        service.addAll(data);
+        try (CollectionServer server = new CollectionServer(service)) {
+            server.start(0);
+            System.out.printf("serving %d items on port %d%n%n", service.size(), server.getPort());
+            System.out.printf("%-10s %10s %12s %10s %10s %10s %8s%n",
+                "clients", "requests", "req/s", "p50 ms", "p99 ms", "max ms", "errors");
+
+            run(server.getPort(), items, 10, 2_000); // warm up
+            for (int clients : clientCounts) {
+                run(server.getPort(), items, clients, REQUESTS);
+            }
+        }
+    }
+
+    // sends the requests from the given number of clients at once and prints a result row
+    private static void run(int port, int items, int clients, int requests) throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+
+        long start = System.nanoTime();
+        try (HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                int client = c;
+                executor.submit(() -> {
+                    Random random = new Random(client);
+                    int request;
+                    while ((request = next.getAndIncrement()) < requests) {
+                        URI uri = URI.create("http://localhost:" + port + pathFor(request, random, items));
+                        long sent = System.nanoTime();
+                        try {
+                            HttpResponse<byte[]> response = http.send(HttpRequest.newBuilder(uri).build(),
+                                HttpResponse.BodyHandlers.ofByteArray());
+                            if (response.statusCode() != 200) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        latencies[request] = System.nanoTime() - sent;
+                    }
+                });
+            }
+        } // closing the executor waits for every client to finish
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.printf("%-10d %10d %12.0f %10.2f %10.2f %10.2f %8d%n", clients, requests,
+            requests / (elapsed / 1e9), latencies[requests / 2] / 1e6, latencies[requests * 99 / 100] / 1e6,
+            latencies[requests - 1] / 1e6, errors.get());
+    }
+
+    // three in four requests are a page of the collection somewhere in the middle, the rest searches
+    private static String pathFor(int request, Random random, int items) {
+        if (request % 4 != 3) {
+            return "/items?limit=50&offset=" + random.nextInt(Math.max(1, items - 50));
+        }
+        return "/search?limit=50&sort=year&q=" + QUERIES[random.nextInt(QUERIES.length)];
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * SortBenchmark.java
+ * purpose: benchmark harness for every sort strategy at catalog scale
+ *          reports throughput, allocation rate and gc pressure per strategy and size
+ * author: phin
+ */
+
+package benchmark;
+
+import factory.ItemFactory;
+import factory.StringInterner;
+import model.CollectionItem;
+import store.ColumnarCollectionStore;
+import strategy.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+// runs each strategy over factory-built collections of 10k, 100k, 1m and 10m items
+// usage: java -Xmx8g -cp out benchmark.SortBenchmark [sizes...]
+//   e.g. "benchmark.SortBenchmark 10000 100000" to skip the big runs on a laptop
+// results go to stdout as a table so they can be diffed release to release
+public class SortBenchmark {
+
+    // default catalog sizes - 10m needs roughly 4gb of heap for the items alone
+    private static final int[] DEFAULT_SIZES = {10_000, 100_000, 1_000_000, 10_000_000};
+
+    // warmup lets the jit settle before we start measuring
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURE_ITERATIONS = 5;
+
+    // fixed seed so every run sorts exactly the same data
+    static final long SEED = 42L;
+
+    // sample values used to build realistic-looking items
+    private static final String[] GRADES = {"M", "NM", "EX", "VG+", "VG", "G+", "G", "F", "P"};
+    private static final String[] SIZES = {"12\"", "10\"", "7\""};
+    private static final String[] SPEEDS = {"33", "45", "78"};
+    private static final String[] TAPE_TYPES = {"Normal", "Chrome", "Metal"};
+
+    // a single thing to measure - a name plus the work done on a fresh copy of the data
+    private interface Case {
+        String name();
+        void run(List<CollectionItem> items);
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i].replace("_", ""));
+            }
+        }
+
+        List<Case> cases = createCases();
+
+        System.out.println("===========================================");
+        System.out.println("  music collection manager - sort benchmark");
+        System.out.println("===========================================");
+        System.out.println("warmup: " + WARMUP_ITERATIONS + " iterations, measure: " + MEASURE_ITERATIONS + " iterations");
+        System.out.println("max heap: " + (Runtime.getRuntime().maxMemory() / (1024 * 1024)) + " mb\n");
+        System.out.printf("%-28s %10s %12s %10s %12s %8s %10s%n",
+            "case", "items", "ms/op", "ops/s", "alloc mb/s", "gc/op", "gc ms/op");
+
+        for (int size : sizes) {
+            List<CollectionItem> data;
+            long objectHeap;
+            try {
+                long before = usedHeap();
+                data = generateCollection(size);
+                objectHeap = usedHeap() - before;
+                reportHeap(data, objectHeap);
+            } catch (OutOfMemoryError e) {
+                // don't take the whole run down because one size doesn't fit
+                System.out.println("skipping " + size + " items - not enough heap (try -Xmx8g)");
+                continue;
+            }
+
+            for (Case benchCase : cases) {
+                runCase(benchCase, data);
+            }
+            System.out.println();
+        }
+    }
+
+    // every strategy the gui offers gets measured, plus the alternative paths they can take
+    private static List<Case> createCases() {
+        List<Case> cases = new ArrayList<>();
+        addStrategyCase(cases, new SortByArtist());
+        addCase(cases, "Artist (comparator)", new SortByArtist(false)::sort);
+        addStrategyCase(cases, new SortByTitle());
+        addCase(cases, "Title (comparator)", new SortByTitle(false)::sort);
+        addStrategyCase(cases, new SortByYear());
+        addCase(cases, "Year (comparator)", new SortByYear(false)::sort);
+        addStrategyCase(cases, new SortByCondition());
+        addStrategyCase(cases, new SortByMediaType());
+        return cases;
+    }
+
+    // wraps a strategy up as a benchmark case
+    // strategies with a parallel path get a second, single threaded case to compare against
+    // (the counting sorts are always single threaded, so a second case would just repeat the first)
+    private static void addStrategyCase(List<Case> cases, AbstractSortStrategy strategy) {
+        addCase(cases, strategy.getStrategyName(), strategy::sort);
+        if (!strategy.hasParallelPath()) {
+            return;
+        }
+
+        AbstractSortStrategy sequential = newInstance(strategy);
+        sequential.setParallelThreshold(AbstractSortStrategy.NEVER_PARALLEL);
+        addCase(cases, strategy.getStrategyName() + " (sequential)", sequential::sort);
+    }
+
+    // second copy of a strategy so its settings can differ from the original
+    private static AbstractSortStrategy newInstance(AbstractSortStrategy strategy) {
+        try {
+            return strategy.getClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("strategy needs a no-arg constructor: " + strategy.getClass(), e);
+        }
+    }
+
+    // wraps any piece of work on the collection as a benchmark case
+    private static void addCase(List<Case> cases, String name, Consumer<List<CollectionItem>> work) {
+        cases.add(new Case() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public void run(List<CollectionItem> items) {
+                work.accept(items);
+            }
+        });
+    }
+
+    // runs warmup and measurement iterations for one case and prints a result row
+    private static void runCase(Case benchCase, List<CollectionItem> data) {
+        // each iteration sorts its own copy so we never measure already-sorted input
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            benchCase.run(new ArrayList<>(data));
+        }
+
+        long totalNanos = 0;
+        long totalAllocated = 0;
+        long totalGcCount = 0;
+        long totalGcMillis = 0;
+
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            List<CollectionItem> copy = new ArrayList<>(data);
+
+            long gcCountBefore = gcCount();
+            long gcMillisBefore = gcMillis();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+
+            benchCase.run(copy);
+
+            long elapsed = System.nanoTime() - start;
+            totalAllocated += allocatedBytes() - allocatedBefore;
+            totalGcCount += gcCount() - gcCountBefore;
+            totalGcMillis += gcMillis() - gcMillisBefore;
+            totalNanos += elapsed;
+        }
+
+        double msPerOp = totalNanos / 1_000_000.0 / MEASURE_ITERATIONS;
+        double opsPerSecond = 1000.0 / msPerOp;
+        double allocMbPerSecond = totalNanos == 0 ? 0 : (totalAllocated / (1024.0 * 1024.0)) / (totalNanos / 1e9);
+
+        System.out.printf("%-28s %10d %12.2f %10.2f %12.1f %8.2f %10.2f%n",
+            benchCase.name(), data.size(), msPerOp, opsPerSecond, allocMbPerSecond,
+            (double) totalGcCount / MEASURE_ITERATIONS, (double) totalGcMillis / MEASURE_ITERATIONS);
+    }
+
+    // builds a collection through the factory so it looks like what the gui creates
+    // artist/title pools are sized so names repeat the way they do in real catalogs
+    static List<CollectionItem> generateCollection(int size) {
+        Random random = new Random(SEED);
+        List<CollectionItem> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(generateItem(random, size));
+        }
+        return items;
+    }
+
+    // one item of a generated collection - lets callers stream a catalog without holding it
+    static CollectionItem generateItem(Random random, int size) {
+        int artistPool = Math.max(1, size / 20);
+        String artist = "Artist " + random.nextInt(artistPool);
+        String title = "Album " + Integer.toString(random.nextInt(size), 36);
+        int year = 1900 + random.nextInt(131);
+        String condition = GRADES[random.nextInt(GRADES.length)];
+
+        switch (random.nextInt(3)) {
+            case 0:
+                return ItemFactory.createRecord(title, artist, year, condition,
+                    SIZES[random.nextInt(SIZES.length)], SPEEDS[random.nextInt(SPEEDS.length)]);
+            case 1:
+                return ItemFactory.createCD(title, artist, year, condition,
+                    1 + random.nextInt(20), random.nextBoolean());
+            default:
+                return ItemFactory.createCassette(title, artist, year, condition,
+                    TAPE_TYPES[random.nextInt(TAPE_TYPES.length)], 30 + 10 * random.nextInt(10));
+        }
+    }
+
+    // compares heap per item for the object list against the columnar store
+    private static void reportHeap(List<CollectionItem> data, long objectHeap) {
+        long columnarHeap = ColumnarCollectionStore.of(data).estimatedHeapBytes();
+        System.out.printf("heap per item at %d items: objects ~%d bytes, columnar ~%d bytes%n",
+            data.size(), objectHeap / data.size(), columnarHeap / data.size());
+
+        StringInterner interner = ItemFactory.getStringInterner();
+        System.out.printf("string dedup so far: %d shared strings, %d duplicates dropped, ~%d mb saved%n",
+            interner.size(), interner.getHits(), interner.getBytesSaved() / (1024 * 1024));
+    }
+
+    // heap in use after asking for a collection - good enough for a rough per-item figure
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // bytes allocated so far by every thread in the jvm, finished ones included - the parallel
+    // sorts allocate on fork/join workers, which the calling thread's own count would miss.
+    // anything else running at the time counts too, so keep the machine otherwise quiet
+    // hotspot exposes this through its own mxbean
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getTotalThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    // total collections across every collector
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    // total time spent collecting across every collector
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * StoreBenchmark.java
+ * purpose: benchmark for the off-heap store - heap use as the catalog grows, plus sort
+ *          and filter times straight off the stored rows
+ * author: phin
+ */
+
+package benchmark;
+
+import store.OffHeapCollectionStore;
+import strategy.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.function.Supplier;
+
+// streams generated items into an off-heap store one at a time (the catalog is never held on
+// the heap as objects) and reports heap and native memory per size, then times each sort
+// strategy and a search over the rows
+// usage: java -Xmx512m -XX:MaxDirectMemorySize=2g -cp out benchmark.StoreBenchmark [sizes...]
+// the small heap is the point - 10m items fit in it because they aren't in it
+public class StoreBenchmark {
+
+    // default catalog sizes
+    private static final int[] DEFAULT_SIZES = {1_000_000, 5_000_000, 10_000_000};
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i].replace("_", ""));
+            }
+        }
+
+        System.out.println("===========================================");
+        System.out.println("  music collection manager - off-heap store benchmark");
+        System.out.println("===========================================");
+        System.out.println("max heap: " + (Runtime.getRuntime().maxMemory() / (1024 * 1024)) + " mb\n");
+        System.out.printf("%-20s %10s %12s %12s %8s%n", "case", "items", "ms", "heap mb", "gc");
+
+        for (int size : sizes) {
+            OffHeapCollectionStore store = new OffHeapCollectionStore();
+            long heapBefore = usedHeap();
+
+            Random random = new Random(SortBenchmark.SEED);
+            measure("fill", size, () -> {
+                for (int i = 0; i < size; i++) {
+                    store.add(SortBenchmark.generateItem(random, size));
+                }
+                return store.size();
+            });
+            // the heap that's left is mostly the factory's string interner, which stops growing
+            // at ItemFactory.MAX_INTERNED_STRINGS - the store's own share is listed separately
+            System.out.printf("%-20s %10d %12s %12.1f %8s   (store heap %.0f kb, off-heap %.0f mb)%n",
+                "resident", size, "", (usedHeap() - heapBefore) / (1024.0 * 1024.0), "",
+                store.estimatedHeapBytes() / 1024.0, store.offHeapBytes() / (1024.0 * 1024.0));
+
+            SortStrategy[] strategies = {new SortByArtist(), new SortByTitle(), new SortByYear(),
+                                         new SortByCondition(), new SortByMediaType()};
+            for (SortStrategy strategy : strategies) {
+                store.sortedRows(strategy); // warm up
+                measure("sort " + strategy.getStrategyName().toLowerCase(), size,
+                    () -> store.sortedRows(strategy).length);
+            }
+            store.filterRows("artist 12");
+            measure("filter text", size, () -> store.filterRows("artist 12").length);
+            measure("filter years", size, () -> store.rowsInYearRange(1965, 1972).length);
+            System.out.println();
+        }
+    }
+
+    // times one piece of work and prints how long it took, what it left on the heap and
+    // how many collections ran meanwhile
+    private static void measure(String name, int size, Supplier<Integer> work) {
+        long heapBefore = usedHeap();
+        long gcBefore = gcCount();
+        long start = System.nanoTime();
+        work.get();
+        long elapsed = System.nanoTime() - start;
+        long collections = gcCount() - gcBefore;
+        System.out.printf("%-20s %10d %12.1f %12.1f %8d%n", name, size, elapsed / 1e6,
+            (usedHeap() - heapBefore) / (1024.0 * 1024.0), collections);
+    }
+
+    // heap in use after a collection
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+}
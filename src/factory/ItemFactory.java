@@ -16,6 +16,13 @@ import model.Cassette;
 // this is the heart of the factory pattern - all item creation goes through here
 public class ItemFactory {
 
+    // most distinct strings the factory will share - plenty for a multi-million item catalog
+    // of artists and format details, while stopping a runaway import from pinning the heap
+    public static final int MAX_INTERNED_STRINGS = 500_000;
+
+    // shared by every create method, so repeated artists and format details are stored once
+    private static final StringInterner STRINGS = new StringInterner(MAX_INTERNED_STRINGS);
+
     // enum to define the supported media types
     // makes it type-safe and easy to add new formats later
     public enum MediaType {
@@ -50,20 +57,30 @@ public class ItemFactory {
 
     // helper method specifically for records
     // nice and clean, all the vinyl-specific logic in one place
+    // condition text is parsed into a grade (the item keeps the text too unless it's just the
+    // grade's code). artists, conditions and format details repeat a lot so they go through the
+    // interner - titles are mostly unique and would just fill it up
     public static Record createRecord(String title, String artist, int year,
                                        String condition, String size, String speed) {
-        return new Record(title, artist, year, condition, size, speed);
+        return new Record(title, STRINGS.intern(artist), year, STRINGS.intern(condition),
+            STRINGS.intern(size), STRINGS.intern(speed));
     }
 
     // helper method specifically for cds
     public static CD createCD(String title, String artist, int year,
                               String condition, int trackCount, boolean hasBooklet) {
-        return new CD(title, artist, year, condition, trackCount, hasBooklet);
+        return new CD(title, STRINGS.intern(artist), year, STRINGS.intern(condition), trackCount, hasBooklet);
     }
 
     // helper method specifically for cassettes
     public static Cassette createCassette(String title, String artist, int year,
                                           String condition, String tapeType, int length) {
-        return new Cassette(title, artist, year, condition, tapeType, length);
+        return new Cassette(title, STRINGS.intern(artist), year, STRINGS.intern(condition),
+            STRINGS.intern(tapeType), length);
+    }
+
+    // the factory's string interner - for reporting how much memory deduplication saved
+    public static StringInterner getStringInterner() {
+        return STRINGS;
     }
 }
@@ -0,0 +1,99 @@
+/*
+ * StringInterner.java
+ * purpose: shares one instance of each repeated string the factory sees
+ *          bounded, thread safe, and keeps count of the memory it saves
+ * author: phin
+ */
+
+package factory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// deduplicates strings so items with the same artist (or "12\"", "33", "Chrome"...) share one copy
+// unlike String.intern() this has a fixed size - once it's full, new strings just pass
+// through untouched, and strings already in it keep getting shared
+public class StringInterner {
+
+    // canonical copy of every string we've seen, keyed by itself
+    private final ConcurrentHashMap<String, String> strings;
+
+    // most distinct strings we'll hold on to
+    private final int maxEntries;
+
+    // how often we handed back a shared copy, and roughly how many bytes that saved
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    public StringInterner(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("max entries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.strings = new ConcurrentHashMap<>(Math.min(maxEntries, 1024));
+    }
+
+    // returns the shared copy of a string, adding it if there's room
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String shared = strings.get(value);
+        if (shared == null) {
+            if (strings.size() >= maxEntries) {
+                // full - don't grow, just pass it through
+                // (racing threads can overshoot the limit by a handful, which is fine)
+                return value;
+            }
+            shared = strings.putIfAbsent(value, value);
+            if (shared == null) {
+                return value; // first time we've seen it
+            }
+        }
+
+        // someone else's copy is being reused, so this one can be collected
+        if (shared != value) {
+            hits.increment();
+            bytesSaved.add(estimatedSize(value));
+        }
+        return shared;
+    }
+
+    // number of distinct strings being shared
+    public int size() {
+        return strings.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    // how many times a duplicate was replaced by the shared copy
+    public long getHits() {
+        return hits.sum();
+    }
+
+    // estimated heap saved by dropping the duplicates
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    // forgets every shared string and resets the counters
+    public void clear() {
+        strings.clear();
+        hits.reset();
+        bytesSaved.reset();
+    }
+
+    // rough heap size of a string - object header and fields, plus the backing array
+    // (one byte per char when it's latin-1, which covers almost every artist name)
+    static long estimatedSize(String value) {
+        boolean latin1 = true;
+        for (int i = 0; i < value.length() && latin1; i++) {
+            latin1 = value.charAt(i) < 256;
+        }
+        long arrayBytes = 16L + (latin1 ? value.length() : 2L * value.length());
+        return 24L + ((arrayBytes + 7) & ~7L);
+    }
+}
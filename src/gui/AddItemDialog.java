@@ -9,6 +9,7 @@ package gui;
 
 import factory.ItemFactory;
 import model.CollectionItem;
+import model.Grade;
 
 import javax.swing.*;
 import java.awt.*;
@@ -120,7 +121,7 @@ public class AddItemDialog extends JDialog {
         gbc.gridx = 1; gbc.weightx = 1.0;
         // goldmine grading scale: M (mint), NM (near mint), EX (excellent), VG+ (very good plus),
         // VG (very good), G+ (good plus), G (good), F (fair), P (poor)
-        conditionCombo = new JComboBox<>(new String[]{"M", "NM", "EX", "VG+", "VG", "G+", "G", "F", "P"});
+        conditionCombo = new JComboBox<>(Grade.gradeCodes());
         formPanel.add(conditionCombo, gbc);
         gbc.weightx = 0;
         row++;
@@ -3,49 +3,91 @@
  * purpose: main application window for the music collection manager
  *          provides ui for viewing, adding, and sorting collection items
  *          showcases factory and strategy patterns in action
+ *          everything it does to the collection goes through a CollectionService
  * author: phin
  */
 
 package gui;
 
+import io.CatalogExporter;
+import io.CatalogImporter;
 import model.CollectionItem;
+import service.CollectionService;
 import strategy.*;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
-import javax.swing.table.TableRowSorter;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 // main window class - this is where users interact with their collection
 public class CollectionManagerGUI extends JFrame {
 
-    // our data store - holds all the collection items
-    private List<CollectionItem> collection;
-
-    // current sorting strategy - can be swapped at runtime (strategy pattern!)
-    private SortStrategy currentStrategy;
+    // the collection, its sort order, search index and log - the window just shows it
+    // other threads can use the same service while the window is open
+    private final CollectionService service;
 
     // all available sorting strategies
     private List<SortStrategy> sortStrategies;
 
     // ui components we need to access later
     private JTable itemTable;
-    private DefaultTableModel tableModel;
+    private CollectionTableModel tableModel;
     private JComboBox<String> sortComboBox;
     private JLabel statusLabel;
     private JTextField searchField;
 
-    // table column names
-    private final String[] columnNames = {"Artist", "Title", "Year", "Condition", "Format", "Details"};
+    // batches programmatic changes into at most one table update per frame
+    private TableUpdateCoalescer tableUpdates;
+
+    // true while the table shows search results instead of the whole collection
+    private boolean showingFilter = false;
+
+    // version of the collection the search results on show were found in
+    private long filteredVersion = -1;
+
+    // how long typing has to pause before a search kicks off
+    private static final int SEARCH_DELAY_MS = 150;
+
+    // restarted on every keystroke, fires the search once typing settles
+    private Timer searchDebounce;
+
+    // the search currently running in the background, if any
+    private SwingWorker<List<CollectionItem>, Void> searchWorker;
+
+    // bumped whenever a search is started or cancelled - a finishing search only shows its
+    // results if nothing newer has happened since it started
+    private int searchGeneration = 0;
+
+    // the collection changed while a search was running - run it again once it's done
+    private boolean searchAgain = false;
 
-    // constructor sets up the whole ui
+    // constructor sets up the whole ui - nothing is saved, the collection starts empty
     public CollectionManagerGUI() {
-        // initialize data structures
-        collection = new ArrayList<>();
+        this(new CollectionService());
+    }
+
+    // sets up the ui and loads the collection from a log file, saving every change back to it
+    // a null file means nothing is loaded or saved
+    public CollectionManagerGUI(Path dataFile) {
+        this(dataFile == null ? new CollectionService() : openService(dataFile));
+    }
+
+    // sets up the ui over a collection that's already open - and possibly in use elsewhere
+    public CollectionManagerGUI(CollectionService service) {
+        this.service = service;
         initializeSortStrategies();
 
         // set up the main window
@@ -56,11 +98,54 @@ public class CollectionManagerGUI extends JFrame {
 
         // build the ui
         initializeComponents();
+        service.addListener(new CollectionService.Listener() {
+            @Override
+            public void collectionChanged(CollectionService.Change change) {
+                // changes made from the edt are already on screen by the time this runs
+                SwingUtilities.invokeLater(() -> catchUp());
+            }
+
+            @Override
+            public void saveFailed(IOException e) {
+                // the change stays in the collection, the status bar says it wasn't saved
+                SwingUtilities.invokeLater(() -> updateStatus("Couldn't save changes: " + e.getMessage()));
+            }
+        });
+        if (service.getDataFile() != null) {
+            updateStatus("Loaded " + service.size() + " items from " + service.getDataFile().getFileName());
+
+            // anything still queued goes into the log before the window closes
+            addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    tableUpdates.flush();
+                    try {
+                        service.close();
+                    } catch (IOException ex) {
+                        System.out.println("couldn't close collection log: " + ex.getMessage());
+                    }
+                }
+            });
+        }
 
         // make it visible
         setVisible(true);
     }
 
+    // opens the log and takes whatever it holds as the starting collection
+    // if it can't be opened the window still comes up, with an empty collection that isn't saved
+    private static CollectionService openService(Path dataFile) {
+        try {
+            return CollectionService.open(dataFile);
+        } catch (IOException | RuntimeException e) {
+            JOptionPane.showMessageDialog(null,
+                "Couldn't open " + dataFile + ":\n" + e.getMessage() + "\n\nChanges won't be saved.",
+                "Load Error",
+                JOptionPane.ERROR_MESSAGE);
+            return new CollectionService();
+        }
+    }
+
     // sets up all the available sort strategies
     private void initializeSortStrategies() {
         sortStrategies = new ArrayList<>();
@@ -70,8 +155,18 @@ public class CollectionManagerGUI extends JFrame {
         sortStrategies.add(new SortByCondition());
         sortStrategies.add(new SortByMediaType());
 
-        // default to sort by artist
-        currentStrategy = sortStrategies.get(0);
+        // the order the collection is already in takes the place of its entry (or joins the list)
+        SortStrategy current = service.getSortStrategy();
+        boolean listed = false;
+        for (int i = 0; i < sortStrategies.size(); i++) {
+            if (sortStrategies.get(i).getClass() == current.getClass()) {
+                sortStrategies.set(i, current);
+                listed = true;
+            }
+        }
+        if (!listed) {
+            sortStrategies.add(current);
+        }
     }
 
     // builds all the ui components
@@ -115,17 +210,40 @@ public class CollectionManagerGUI extends JFrame {
         searchLabel.setForeground(Color.WHITE);
         searchPanel.add(searchLabel);
 
+        // search as you type - each keystroke restarts the timer, so we only search
+        // once the user pauses, and the search itself runs off the event dispatch thread
+        searchDebounce = new Timer(SEARCH_DELAY_MS, e -> startBackgroundSearch());
+        searchDebounce.setRepeats(false);
+
         searchField = new JTextField(20);
-        searchField.addActionListener(e -> filterTable());
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchDebounce.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchDebounce.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchDebounce.restart();
+            }
+        });
+        // enter and the filter button search straight away
+        searchField.addActionListener(e -> searchNow());
         searchPanel.add(searchField);
 
         JButton searchButton = new JButton("Filter");
-        searchButton.addActionListener(e -> filterTable());
+        searchButton.addActionListener(e -> searchNow());
         searchPanel.add(searchButton);
 
         JButton clearButton = new JButton("Clear");
         clearButton.addActionListener(e -> {
             searchField.setText("");
+            searchDebounce.stop();
             refreshTable();
         });
         searchPanel.add(clearButton);
@@ -139,13 +257,20 @@ public class CollectionManagerGUI extends JFrame {
     private JPanel createTablePanel() {
         JPanel panel = new JPanel(new BorderLayout());
 
-        // create table model - not editable directly
-        tableModel = new DefaultTableModel(columnNames, 0) {
+        // create table model - reads straight from the collection, not editable directly
+        tableModel = new CollectionTableModel();
+        tableModel.setRows(service.snapshot());
+        tableUpdates = new TableUpdateCoalescer(service, tableModel, new TableUpdateCoalescer.Listener() {
             @Override
-            public boolean isCellEditable(int row, int column) {
-                return false; // no direct editing, use edit dialog
+            public void changesApplied(CollectionService.Change change) {
+                CollectionManagerGUI.this.changesApplied(change);
             }
-        };
+
+            @Override
+            public void changesRefused(List<CollectionItem> items, RuntimeException reason) {
+                CollectionManagerGUI.this.changesRefused(items, reason);
+            }
+        });
 
         // create the table
         itemTable = new JTable(tableModel);
@@ -191,6 +316,14 @@ public class CollectionManagerGUI extends JFrame {
         deleteButton.addActionListener(e -> deleteSelectedItem());
         buttonPanel.add(deleteButton);
 
+        JButton importButton = new JButton("Import...");
+        importButton.addActionListener(e -> showImportDialog());
+        buttonPanel.add(importButton);
+
+        JButton exportButton = new JButton("Export...");
+        exportButton.addActionListener(e -> showExportDialog());
+        buttonPanel.add(exportButton);
+
         panel.add(buttonPanel, BorderLayout.WEST);
 
         // right side - sort options
@@ -205,11 +338,11 @@ public class CollectionManagerGUI extends JFrame {
             strategyNames[i] = sortStrategies.get(i).getStrategyName();
         }
         sortComboBox = new JComboBox<>(strategyNames);
+        sortComboBox.setSelectedIndex(sortStrategies.indexOf(service.getSortStrategy()));
         sortComboBox.addActionListener(e -> {
             // change strategy based on selection - this is the strategy pattern in action!
             int selectedIndex = sortComboBox.getSelectedIndex();
-            currentStrategy = sortStrategies.get(selectedIndex);
-            sortCollection();
+            sortCollection(sortStrategies.get(selectedIndex));
         });
         sortPanel.add(sortComboBox);
 
@@ -228,16 +361,144 @@ public class CollectionManagerGUI extends JFrame {
         AddItemDialog dialog = new AddItemDialog(this);
         dialog.setVisible(true);
 
-        // if user added an item, refresh the table
+        // if user added an item, slot it into place
         if (dialog.getCreatedItem() != null) {
-            collection.add(dialog.getCreatedItem());
-            sortCollection();
-            updateStatus("Added: " + dialog.getCreatedItem().getTitle());
+            try {
+                insertSorted(dialog.getCreatedItem());
+                updateStatus("Added: " + dialog.getCreatedItem().getTitle());
+            } catch (IllegalArgumentException e) {
+                showRefused("add", e);
+            }
+        }
+    }
+
+    // asks for a csv or json export and imports it in the background
+    // batches land in the table as they're read, and the window stays usable throughout
+    private void showImportDialog() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("Catalog exports (CSV, JSON)", "csv", "json", "ndjson"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        long fileBytes;
+        try {
+            fileBytes = Files.size(file);
+        } catch (IOException e) {
+            fileBytes = 0;
+        }
+
+        CatalogImporter importer = new CatalogImporter();
+        ImportProgressDialog progress = new ImportProgressDialog(this, file.getFileName().toString(),
+            fileBytes, importer::cancel);
+
+        SwingWorker<CatalogImporter.ImportResult, long[]> worker =
+                new SwingWorker<CatalogImporter.ImportResult, long[]>() {
+            @Override
+            protected CatalogImporter.ImportResult doInBackground() throws IOException {
+                // each batch is queued straight from this thread - one sort and refresh per frame
+                return importer.importFile(file, (batch, rowsRead, bytesRead) -> {
+                    addItems(batch);
+                    publish(new long[] {rowsRead, bytesRead});
+                });
+            }
+
+            @Override
+            protected void process(List<long[]> chunks) {
+                long[] latest = chunks.get(chunks.size() - 1);
+                progress.update(latest[0], latest[1]);
+            }
+
+            @Override
+            protected void done() {
+                progress.dispose();
+                tableUpdates.flush(); // the last batch is in before the summary goes up
+                try {
+                    showImportResult(file, get());
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(CollectionManagerGUI.this,
+                        "Import of " + file.getFileName() + " failed:\n" + cause.getMessage() +
+                        "\n\nItems read before the error were kept.",
+                        "Import Error",
+                        JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.execute();
+        progress.setVisible(true);
+    }
+
+    // sums up a finished import in the status bar, listing skipped rows if there were any
+    private void showImportResult(Path file, CatalogImporter.ImportResult result) {
+        String summary = String.format("%s %,d items from %s (%,.0f rows/s)",
+            result.wasCancelled() ? "Import cancelled after" : "Imported",
+            result.getImported(), file.getFileName(), result.getRowsPerSecond());
+        if (result.getSkipped() > 0) {
+            summary += String.format(", skipped %,d rows", result.getSkipped());
         }
+        updateStatus(summary);
+
+        if (!result.getErrors().isEmpty()) {
+            StringBuilder message = new StringBuilder(String.format("%,d rows couldn't be imported:%n%n",
+                result.getSkipped()));
+            for (String error : result.getErrors()) {
+                message.append(error).append('\n');
+            }
+            if (result.getSkipped() > result.getErrors().size()) {
+                message.append("...");
+            }
+            JOptionPane.showMessageDialog(this, message.toString(), "Skipped Rows", JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
+    // asks where to save and exports what the table is showing - the current filter, in the
+    // current sort order - on a background thread, straight from the items to the file
+    private void showExportDialog() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("Catalog exports (CSV, JSON)", "csv", "json", "ndjson"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path chosen = chooser.getSelectedFile().toPath();
+        String name = chosen.getFileName().toString().toLowerCase();
+        Path file = name.endsWith(".csv") || name.endsWith(".json") || name.endsWith(".ndjson")
+            ? chosen : chosen.resolveSibling(chosen.getFileName() + ".csv");
+
+        // the whole collection is exported from a snapshot, which edits made while the export
+        // runs can't touch - search results are copied (just the references) for the same reason
+        tableUpdates.flush();
+        List<CollectionItem> rows = showingFilter ? tableModel.copyRows() : service.snapshot();
+        CatalogExporter exporter = new CatalogExporter();
+        updateStatus(String.format("Exporting %,d items to %s...", rows.size(), file.getFileName()));
+
+        new SwingWorker<CatalogExporter.ExportResult, Void>() {
+            @Override
+            protected CatalogExporter.ExportResult doInBackground() throws IOException {
+                return exporter.exportFile(rows, file);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    CatalogExporter.ExportResult result = get();
+                    updateStatus(String.format("Exported %,d items to %s (%,.0f rows/s)",
+                        result.getRowsWritten(), file.getFileName(), result.getRowsPerSecond()));
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(CollectionManagerGUI.this,
+                        "Export to " + file.getFileName() + " failed:\n" + cause.getMessage(),
+                        "Export Error",
+                        JOptionPane.ERROR_MESSAGE);
+                    updateStatus("Export failed");
+                }
+            }
+        }.execute();
     }
 
     // shows dialog for editing selected item
     private void showEditItemDialog() {
+        tableUpdates.flush(); // make sure the selected row is the item we think it is
         int selectedRow = itemTable.getSelectedRow();
         if (selectedRow < 0) {
             JOptionPane.showMessageDialog(this,
@@ -247,18 +508,32 @@ public class CollectionManagerGUI extends JFrame {
             return;
         }
 
-        CollectionItem item = collection.get(selectedRow);
+        CollectionItem item = tableModel.getItem(selectedRow);
         EditItemDialog dialog = new EditItemDialog(this, item);
         dialog.setVisible(true);
 
         if (dialog.wasUpdated()) {
-            sortCollection();
-            updateStatus("Updated: " + item.getTitle());
+            try {
+                repositionItem(item, dialog.getEdits());
+                updateStatus("Updated: " + item.getTitle());
+            } catch (IllegalArgumentException e) {
+                // too big to save, or deleted from elsewhere while the dialog was open
+                showRefused("update", e);
+            }
         }
     }
 
+    // tells the user the service turned a change away - nothing was changed
+    private void showRefused(String action, IllegalArgumentException e) {
+        JOptionPane.showMessageDialog(this,
+            "Couldn't " + action + " the item: " + e.getMessage(),
+            "Not Saved",
+            JOptionPane.WARNING_MESSAGE);
+    }
+
     // deletes the currently selected item
     private void deleteSelectedItem() {
+        tableUpdates.flush(); // make sure the selected row is the item we think it is
         int selectedRow = itemTable.getSelectedRow();
         if (selectedRow < 0) {
             JOptionPane.showMessageDialog(this,
@@ -268,94 +543,223 @@ public class CollectionManagerGUI extends JFrame {
             return;
         }
 
-        CollectionItem item = collection.get(selectedRow);
+        CollectionItem item = tableModel.getItem(selectedRow);
         int confirm = JOptionPane.showConfirmDialog(this,
             "Delete '" + item.getTitle() + "' by " + item.getArtist() + "?",
             "Confirm Delete",
             JOptionPane.YES_NO_OPTION);
 
         if (confirm == JOptionPane.YES_OPTION) {
-            collection.remove(selectedRow);
-            refreshTable();
+            showChange(service.remove(item));
             updateStatus("Deleted: " + item.getTitle());
         }
     }
 
-    // applies the current sort strategy to the collection
-    private void sortCollection() {
-        if (!collection.isEmpty()) {
-            // this is where strategy pattern shines - just call sort on whatever strategy
-            currentStrategy.sort(collection);
+    // puts a new item straight into its sorted position instead of re-sorting everything
+    // the service keeps the collection sorted, so a binary search finds the spot
+    private void insertSorted(CollectionItem item) {
+        tableUpdates.flush(); // queued changes go in first
+        showChange(service.add(item));
+    }
+
+    // makes the dialog's edits under the service's lock, and moves the item to wherever its new
+    // values put it in the sort order
+    private void repositionItem(CollectionItem item, Consumer<CollectionItem> edits) {
+        showChange(service.edit(item, edits));
+        if (!showingFilter) {
+            int row = tableModel.rowOf(item);
+            itemTable.setRowSelectionInterval(row, row);
+        }
+    }
+
+    // puts a change the gui just made on screen
+    // the whole collection gets just the row events for the rows that changed, search results
+    // are re-run since the change may or may not match
+    private void showChange(CollectionService.Change change) {
+        if (showingFilter) {
+            filterTable();
+        } else {
+            if (!tableModel.showChange(change)) {
+                // something else wrote to the collection since the table was last updated
+                tableModel.setRows(service.snapshot());
+            }
+            updateStatus("Showing " + service.size() + " items");
         }
+    }
+
+    // sorts the collection with a different strategy
+    private void sortCollection(SortStrategy strategy) {
+        tableUpdates.flush(); // queued items get sorted along with everything else
+        // this is where strategy pattern shines - just call sort on whatever strategy
+        // readers keep seeing the old order until the sorted snapshot is published
+        service.setSortStrategy(strategy);
         refreshTable();
     }
 
-    // filters table based on search text
-    private void filterTable() {
-        String searchText = searchField.getText().toLowerCase();
+    // skips the typing delay and searches for whatever is in the box right now
+    private void searchNow() {
+        searchDebounce.stop();
+        startBackgroundSearch();
+    }
+
+    // runs the search on a worker thread and shows the results when it's done
+    // starting a new search cancels the one in flight, and only the latest one gets shown
+    private void startBackgroundSearch() {
+        String searchText = searchField.getText().trim();
         if (searchText.isEmpty()) {
             refreshTable();
             return;
         }
 
-        // clear and repopulate with matching items
-        tableModel.setRowCount(0);
-        int matchCount = 0;
-        for (CollectionItem item : collection) {
-            // search across all fields
-            if (item.getTitle().toLowerCase().contains(searchText) ||
-                item.getArtist().toLowerCase().contains(searchText) ||
-                item.getMediaType().toLowerCase().contains(searchText) ||
-                String.valueOf(item.getYear()).contains(searchText)) {
-
-                addItemToTable(item);
-                matchCount++;
+        cancelSearch();
+        searchAgain = false; // this search sees every change so far
+        int generation = searchGeneration;
+        SortStrategy order = service.getSortStrategy();
+        long version = service.snapshot().getVersion();
+        updateStatus("Searching for '" + searchText + "'...");
+
+        searchWorker = new SwingWorker<List<CollectionItem>, Void>() {
+            @Override
+            protected List<CollectionItem> doInBackground() {
+                // find the matches and put them in the current sort order, all off the edt
+                return service.query(searchText, order);
             }
+
+            @Override
+            protected void done() {
+                // back on the edt - drop the result if anything newer has happened since
+                if (isCancelled() || generation != searchGeneration) {
+                    return;
+                }
+                try {
+                    showSearchResults(get(), version);
+                } catch (InterruptedException | ExecutionException e) {
+                    updateStatus("Search failed: " + e.getMessage());
+                }
+                if (searchAgain) {
+                    startBackgroundSearch();
+                }
+            }
+        };
+        searchWorker.execute();
+    }
+
+    // stops any search in flight and makes sure its results never get shown
+    private void cancelSearch() {
+        searchGeneration++;
+        if (searchWorker != null) {
+            searchWorker.cancel(true);
+            searchWorker = null;
+        }
+    }
+
+    // re-runs the current search after the collection changes - in the background like a typed
+    // search, with the old results left up until the new ones are in. a search that's already
+    // running is left to finish and then run again, so a steady stream of changes can't keep
+    // cancelling it before it shows anything
+    private void filterTable() {
+        if (searchField.getText().trim().isEmpty()) {
+            refreshTable();
+            return;
+        }
+        if (searchWorker != null && !searchWorker.isDone()) {
+            searchAgain = true;
+            return;
         }
-        updateStatus("Found " + matchCount + " matching items");
+        searchDebounce.stop(); // it would only search for the same thing again
+        startBackgroundSearch();
+    }
+
+    // fills the table with search results (already in display order)
+    private void showSearchResults(List<CollectionItem> matches, long version) {
+        // the table reads the matches in place, one event covers the lot
+        tableModel.setRows(matches);
+        showingFilter = true;
+        filteredVersion = version;
+        updateStatus("Found " + matches.size() + " matching items");
     }
 
     // refreshes the table with current collection data
     private void refreshTable() {
-        tableModel.setRowCount(0); // clear existing rows
-        for (CollectionItem item : collection) {
-            addItemToTable(item);
+        cancelSearch(); // a search finishing now would cover up the full list
+        tableModel.setRows(service.snapshot()); // the table reads the snapshot in place, no copying
+        showingFilter = false;
+        updateStatus("Showing " + service.size() + " items");
+    }
+
+    // brings the table up to date after another thread changed the collection through the service
+    // does nothing if the table already shows the latest version (changes made from the edt)
+    private void catchUp() {
+        if (showingFilter) {
+            if (filteredVersion != service.snapshot().getVersion()) {
+                filterTable();
+            }
+        } else if (!tableModel.isShowing(service.snapshot())) {
+            tableModel.setRows(service.snapshot());
+            updateStatus("Showing " + service.size() + " items");
         }
-        updateStatus("Showing " + collection.size() + " items");
-    }
-
-    // adds a single item to the table
-    private void addItemToTable(CollectionItem item) {
-        Object[] rowData = {
-            item.getArtist(),
-            item.getTitle(),
-            item.getYear(),
-            item.getCondition(),
-            item.getMediaType(),
-            item.getFormatDetails()
-        };
-        tableModel.addRow(rowData);
     }
 
     // updates the status bar
     private void updateStatus(String message) {
-        statusLabel.setText(message + " - " + collection.size() + " items in collection");
+        statusLabel.setText(message + " - " + service.size() + " items in collection");
     }
 
     // allows external classes to add items (useful for testing)
+    // safe from any thread - items are queued and slotted in together on the next frame
     public void addItem(CollectionItem item) {
-        collection.add(item);
-        sortCollection();
+        tableUpdates.itemAdded(item);
+    }
+
+    // adds a batch of items from any thread - they're sorted and merged in together
+    public void addItems(List<CollectionItem> items) {
+        tableUpdates.itemsAdded(items);
+    }
+
+    // allows external classes to remove items, from any thread
+    public void removeItem(CollectionItem item) {
+        tableUpdates.itemRemoved(item);
+    }
+
+    // tells the gui an item's fields were changed outside the edit dialog, from any thread
+    public void itemUpdated(CollectionItem item) {
+        tableUpdates.itemChanged(item);
+    }
+
+    // runs after each batch of queued changes lands in the collection
+    // the service has already indexed and saved them - the table or search results catch up
+    private void changesApplied(CollectionService.Change change) {
+        if (showingFilter) {
+            filterTable();
+        } else {
+            catchUp(); // the coalescer's row events only cover a table that was up to date
+            updateStatus("Showing " + service.size() + " items");
+        }
+    }
+
+    // queued changes the service turned away - too big to save, usually. the table already
+    // shows whatever else was in the same batch
+    private void changesRefused(List<CollectionItem> items, RuntimeException reason) {
+        JOptionPane.showMessageDialog(this,
+            "Couldn't save " + items.size() + (items.size() == 1 ? " item: " : " items: ") + reason.getMessage(),
+            "Not Saved",
+            JOptionPane.WARNING_MESSAGE);
+    }
+
+    // the service behind the window - for driving the same collection from elsewhere
+    public CollectionService getService() {
+        return service;
     }
 
-    // get the collection (useful for testing)
+    // get the collection (useful for testing) - call on the edt, queued changes are applied first
+    // the list is a read-only snapshot, so it's safe to keep and read from other threads
     public List<CollectionItem> getCollection() {
-        return collection;
+        tableUpdates.flush();
+        return service.snapshot();
     }
 
     // set the sort strategy programmatically (useful for testing)
     public void setSortStrategy(SortStrategy strategy) {
-        this.currentStrategy = strategy;
-        sortCollection();
+        sortCollection(strategy);
     }
 }
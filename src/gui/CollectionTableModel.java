@@ -0,0 +1,202 @@
+/*
+ * CollectionTableModel.java
+ * purpose: table model that shows a list of collection items without copying them
+ *          cells are read from the items only when the table asks for them
+ * author: phin
+ */
+
+package gui;
+
+import model.CollectionItem;
+import service.CollectionService;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+// a read-only view of whatever list the gui is showing (the whole collection or search results)
+// nothing is copied into row arrays - the table only asks for the cells it's painting,
+// so showing a million items costs about as much as showing a screenful
+// the owner swaps in a new list with setRows, or passes on a change to the collection with
+// showChange, which fires just the row events that change needs
+public class CollectionTableModel extends AbstractTableModel {
+
+    // past this many separate row ranges one "everything changed" event is cheaper
+    static final int MAX_RANGE_EVENTS = 64;
+
+    // table column names
+    private static final String[] COLUMN_NAMES = {"Artist", "Title", "Year", "Condition", "Format", "Details"};
+
+    // the list being shown - owned by the gui, never copied
+    private List<CollectionItem> rows = Collections.emptyList();
+
+    // switches to a different list and tells the table everything changed in one event
+    public void setRows(List<CollectionItem> rows) {
+        this.rows = rows;
+        fireTableDataChanged();
+    }
+
+    // true if the table is currently showing exactly this list
+    public boolean isShowing(List<CollectionItem> list) {
+        return rows == list;
+    }
+
+    // moves the table from a change's before list to its after list with the fewest row events
+    // that describe it - runs of adjacent rows become one event each, deletes go bottom first so
+    // earlier row numbers stay valid. does nothing and returns false if the table isn't showing
+    // the list the change started from (search results, or an older copy of the collection)
+    public boolean showChange(CollectionService.Change change) {
+        if (!isShowing(change.getBefore())) {
+            return false;
+        }
+        List<int[]> deletedRuns = runsOf(change.getDeletedRows());
+        List<int[]> insertedRuns = runsOf(change.getInsertedRows());
+        if (change.isResort() || deletedRuns.size() > MAX_RANGE_EVENTS || insertedRuns.size() > MAX_RANGE_EVENTS) {
+            setRows(change.getAfter());
+            return true;
+        }
+
+        if (!deletedRuns.isEmpty()) {
+            // the events have to describe the rows as they are at each step
+            rows = withoutRows(change.getBefore(), change.getDeletedRows());
+            for (int r = deletedRuns.size() - 1; r >= 0; r--) {
+                fireTableRowsDeleted(deletedRuns.get(r)[0], deletedRuns.get(r)[1]);
+            }
+        }
+        for (int row : change.getUpdatedRows()) {
+            fireTableRowsUpdated(row, row);
+        }
+        rows = change.getAfter();
+        for (int[] run : insertedRuns) {
+            fireTableRowsInserted(run[0], run[1]);
+        }
+        return true;
+    }
+
+    // the row an item is shown on, matched by identity, or -1
+    public int rowOf(CollectionItem item) {
+        for (int row = 0; row < rows.size(); row++) {
+            if (rows.get(row) == item) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    // the rows as they're shown right now, copied so they can be read off the edt
+    // only the references are copied - the items themselves are shared
+    public List<CollectionItem> copyRows() {
+        return new ArrayList<>(rows);
+    }
+
+    // the item shown on a given row
+    public CollectionItem getItem(int row) {
+        return rows.get(row);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 2 ? Integer.class : String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false; // no direct editing, use edit dialog
+    }
+
+    // reads one cell straight off the item
+    @Override
+    public Object getValueAt(int row, int column) {
+        CollectionItem item = rows.get(row);
+        switch (column) {
+            case 0:
+                return item.getArtist();
+            case 1:
+                return item.getTitle();
+            case 2:
+                return item.getYear();
+            case 3:
+                return item.getCondition();
+            case 4:
+                return item.getMediaType();
+            case 5:
+                return item.getFormatDetails();
+            default:
+                throw new IndexOutOfBoundsException("column " + column);
+        }
+    }
+
+    // groups ascending row numbers into {first, last} runs of consecutive rows
+    static List<int[]> runsOf(int[] sortedRows) {
+        List<int[]> runs = new ArrayList<>();
+        for (int row : sortedRows) {
+            int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && last[1] + 1 == row) {
+                last[1] = row;
+            } else {
+                runs.add(new int[] {row, row});
+            }
+        }
+        return runs;
+    }
+
+    // a list without the given (ascending) rows - a view, nothing is copied, so a flush with a
+    // delete in it costs the same however big the collection is. only read while the delete
+    // events go out - the change's after list replaces it straight away
+    private static List<CollectionItem> withoutRows(List<CollectionItem> list, int[] sortedRows) {
+        return new WithoutRows(list, sortedRows);
+    }
+
+    private static final class WithoutRows extends AbstractList<CollectionItem> implements RandomAccess {
+        private final List<CollectionItem> list;
+        private final int[] sortedRows;
+
+        WithoutRows(List<CollectionItem> list, int[] sortedRows) {
+            this.list = list;
+            this.sortedRows = sortedRows;
+        }
+
+        // the index-th row that's left is that many rows on, plus however many deleted rows come
+        // before it - sortedRows[k] - k is how many are left ahead of the k-th deleted row
+        @Override
+        public CollectionItem get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+            }
+            int low = 0;
+            int high = sortedRows.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sortedRows[mid] - mid <= index) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return list.get(index + low);
+        }
+
+        @Override
+        public int size() {
+            return list.size() - sortedRows.length;
+        }
+    }
+}
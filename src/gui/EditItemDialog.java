@@ -7,13 +7,16 @@
 
 package gui;
 
+import factory.ItemFactory;
 import model.CollectionItem;
+import model.Grade;
 import model.Record;
 import model.CD;
 import model.Cassette;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.function.Consumer;
 
 // dialog for editing existing items
 public class EditItemDialog extends JDialog {
@@ -21,8 +24,8 @@ public class EditItemDialog extends JDialog {
     // the item being edited
     private CollectionItem item;
 
-    // tracks if changes were made
-    private boolean updated = false;
+    // the changes the user asked for, applied by whoever made the dialog - null if cancelled
+    private Consumer<CollectionItem> edits;
 
     // common fields
     private JTextField titleField;
@@ -116,7 +119,7 @@ public class EditItemDialog extends JDialog {
         formPanel.add(new JLabel("Condition:"), gbc);
         gbc.gridx = 1; gbc.weightx = 1.0;
         // goldmine grading scale
-        conditionCombo = new JComboBox<>(new String[]{"M", "NM", "EX", "VG+", "VG", "G+", "G", "F", "P"});
+        conditionCombo = new JComboBox<>(Grade.gradeCodes());
         formPanel.add(conditionCombo, gbc);
         gbc.weightx = 0;
         row++;
@@ -231,7 +234,8 @@ public class EditItemDialog extends JDialog {
         }
     }
 
-    // saves the changes to the item
+    // turns what's in the fields into edits for the item - nothing is changed here, the item
+    // is shared with other threads and only the service's write lock makes it safe to touch
     private void saveChanges() {
         // validate
         String title = titleField.getText().trim();
@@ -245,35 +249,54 @@ public class EditItemDialog extends JDialog {
             return;
         }
 
-        // update common fields
-        item.setTitle(title);
-        item.setArtist(artist);
-        item.setYear((Integer) yearSpinner.getValue());
-        item.setCondition((String) conditionCombo.getSelectedItem());
-
-        // update format-specific fields
+        // read everything off the widgets now, on the edt
+        // edits go through the factory's interner too, so repeated artists stay shared
+        String internedArtist = ItemFactory.getStringInterner().intern(artist);
+        int year = (Integer) yearSpinner.getValue();
+        Grade grade = Grade.parse((String) conditionCombo.getSelectedItem());
+        Consumer<CollectionItem> formatEdits;
         if (item instanceof Record) {
-            Record record = (Record) item;
-            record.setSize((String) recordSizeCombo.getSelectedItem());
-            record.setSpeed((String) recordSpeedCombo.getSelectedItem());
-
+            String size = (String) recordSizeCombo.getSelectedItem();
+            String speed = (String) recordSpeedCombo.getSelectedItem();
+            formatEdits = edited -> {
+                ((Record) edited).setSize(size);
+                ((Record) edited).setSpeed(speed);
+            };
         } else if (item instanceof CD) {
-            CD cd = (CD) item;
-            cd.setTrackCount((Integer) trackCountSpinner.getValue());
-            cd.setHasBooklet(hasBookletCheck.isSelected());
-
+            int trackCount = (Integer) trackCountSpinner.getValue();
+            boolean hasBooklet = hasBookletCheck.isSelected();
+            formatEdits = edited -> {
+                ((CD) edited).setTrackCount(trackCount);
+                ((CD) edited).setHasBooklet(hasBooklet);
+            };
         } else if (item instanceof Cassette) {
-            Cassette cassette = (Cassette) item;
-            cassette.setTapeType((String) tapeTypeCombo.getSelectedItem());
-            cassette.setLength((Integer) tapeLengthSpinner.getValue());
+            String tapeType = (String) tapeTypeCombo.getSelectedItem();
+            int length = (Integer) tapeLengthSpinner.getValue();
+            formatEdits = edited -> {
+                ((Cassette) edited).setTapeType(tapeType);
+                ((Cassette) edited).setLength(length);
+            };
+        } else {
+            formatEdits = edited -> { };
         }
 
-        updated = true;
+        edits = edited -> {
+            edited.setTitle(title);
+            edited.setArtist(internedArtist);
+            edited.setYear(year);
+            edited.setGrade(grade);
+            formatEdits.accept(edited);
+        };
         dispose();
     }
 
     // returns whether changes were made
     public boolean wasUpdated() {
-        return updated;
+        return edits != null;
+    }
+
+    // the changes to make to the item, for CollectionService.edit - null if the dialog was cancelled
+    public Consumer<CollectionItem> getEdits() {
+        return edits;
     }
 }
@@ -0,0 +1,69 @@
+/*
+ * ImportProgressDialog.java
+ * purpose: shows how far a catalog import has got and lets the user cancel it
+ * author: phin
+ */
+
+package gui;
+
+import javax.swing.*;
+import java.awt.*;
+
+// small non-modal window shown while an import runs in the background
+// the gui keeps working behind it - imported items show up in the table as they arrive
+public class ImportProgressDialog extends JDialog {
+
+    // the bar runs 0..PROGRESS_STEPS of the file size
+    private static final int PROGRESS_STEPS = 1000;
+
+    private final JProgressBar progressBar;
+    private final JLabel rowsLabel;
+    private final JButton cancelButton;
+    private final long fileBytes;
+    private final long startNanos = System.nanoTime();
+
+    // onCancel runs on the edt when the cancel button is pressed
+    public ImportProgressDialog(JFrame parent, String fileName, long fileBytes, Runnable onCancel) {
+        super(parent, "Importing " + fileName, false);
+        this.fileBytes = fileBytes;
+        setSize(400, 150);
+        setLocationRelativeTo(parent);
+        setResizable(false);
+        setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+
+        JPanel panel = new JPanel(new BorderLayout(10, 10));
+        panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+
+        progressBar = new JProgressBar(0, PROGRESS_STEPS);
+        progressBar.setStringPainted(true);
+        progressBar.setIndeterminate(fileBytes <= 0); // no size to measure against
+        panel.add(progressBar, BorderLayout.NORTH);
+
+        rowsLabel = new JLabel("Starting...");
+        panel.add(rowsLabel, BorderLayout.CENTER);
+
+        cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(e -> {
+            cancelButton.setEnabled(false);
+            rowsLabel.setText("Cancelling...");
+            onCancel.run();
+        });
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(cancelButton);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+
+        add(panel);
+    }
+
+    // updates the bar and the rows/sec readout - edt only
+    public void update(long rowsRead, long bytesRead) {
+        if (fileBytes > 0) {
+            progressBar.setValue((int) Math.min(PROGRESS_STEPS, bytesRead * PROGRESS_STEPS / fileBytes));
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        if (cancelButton.isEnabled()) {
+            rowsLabel.setText(String.format("%,d rows read (%,.0f rows/s)", rowsRead,
+                seconds > 0 ? rowsRead / seconds : 0));
+        }
+    }
+}
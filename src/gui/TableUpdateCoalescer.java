@@ -0,0 +1,159 @@
+/*
+ * TableUpdateCoalescer.java
+ * purpose: batches changes to the collection and applies them to the table once per frame
+ *          so thousands of adds a second don't mean thousands of re-sorts and repaints
+ * author: phin
+ */
+
+package gui;
+
+import model.CollectionItem;
+import service.CollectionService;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// collects adds, removes and edits from any thread and applies them on the edt in batches
+// a flush happens at most once per frame - the service merges the whole batch into the sorted
+// collection in one pass, and the table gets the smallest set of row events that describes it
+public class TableUpdateCoalescer {
+
+    // ~60 flushes a second at most
+    static final int FRAME_MS = 16;
+
+    // told what each flush changed, on the edt, once the collection and table are up to date
+    public interface Listener {
+        void changesApplied(CollectionService.Change change);
+
+        // told about queued items that didn't go in, and why - the rest of the batch still did
+        // (unless the service refused it all, in which case items is everything in the flush)
+        default void changesRefused(List<CollectionItem> items, RuntimeException reason) {
+        }
+    }
+
+    // the collection the batches go into
+    private final CollectionService service;
+    private final CollectionTableModel model;
+    private final Listener listener;
+
+    // changes waiting for the next flush - safe to add to from any thread
+    private final ConcurrentLinkedQueue<CollectionItem> pendingAdds = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<CollectionItem> pendingRemoves = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<CollectionItem> pendingChanges = new ConcurrentLinkedQueue<>();
+
+    // true while a flush is scheduled, so a burst of changes only starts the timer once
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final Timer frameTimer;
+
+    public TableUpdateCoalescer(CollectionService service, CollectionTableModel model, Listener listener) {
+        this.service = service;
+        this.model = model;
+        this.listener = listener;
+        this.frameTimer = new Timer(FRAME_MS, e -> flush());
+        this.frameTimer.setRepeats(false);
+    }
+
+    // queues a new item to go into its sorted spot
+    public void itemAdded(CollectionItem item) {
+        pendingAdds.add(item);
+        schedule();
+    }
+
+    // queues a batch of new items - they're sorted and merged in together on the next frame
+    public void itemsAdded(Collection<? extends CollectionItem> items) {
+        pendingAdds.addAll(items);
+        schedule();
+    }
+
+    // queues an item to come out of the collection
+    public void itemRemoved(CollectionItem item) {
+        pendingRemoves.add(item);
+        schedule();
+    }
+
+    // queues an item whose values changed - it's moved if it no longer sorts where it is
+    public void itemChanged(CollectionItem item) {
+        pendingChanges.add(item);
+        schedule();
+    }
+
+    // true if nothing is waiting to be applied
+    public boolean isIdle() {
+        return pendingAdds.isEmpty() && pendingRemoves.isEmpty() && pendingChanges.isEmpty();
+    }
+
+    // applies everything queued so far right now - edt only
+    // called before anything that needs the collection to be current (deletes, re-sorts)
+    public void flush() {
+        scheduled.set(false);
+        frameTimer.stop();
+        if (isIdle()) {
+            return;
+        }
+
+        // items the log can't store are taken out first, so one of them doesn't sink the batch
+        List<CollectionItem> refused = new ArrayList<>();
+        IllegalArgumentException reason = null;
+        List<CollectionItem> adds = drain(pendingAdds);
+        List<CollectionItem> removes = drain(pendingRemoves);
+        List<CollectionItem> changes = drain(pendingChanges);
+        for (List<CollectionItem> items : List.of(adds, changes)) {
+            for (Iterator<CollectionItem> it = items.iterator(); it.hasNext(); ) {
+                CollectionItem item = it.next();
+                try {
+                    service.checkStorable(item);
+                } catch (IllegalArgumentException e) {
+                    it.remove();
+                    refused.add(item);
+                    reason = reason == null ? e : reason;
+                }
+            }
+        }
+
+        CollectionService.Change change;
+        try {
+            change = service.apply(adds, removes, changes);
+        } catch (RuntimeException e) {
+            // nothing went in - reported rather than thrown, since this usually runs off the timer
+            refused.addAll(adds);
+            refused.addAll(removes);
+            refused.addAll(changes);
+            listener.changesRefused(refused, e);
+            return;
+        }
+        // if the table is showing something else (search results) the listener sorts it out
+        model.showChange(change);
+        listener.changesApplied(change);
+        if (!refused.isEmpty()) {
+            listener.changesRefused(refused, reason);
+        }
+    }
+
+    // starts the frame timer if it isn't already going
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            // timer start is fine off the edt, but keep it on the edt like everything else here
+            if (SwingUtilities.isEventDispatchThread()) {
+                frameTimer.restart();
+            } else {
+                SwingUtilities.invokeLater(frameTimer::restart);
+            }
+        }
+    }
+
+    // everything in a queue right now, in the order it was added
+    private static List<CollectionItem> drain(ConcurrentLinkedQueue<CollectionItem> queue) {
+        List<CollectionItem> items = new ArrayList<>();
+        CollectionItem item;
+        while ((item = queue.poll()) != null) {
+            items.add(item);
+        }
+        return items;
+    }
+}
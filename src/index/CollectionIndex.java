@@ -0,0 +1,324 @@
+/*
+ * CollectionIndex.java
+ * purpose: search index over the collection, kept current as items change
+ *          replaces scanning every item on every search
+ * author: phin
+ */
+
+package index;
+
+import model.CollectionItem;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// search index for the collection
+// every item gets a small int id, and the index maps search tokens to sorted lists of ids
+// a search intersects the lists for each term, so its cost depends on how many items
+// match rather than on how big the collection is
+// a trigram index over titles and artists covers fragments from the middle of a word, and
+// a range index over years answers "1965-1972" and "1960s" without a term per year
+//
+// callers tell the index about every add, edit and delete - items are tracked by identity
+// safe to search from any thread while another thread updates it
+public class CollectionIndex {
+
+    // id -> item (null for freed ids) and item -> id
+    private final List<CollectionItem> items = new ArrayList<>();
+    private final Map<CollectionItem, Integer> ids = new IdentityHashMap<>();
+
+    // the tokens each id was indexed with, so an edit or delete can take exactly those out
+    private final List<String[]> tokensById = new ArrayList<>();
+
+    // the title and artist each id was indexed with - for the same reason, and for
+    // checking trigram candidates against what's actually indexed
+    private final List<String[]> textById = new ArrayList<>();
+
+    // ids freed by deletes, handed out again before growing
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+
+    private final TokenIndex tokens = new TokenIndex();
+    private final TrigramIndex trigrams = new TrigramIndex();
+    private final YearIndex years = new YearIndex();
+
+    // once a search is down to fewer than 1 in this many items, each remaining term is checked
+    // against what's left rather than looked up - merging a common word's posting list into a
+    // narrow result ("1960s artist") costs more than looking at the few items still in it
+    private static final int CHECK_FRACTION = 8;
+
+    // many searches at once, one writer at a time
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // indexes a new item (does nothing if it's already indexed)
+    public void add(CollectionItem item) {
+        lock.writeLock().lock();
+        try {
+            addLocked(item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // indexes a batch of new items under one lock
+    public void addAll(Collection<? extends CollectionItem> newItems) {
+        lock.writeLock().lock();
+        try {
+            for (CollectionItem item : newItems) {
+                addLocked(item);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // re-indexes an item after its fields were edited
+    public void update(CollectionItem item) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.get(item);
+            if (id == null) {
+                addLocked(item);
+                return;
+            }
+            unindex(id);
+            index(id, item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // drops an item from the index
+    public void remove(CollectionItem item) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.remove(item);
+            if (id == null) {
+                return;
+            }
+            unindex(id);
+            items.set(id, null);
+            tokensById.set(id, null);
+            textById.set(id, null);
+            freeIds.push(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // forgets everything
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            items.clear();
+            ids.clear();
+            tokensById.clear();
+            textById.clear();
+            freeIds.clear();
+            tokens.clear();
+            trigrams.clear();
+            years.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // number of indexed items
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // true if the item is indexed
+    public boolean contains(CollectionItem item) {
+        lock.readLock().lock();
+        try {
+            return ids.containsKey(item);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // items matching every word of the query
+    // each word matches the start of any word in the title, artist or format, or the year
+    // ("led zep" finds Led Zeppelin, "197" finds every year from the seventies)
+    // words of three or more letters also match anywhere inside the title or artist
+    // ("eppeli" finds Led Zeppelin too)
+    // "1965-1972" matches every year in the range and "1960s" the decade, alongside any other
+    // words ("beatles 1965-1972")
+    // an empty query matches nothing - callers show the whole collection instead
+    // results come back in index order, callers sort them however they're displaying them
+    // a search on an interrupted thread gives up with a CancellationException, so
+    // background searches stop promptly once they've been superseded
+    public List<CollectionItem> search(String query) {
+        List<int[]> ranges = new ArrayList<>();
+        String[] terms = TokenIndex.queryTerms(YearIndex.extractRanges(query, ranges));
+        List<CollectionItem> results = new ArrayList<>();
+        if (terms.length == 0 && ranges.isEmpty()) {
+            return results;
+        }
+
+        lock.readLock().lock();
+        try {
+            // rarest terms first, so the expensive substring checks only run on what's left
+            sortBySelectivity(terms);
+
+            // year ranges before any words - each is one lookup in a small tree
+            int[] matches = null;
+            for (int[] range : ranges) {
+                int[] rangeMatches = years.matchRange(range[0], range[1]);
+                matches = matches == null ? rangeMatches : PostingList.intersect(matches, rangeMatches);
+            }
+            for (String term : terms) {
+                if (matches != null && matches.length == 0) {
+                    break; // nothing left to narrow down
+                }
+                checkCancelled();
+                if (matches != null && (long) matches.length * CHECK_FRACTION < ids.size()) {
+                    matches = checkTerm(term, matches);
+                    continue;
+                }
+                int[] termMatches = tokens.matchPrefix(term);
+                if (term.length() >= 3) {
+                    termMatches = PostingList.union(termMatches, substringMatches(term, matches));
+                }
+                matches = matches == null ? termMatches : PostingList.intersect(matches, termMatches);
+            }
+
+            for (int id : matches) {
+                results.add(items.get(id));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // orders terms from fewest to most likely matches. must hold the read lock
+    private void sortBySelectivity(String[] terms) {
+        int[] estimates = new int[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            estimates[i] = terms[i].length() >= 3 ? trigrams.estimate(terms[i]) : Integer.MAX_VALUE;
+        }
+        // a handful of terms at most - insertion sort keeps the two arrays in step
+        for (int i = 1; i < terms.length; i++) {
+            for (int j = i; j > 0 && estimates[j] < estimates[j - 1]; j--) {
+                int estimate = estimates[j];
+                estimates[j] = estimates[j - 1];
+                estimates[j - 1] = estimate;
+                String term = terms[j];
+                terms[j] = terms[j - 1];
+                terms[j - 1] = term;
+            }
+        }
+    }
+
+    // ids whose title or artist contains the term - trigrams narrow it down, then each
+    // candidate is checked for real. within (if not null) limits it to ids still in the running
+    // must hold the read lock
+    private int[] substringMatches(String term, int[] within) {
+        int[] candidates = trigrams.candidates(term, within);
+        if (term.length() == 3) {
+            return candidates; // the term is its own trigram, nothing left to check
+        }
+        int count = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            if ((i & 0xFFF) == 0) {
+                checkCancelled();
+            }
+            int id = candidates[i];
+            String[] text = textById.get(id);
+            if (TrigramIndex.containsIgnoreCase(text[0], term) || TrigramIndex.containsIgnoreCase(text[1], term)) {
+                candidates[count++] = id;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    // the ids that match a term, checked one by one against what each was indexed with - the
+    // same rules as the index lookups: a token starting with the term, or for three letters or
+    // more the term anywhere in the title or artist. must hold the read lock
+    private int[] checkTerm(String term, int[] candidates) {
+        int[] kept = new int[candidates.length];
+        int count = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            if ((i & 0xFFF) == 0) {
+                checkCancelled();
+            }
+            int id = candidates[i];
+            if (hasTokenStartingWith(tokensById.get(id), term) ||
+                (term.length() >= 3 && (TrigramIndex.containsIgnoreCase(textById.get(id)[0], term) ||
+                                        TrigramIndex.containsIgnoreCase(textById.get(id)[1], term)))) {
+                kept[count++] = id;
+            }
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    private static boolean hasTokenStartingWith(String[] itemTokens, String prefix) {
+        for (String token : itemTokens) {
+            if (token.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // bails out of a search whose thread has been interrupted
+    private static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("search cancelled");
+        }
+    }
+
+    // must hold the write lock
+    private void addLocked(CollectionItem item) {
+        if (ids.containsKey(item)) {
+            return;
+        }
+        int id;
+        if (freeIds.isEmpty()) {
+            id = items.size();
+            items.add(item);
+            tokensById.add(null);
+            textById.add(null);
+        } else {
+            id = freeIds.pop();
+            items.set(id, item);
+        }
+        ids.put(item, id);
+        index(id, item);
+    }
+
+    // must hold the write lock
+    private void index(int id, CollectionItem item) {
+        String[] itemTokens = TokenIndex.tokenize(item);
+        tokensById.set(id, itemTokens);
+        tokens.add(id, itemTokens);
+
+        String[] text = {item.getTitle(), item.getArtist()};
+        textById.set(id, text);
+        trigrams.add(id, text);
+
+        years.add(id, item.getYear());
+    }
+
+    // must hold the write lock
+    private void unindex(int id) {
+        tokens.remove(id, tokensById.get(id));
+        trigrams.remove(id, textById.get(id));
+        years.remove(id);
+    }
+}
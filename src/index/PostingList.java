@@ -0,0 +1,229 @@
+/*
+ * PostingList.java
+ * purpose: sorted list of item ids for one index key
+ *          plain int arrays - no boxing, cheap to intersect
+ * author: phin
+ */
+
+package index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+// ids of every item that has a given key, kept sorted ascending
+// ids mostly arrive in increasing order so adds are usually a plain append
+//
+// the rest never shift the array under the index's write lock: a removed id is only marked
+// dead where it sits (and comes back to life if it's added again, which is what an edit does),
+// and an id smaller than the last one waits in a short sorted side list. both are folded into
+// the main array once there are enough of them to be worth a pass - a quarter of the list dead,
+// or a sixteenth waiting - so the copying costs a constant per change however long the list is
+final class PostingList {
+
+    // out-of-order ids waiting to be merged in - never more than this plus a sixteenth of the list
+    private static final int PENDING_MIN = 8;
+
+    private int[] ids = new int[4];
+    private int size = 0;
+
+    // positions in ids whose id has been removed - null until the first remove
+    private BitSet dead;
+    private int deadCount = 0;
+
+    // sorted ids added out of order, all smaller than ids[size - 1]
+    private int[] pending = new int[0];
+    private int pendingSize = 0;
+
+    // adds an id if it isn't already there
+    void add(int id) {
+        if (size == 0 || ids[size - 1] < id) {
+            // the common case - new ids are bigger than everything so far
+            ensureCapacity();
+            ids[size++] = id;
+            return;
+        }
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position >= 0) {
+            if (dead != null && dead.get(position)) {
+                dead.clear(position);
+                deadCount--;
+            }
+            return;
+        }
+        int insertAt = Arrays.binarySearch(pending, 0, pendingSize, id);
+        if (insertAt >= 0) {
+            return;
+        }
+        insertAt = -insertAt - 1;
+        if (pendingSize == pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(4, pendingSize * 2));
+        }
+        System.arraycopy(pending, insertAt, pending, insertAt + 1, pendingSize - insertAt);
+        pending[insertAt] = id;
+        pendingSize++;
+        if (pendingSize > PENDING_MIN + (size >>> 4)) {
+            compact();
+        }
+    }
+
+    // removes an id if it's there
+    void remove(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position >= 0) {
+            if (dead == null) {
+                dead = new BitSet();
+            }
+            if (!dead.get(position)) {
+                dead.set(position);
+                deadCount++;
+                if (deadCount * 4 > size) {
+                    compact();
+                }
+            }
+            return;
+        }
+        position = Arrays.binarySearch(pending, 0, pendingSize, id);
+        if (position >= 0) {
+            System.arraycopy(pending, position + 1, pending, position, pendingSize - position - 1);
+            pendingSize--;
+        }
+    }
+
+    int size() {
+        return size - deadCount + pendingSize;
+    }
+
+    boolean contains(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position >= 0) {
+            return dead == null || !dead.get(position);
+        }
+        return Arrays.binarySearch(pending, 0, pendingSize, id) >= 0;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // copy of the ids, sorted
+    int[] toArray() {
+        if (deadCount == 0 && pendingSize == 0) {
+            return Arrays.copyOf(ids, size);
+        }
+        return merged();
+    }
+
+    // sets a bit for every id - used to union many lists at once
+    void addTo(BitSet bits) {
+        for (int i = 0; i < size; i++) {
+            if (dead == null || !dead.get(i)) {
+                bits.set(ids[i]);
+            }
+        }
+        for (int i = 0; i < pendingSize; i++) {
+            bits.set(pending[i]);
+        }
+    }
+
+    private void ensureCapacity() {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+    }
+
+    // drops the dead ids and merges the waiting ones in - one pass over the list
+    private void compact() {
+        int[] live = merged();
+        ids = Arrays.copyOf(live, Math.max(4, live.length + (live.length >>> 2)));
+        size = live.length;
+        dead = null;
+        deadCount = 0;
+        pending = new int[0];
+        pendingSize = 0;
+    }
+
+    // the live ids and the waiting ones, merged in order
+    private int[] merged() {
+        int[] result = new int[size()];
+        int count = 0;
+        int next = 0;
+        for (int i = 0; i < size; i++) {
+            if (dead != null && dead.get(i)) {
+                continue;
+            }
+            while (next < pendingSize && pending[next] < ids[i]) {
+                result[count++] = pending[next++];
+            }
+            result[count++] = ids[i];
+        }
+        while (next < pendingSize) {
+            result[count++] = pending[next++];
+        }
+        return result;
+    }
+
+    // ids present in both sorted arrays
+    // walks the smaller array and gallops through the bigger one, so a rare term
+    // intersected with a common one costs about small * log(big)
+    static int[] intersect(int[] a, int[] b) {
+        if (a.length > b.length) {
+            int[] swap = a;
+            a = b;
+            b = swap;
+        }
+        int[] result = new int[a.length];
+        int count = 0;
+        int from = 0;
+        for (int id : a) {
+            int position = gallop(b, from, id);
+            if (position < b.length && b[position] == id) {
+                result[count++] = id;
+                from = position + 1;
+            } else {
+                from = position;
+            }
+            if (from >= b.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // ids present in either sorted array
+    static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                result[count++] = a[i++];
+            } else if (a[i] > b[j]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            result[count++] = a[i++];
+        }
+        while (j < b.length) {
+            result[count++] = b[j++];
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // first position at or after from whose value is >= target
+    private static int gallop(int[] sorted, int from, int target) {
+        int step = 1;
+        int high = from;
+        while (high < sorted.length && sorted[high] < target) {
+            from = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        int position = Arrays.binarySearch(sorted, from, Math.min(high + 1, sorted.length), target);
+        return position >= 0 ? position : -position - 1;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * TokenIndex.java
+ * purpose: inverted index from normalized words to the items containing them
+ *          answers search terms without looking at every item
+ * author: phin
+ */
+
+package index;
+
+import model.CollectionItem;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+// token -> posting list of item ids
+// the distinct tokens are also kept sorted so a search term can match every token it's a
+// prefix of ("zep" finds "zeppelin", "197" finds 1970-1979) with one range lookup
+// postings themselves sit in a hash map - indexing an item is a few hash lookups, and the
+// sorted set only changes when a brand new token shows up
+final class TokenIndex {
+
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private final TreeSet<String> sortedTokens = new TreeSet<>();
+
+    // indexes an item's tokens under its id
+    void add(int id, String[] tokens) {
+        for (String token : tokens) {
+            PostingList list = postings.get(token);
+            if (list == null) {
+                list = new PostingList();
+                postings.put(token, list);
+                sortedTokens.add(token);
+            }
+            list.add(id);
+        }
+    }
+
+    // removes an item's tokens - the same tokens it was added with
+    void remove(int id, String[] tokens) {
+        for (String token : tokens) {
+            PostingList list = postings.get(token);
+            if (list != null) {
+                list.remove(id);
+                if (list.isEmpty()) {
+                    postings.remove(token);
+                    sortedTokens.remove(token);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        postings.clear();
+        sortedTokens.clear();
+    }
+
+    // sorted ids of every item with a token starting with the prefix
+    int[] matchPrefix(String prefix) {
+        NavigableSet<String> range = sortedTokens.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+        if (range.isEmpty()) {
+            return new int[0];
+        }
+        if (range.size() == 1) {
+            return postings.get(range.first()).toArray();
+        }
+
+        // several tokens share the prefix - union them through a bitset
+        BitSet bits = new BitSet();
+        for (String token : range) {
+            postings.get(token).addTo(bits);
+        }
+        return bits.stream().toArray();
+    }
+
+    // number of distinct tokens
+    int tokenCount() {
+        return postings.size();
+    }
+
+    // every distinct token in the fields the gui searches - title, artist, media type, year
+    // items only have a handful of words, so a list with a contains check beats a hash set
+    static String[] tokenize(CollectionItem item) {
+        List<String> tokens = new ArrayList<>(8);
+        splitInto(item.getTitle(), tokens);
+        splitInto(item.getArtist(), tokens);
+        splitInto(item.getMediaType(), tokens);
+        tokens.add(Integer.toString(item.getYear()));
+
+        List<String> distinct = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            if (!distinct.contains(token)) {
+                distinct.add(token);
+            }
+        }
+        return distinct.toArray(new String[0]);
+    }
+
+    // splits a search query into normalized terms, same rules as tokenize
+    static String[] queryTerms(String query) {
+        List<String> terms = new ArrayList<>();
+        splitInto(query, terms);
+        return terms.toArray(new String[0]);
+    }
+
+    // lowercases and splits on anything that isn't a letter or digit
+    private static void splitInto(String text, List<String> words) {
+        if (text == null) {
+            return;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+}
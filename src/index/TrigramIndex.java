@@ -0,0 +1,156 @@
+/*
+ * TrigramIndex.java
+ * purpose: index of every three-character fragment of titles and artists
+ *          finds items containing an arbitrary substring without scanning them all
+ * author: phin
+ */
+
+package index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// trigram -> posting list of item ids
+// any substring of three or more characters contains at least one trigram, and every item
+// containing the substring must contain all of them - so intersecting those posting lists
+// gives a short candidate list, and only the candidates get checked for the real substring
+// ("eppeli" -> epp, ppe, pel, eli -> Led Zeppelin)
+final class TrigramIndex {
+
+    // trigrams are packed into a long, 16 bits per (lowercased) char
+    private final Map<Long, PostingList> postings = new HashMap<>();
+
+    // indexes every trigram of the given texts under the id
+    void add(int id, String... texts) {
+        for (long trigram : trigramsOf(texts)) {
+            postings.computeIfAbsent(trigram, key -> new PostingList()).add(id);
+        }
+    }
+
+    // removes the id from every trigram of the given texts - the same texts it was added with
+    void remove(int id, String... texts) {
+        for (long trigram : trigramsOf(texts)) {
+            PostingList list = postings.get(trigram);
+            if (list != null) {
+                list.remove(id);
+                if (list.isEmpty()) {
+                    postings.remove(trigram);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        postings.clear();
+    }
+
+    // ids that might contain the term - every one of its trigrams is present
+    // candidates still need checking, the trigrams could be in the wrong order or spread out
+    // if within isn't null only those (sorted) ids are considered, which is much cheaper
+    // than intersecting whole posting lists when earlier search terms already narrowed it down
+    // the term must be lowercase and at least three characters long
+    int[] candidates(String term, int[] within) {
+        PostingList[] lists = listsFor(term);
+        if (lists == null) {
+            return new int[0]; // a trigram nobody has - nothing can match
+        }
+
+        if (within != null && within.length < lists[0].size()) {
+            // probe each of the few remaining ids instead
+            int[] matches = new int[within.length];
+            int count = 0;
+            for (int id : within) {
+                boolean all = true;
+                for (int i = 0; i < lists.length && all; i++) {
+                    all = lists[i].contains(id);
+                }
+                if (all) {
+                    matches[count++] = id;
+                }
+            }
+            return Arrays.copyOf(matches, count);
+        }
+
+        int[] matches = lists[0].toArray();
+        for (int i = 1; i < lists.length && matches.length > 0; i++) {
+            matches = PostingList.intersect(matches, lists[i].toArray());
+        }
+        if (within != null) {
+            matches = PostingList.intersect(matches, within);
+        }
+        return matches;
+    }
+
+    // upper bound on how many items contain the term - the size of its rarest trigram's list
+    int estimate(String term) {
+        PostingList[] lists = listsFor(term);
+        return lists == null ? 0 : lists[0].size();
+    }
+
+    // posting lists for every trigram of the term, smallest first - null if any is missing
+    private PostingList[] listsFor(String term) {
+        long[] trigrams = trigramsOf(term);
+        PostingList[] lists = new PostingList[trigrams.length];
+        for (int i = 0; i < trigrams.length; i++) {
+            lists[i] = postings.get(trigrams[i]);
+            if (lists[i] == null) {
+                return null;
+            }
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size(), b.size()));
+        return lists;
+    }
+
+    // number of distinct trigrams
+    int trigramCount() {
+        return postings.size();
+    }
+
+    // case-insensitive contains without lowercasing (and copying) the text
+    static boolean containsIgnoreCase(String text, String lowerCaseTerm) {
+        int last = text.length() - lowerCaseTerm.length();
+        for (int start = 0; start <= last; start++) {
+            if (text.regionMatches(true, start, lowerCaseTerm, 0, lowerCaseTerm.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // distinct trigrams across all the texts (each text on its own - none span two fields)
+    private static long[] trigramsOf(String... texts) {
+        int total = 0;
+        for (String text : texts) {
+            if (text != null) {
+                total += Math.max(0, text.length() - 2);
+            }
+        }
+
+        long[] trigrams = new long[total];
+        int count = 0;
+        for (String text : texts) {
+            if (text == null) {
+                continue;
+            }
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                trigrams[count++] = pack(text.charAt(i), text.charAt(i + 1), text.charAt(i + 2));
+            }
+        }
+
+        // sort then squeeze out repeats
+        Arrays.sort(trigrams);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || trigrams[distinct - 1] != trigrams[i]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    // three lowercased chars in one long
+    private static long pack(char a, char b, char c) {
+        return ((long) Character.toLowerCase(a) << 32) | ((long) Character.toLowerCase(b) << 16) | Character.toLowerCase(c);
+    }
+}
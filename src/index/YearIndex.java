@@ -0,0 +1,106 @@
+/*
+ * YearIndex.java
+ * purpose: range index over release years for "1965-1972" and "1960s" searches
+ *          finds the items in a span of years without looking at the ones outside it
+ * author: phin
+ */
+
+package index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// year -> posting list of item ids, with the years kept sorted so a range is one subMap lookup
+// a collection only spans a hundred or so distinct years, so the tree stays tiny and a range
+// query costs a log n lookup plus the ids it returns
+//
+// the year each id was indexed under is remembered, so an edit that changes the year takes
+// the id out of the old year's list even though the item already says something else
+final class YearIndex {
+
+    // "1965-1972" (spaces around the dash are fine) and "1960s" in a search query
+    private static final Pattern RANGE = Pattern.compile("(?<![\\p{L}\\p{N}])(\\d{4})\\s*-\\s*(\\d{4})(?![\\p{L}\\p{N}])");
+    private static final Pattern DECADE = Pattern.compile("(?<![\\p{L}\\p{N}])(\\d{3})0s(?![\\p{L}\\p{N}])",
+        Pattern.CASE_INSENSITIVE);
+
+    private final NavigableMap<Integer, PostingList> years = new TreeMap<>();
+
+    // id -> the year it's indexed under
+    private int[] yearById = new int[16];
+
+    void add(int id, int year) {
+        years.computeIfAbsent(year, y -> new PostingList()).add(id);
+        if (id >= yearById.length) {
+            yearById = Arrays.copyOf(yearById, Math.max(id + 1, yearById.length * 2));
+        }
+        yearById[id] = year;
+    }
+
+    // takes an id out of whatever year it was added under
+    void remove(int id) {
+        PostingList list = years.get(yearById[id]);
+        if (list != null) {
+            list.remove(id);
+            if (list.isEmpty()) {
+                years.remove(yearById[id]);
+            }
+        }
+    }
+
+    void clear() {
+        years.clear();
+    }
+
+    // sorted ids of every item from one year to another, both included
+    int[] matchRange(int from, int to) {
+        Collection<PostingList> range = years.subMap(from, true, to, true).values();
+        if (range.isEmpty()) {
+            return new int[0];
+        }
+        if (range.size() == 1) {
+            return range.iterator().next().toArray();
+        }
+
+        // several years - union them through a bitset, the same as a prefix spanning many tokens
+        BitSet bits = new BitSet();
+        for (PostingList list : range) {
+            list.addTo(bits);
+        }
+        return bits.stream().toArray();
+    }
+
+    // takes the year ranges out of a search query, adding each as {from, to} to ranges, and
+    // returns the rest of the query for the word index. a backwards range ("1972-1965") is
+    // turned around, and "1960s" means 1960-1969
+    static String extractRanges(String query, List<int[]> ranges) {
+        if (query == null) {
+            return null;
+        }
+        StringBuilder rest = new StringBuilder();
+        Matcher matcher = RANGE.matcher(query);
+        while (matcher.find()) {
+            int from = Integer.parseInt(matcher.group(1));
+            int to = Integer.parseInt(matcher.group(2));
+            ranges.add(new int[] {Math.min(from, to), Math.max(from, to)});
+            matcher.appendReplacement(rest, " ");
+        }
+        matcher.appendTail(rest);
+
+        String withoutRanges = rest.toString();
+        rest.setLength(0);
+        matcher = DECADE.matcher(withoutRanges);
+        while (matcher.find()) {
+            int decade = Integer.parseInt(matcher.group(1)) * 10;
+            ranges.add(new int[] {decade, decade + 9});
+            matcher.appendReplacement(rest, " ");
+        }
+        matcher.appendTail(rest);
+        return rest.toString();
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * CatalogFormat.java
+ * purpose: the file formats catalogs can be imported from and exported to
+ * author: phin
+ */
+
+package io;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+// csv and json, as marketplace exports and other tools use them
+public enum CatalogFormat {
+    CSV, JSON;
+
+    // guesses the format from a file name - anything that isn't .json/.ndjson is csv
+    public static CatalogFormat of(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".json") || name.endsWith(".ndjson") ? JSON : CSV;
+    }
+}
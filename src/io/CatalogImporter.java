@@ -0,0 +1,226 @@
+/*
+ * CatalogImporter.java
+ * purpose: streams a csv or json catalog export into collection items, batch by batch
+ * author: phin
+ */
+
+package io;
+
+import model.CollectionItem;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// reads rows one at a time and hands items over in batches, so memory use is one batch plus
+// the parser's buffer no matter how big the export is. rows that can't be turned into items
+// are skipped and counted, and the first few reasons are kept for the summary.
+// runs on whatever thread calls it - the gui uses a SwingWorker - and stops at the next row
+// once cancel() is called, keeping whatever batches were already handed over
+public class CatalogImporter {
+
+    // items per batch - big enough that per-batch work (sorting, indexing, saving) is amortized
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+
+    // skipped rows we keep the reason for - the rest are just counted
+    static final int MAX_ERRORS_KEPT = 20;
+
+    // gets each batch as soon as it's full, on the importing thread
+    public interface BatchListener {
+        void batchImported(List<CollectionItem> batch, long rowsRead, long bytesRead);
+    }
+
+    // what an import did
+    public static class ImportResult {
+        private final long rowsRead;
+        private final long imported;
+        private final List<String> errors;
+        private final long elapsedNanos;
+        private final boolean cancelled;
+
+        ImportResult(long rowsRead, long imported, List<String> errors, long elapsedNanos, boolean cancelled) {
+            this.rowsRead = rowsRead;
+            this.imported = imported;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.cancelled = cancelled;
+        }
+
+        public long getRowsRead() {
+            return rowsRead;
+        }
+
+        public long getImported() {
+            return imported;
+        }
+
+        public long getSkipped() {
+            return rowsRead - imported;
+        }
+
+        // why the first few skipped rows were skipped
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public boolean wasCancelled() {
+            return cancelled;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rowsRead / (elapsedNanos / 1e9);
+        }
+    }
+
+    private final int batchSize;
+    private final ItemRowMapper mapper = new ItemRowMapper();
+    private volatile boolean cancelled = false;
+
+    public CatalogImporter() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    public CatalogImporter(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    // asks a running import to stop - safe from any thread
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // imports a file, working out csv or json from its name
+    public ImportResult importFile(Path file, BatchListener listener) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return importStream(in, CatalogFormat.of(file), listener);
+        }
+    }
+
+    // imports from a stream of utf-8 text - the stream is read to the end but not closed
+    public ImportResult importStream(InputStream in, CatalogFormat format, BatchListener listener) throws IOException {
+        CountingInputStream counted = new CountingInputStream(in);
+        Reader reader = new InputStreamReader(counted, StandardCharsets.UTF_8);
+        Progress progress = new Progress(counted, listener);
+        long start = System.nanoTime();
+
+        if (format == CatalogFormat.JSON) {
+            JsonReader json = new JsonReader(reader);
+            Map<String, String> row = new HashMap<>();
+            while (!cancelled && json.readObject(row)) {
+                progress.row(row, "object " + (progress.rowsRead + 1));
+            }
+        } else {
+            CsvReader csv = new CsvReader(reader);
+            List<String> header = new ArrayList<>();
+            if (csv.readRecord(header)) {
+                List<String> fields = new ArrayList<>();
+                Map<String, String> row = new HashMap<>();
+                while (!cancelled && csv.readRecord(fields)) {
+                    row.clear();
+                    for (int i = 0; i < fields.size() && i < header.size(); i++) {
+                        row.put(header.get(i), fields.get(i));
+                    }
+                    progress.row(row, "line " + csv.getLine());
+                }
+            }
+        }
+        progress.flush();
+
+        return new ImportResult(progress.rowsRead, progress.imported, progress.errors,
+            System.nanoTime() - start, cancelled);
+    }
+
+    // running totals plus the batch being filled
+    private class Progress {
+        private final CountingInputStream counted;
+        private final BatchListener listener;
+        private List<CollectionItem> batch = new ArrayList<>();
+        private long rowsRead = 0;
+        private long imported = 0;
+        private final List<String> errors = new ArrayList<>();
+
+        Progress(CountingInputStream counted, BatchListener listener) {
+            this.counted = counted;
+            this.listener = listener;
+        }
+
+        // maps one row, keeping the item or noting why it was skipped
+        void row(Map<String, String> row, String where) {
+            rowsRead++;
+            try {
+                batch.add(mapper.map(row));
+                imported++;
+            } catch (IllegalArgumentException e) {
+                if (errors.size() < MAX_ERRORS_KEPT) {
+                    errors.add(where + ": " + e.getMessage());
+                }
+            }
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        // hands the batch over and starts a new one
+        void flush() {
+            if (!batch.isEmpty()) {
+                listener.batchImported(batch, rowsRead, counted.count);
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    // counts bytes as they're read, so progress can be shown against the file size
+    private static class CountingInputStream extends FilterInputStream {
+        private volatile long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        // the caller owns the stream
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * CsvReader.java
+ * purpose: streaming csv parser - reads one record at a time with a fixed size buffer
+ * author: phin
+ */
+
+package io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+// reads rfc 4180 style csv: comma separated, fields optionally in double quotes,
+// "" for a quote inside a quoted field, and line breaks allowed inside quotes
+// lf, crlf and lone cr all end a record. blank lines are skipped
+// only the current record is ever held in memory, however big the file is
+public class CsvReader {
+
+    private static final int BUFFER_CHARS = 64 * 1024;
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_CHARS];
+    private int position = 0;
+    private int limit = 0;
+
+    // reused for every field so reading a row only allocates the field strings
+    private final StringBuilder field = new StringBuilder();
+
+    // line the current record started on, for error messages
+    private long line = 0;
+    private long nextLine = 1;
+
+    public CsvReader(Reader in) {
+        this.in = in;
+    }
+
+    // reads the next record into fields (cleared first)
+    // returns false at the end of the input
+    public boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+
+        // skip blank lines
+        int c = read();
+        while (c == '\n' || c == '\r') {
+            if (c == '\r' && peek() == '\n') {
+                read();
+            }
+            nextLine++;
+            c = read();
+        }
+        if (c == -1) {
+            return false;
+        }
+        line = nextLine;
+
+        while (true) {
+            field.setLength(0);
+            if (c == '"') {
+                c = readQuoted();
+            } else {
+                while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+                    field.append((char) c);
+                    c = read();
+                }
+            }
+            fields.add(field.toString());
+
+            if (c == ',') {
+                c = read();
+                continue;
+            }
+            // end of record
+            if (c == '\r' && peek() == '\n') {
+                read();
+            }
+            if (c != -1) {
+                nextLine++;
+            }
+            return true;
+        }
+    }
+
+    // line number the last record started on (1-based)
+    public long getLine() {
+        return line;
+    }
+
+    // reads a quoted field (opening quote already consumed) into field
+    // returns the character after it - a comma, a line break or -1
+    private int readQuoted() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new IOException("unclosed quote in record starting on line " + line);
+            }
+            if (c == '"') {
+                if (peek() == '"') {
+                    read();
+                    field.append('"');
+                    continue;
+                }
+                // closing quote - anything before the next separator is kept as is
+                c = read();
+                while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+                    field.append((char) c);
+                    c = read();
+                }
+                return c;
+            }
+            if (c == '\n') {
+                nextLine++;
+            }
+            field.append((char) c);
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        int count = in.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+}
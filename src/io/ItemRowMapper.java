@@ -0,0 +1,195 @@
+/*
+ * ItemRowMapper.java
+ * purpose: turns one imported row (column name -> text) into a collection item
+ *          through the factory, understanding the column names marketplace exports use
+ * author: phin
+ */
+
+package io;
+
+import factory.ItemFactory;
+import model.CollectionItem;
+import persistence.ItemCodec;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// maps rows to items. column names are matched loosely - case, spaces and punctuation are
+// ignored, and common alternatives are understood ("Media Type", "format", "type" ...)
+// a row that can't become an item throws IllegalArgumentException saying why
+public class ItemRowMapper {
+
+    // normalized column name -> the field it fills
+    private static final Map<String, String> ALIASES = new HashMap<>();
+
+    static {
+        alias("format", "format", "type", "mediatype", "media", "medium");
+        alias("title", "title", "album", "release", "releasetitle", "name");
+        alias("artist", "artist", "artists", "band", "performer");
+        alias("year", "year", "released", "releaseyear", "date");
+        alias("condition", "condition", "grade", "mediacondition", "conditiongrade");
+        alias("size", "size", "recordsize", "diameter");
+        alias("speed", "speed", "rpm");
+        alias("tracks", "tracks", "trackcount", "numtracks", "numberoftracks");
+        alias("booklet", "booklet", "hasbooklet");
+        alias("tapetype", "tapetype", "tape", "cassettetype");
+        alias("length", "length", "minutes", "duration", "lengthmin");
+    }
+
+    // patterns used on every row, compiled once
+    private static final Pattern RPM_SUFFIX = Pattern.compile("(?i)\\s*rpm$");
+    private static final Pattern NOT_DIGITS = Pattern.compile("[^0-9]");
+    private static final Pattern NOT_NUMBER = Pattern.compile("[^0-9-]");
+
+    // column name as it appears in the file -> field, or "" for columns we don't use
+    // a file only has a handful of column names, so each is normalized once
+    private final Map<String, String> fieldByColumn = new HashMap<>();
+
+    // reused between rows
+    private final Map<String, String> values = new HashMap<>();
+
+    // says whether an item could be saved - only check() is used, nothing is encoded
+    private final ItemCodec codec = new ItemCodec();
+
+    // builds an item from one row's fields (keys are the file's own column names)
+    public CollectionItem map(Map<String, String> row) {
+        values.clear();
+        for (Map.Entry<String, String> entry : row.entrySet()) {
+            String field = fieldByColumn.computeIfAbsent(entry.getKey(),
+                column -> ALIASES.getOrDefault(normalize(column), ""));
+            String value = entry.getValue() == null ? "" : entry.getValue().trim();
+            if (!field.isEmpty() && !value.isEmpty() && !values.containsKey(field)) {
+                values.put(field, value);
+            }
+        }
+
+        String title = required("title");
+        String artist = required("artist");
+        int year = parseYear(values.get("year"));
+        String condition = gradeCode(values.get("condition"));
+
+        CollectionItem item;
+        switch (mediaType(required("format"))) {
+            case RECORD:
+                item = ItemFactory.createRecord(title, artist, year, condition,
+                    recordSize(values.getOrDefault("size", "12\"")),
+                    RPM_SUFFIX.matcher(values.getOrDefault("speed", "33")).replaceAll(""));
+                break;
+            case CD:
+                item = ItemFactory.createCD(title, artist, year, condition,
+                    parseInt("tracks", 0), parseBoolean(values.get("booklet")));
+                break;
+            default:
+                item = ItemFactory.createCassette(title, artist, year, condition,
+                    values.getOrDefault("tapetype", "Normal"), parseInt("length", 0));
+                break;
+        }
+        // a field too long for the collection log is a bad row like any other - let through, it
+        // would only be refused later along with everything else in its batch
+        codec.check(item);
+        return item;
+    }
+
+    // lowercase letters and digits only, so "Track Count", "track_count" and "trackCount" all match
+    static String normalize(String columnName) {
+        StringBuilder normalized = new StringBuilder(columnName.length());
+        for (int i = 0; i < columnName.length(); i++) {
+            char c = columnName.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static void alias(String field, String... names) {
+        for (String name : names) {
+            ALIASES.put(name, field);
+        }
+    }
+
+    private String required(String field) {
+        String value = values.get(field);
+        if (value == null) {
+            throw new IllegalArgumentException("missing " + field);
+        }
+        return value;
+    }
+
+    // works out the format from whatever the export calls it
+    private static ItemFactory.MediaType mediaType(String format) {
+        String lower = format.toLowerCase(Locale.ROOT);
+        if (lower.contains("cassette") || lower.contains("tape") || lower.equals("mc")) {
+            return ItemFactory.MediaType.CASSETTE;
+        }
+        if (lower.startsWith("cd") || lower.contains("compact disc")) {
+            return ItemFactory.MediaType.CD;
+        }
+        if (lower.contains("vinyl") || lower.contains("record") || lower.equals("lp")
+                || lower.equals("ep") || lower.contains("\"") || lower.equals("single")) {
+            return ItemFactory.MediaType.RECORD;
+        }
+        throw new IllegalArgumentException("unknown format \"" + format + "\"");
+    }
+
+    // first four digits in a row - handles "1969", "1969-09-26" and "26/09/1969"
+    // no year at all comes through as 0
+    private static int parseYear(String text) {
+        if (text == null) {
+            return 0;
+        }
+        int run = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isDigit(text.charAt(i))) {
+                run++;
+                if (run == 4 && (i + 1 == text.length() || !Character.isDigit(text.charAt(i + 1)))) {
+                    return Integer.parseInt(text.substring(i - 3, i + 1));
+                }
+            } else {
+                run = 0;
+            }
+        }
+        throw new IllegalArgumentException("bad year \"" + text + "\"");
+    }
+
+    // marketplace exports spell grades out with the code in brackets - "Very Good Plus (VG+)"
+    private static String gradeCode(String text) {
+        if (text == null) {
+            return null;
+        }
+        int open = text.lastIndexOf('(');
+        int close = text.lastIndexOf(')');
+        if (open >= 0 && close > open) {
+            return text.substring(open + 1, close);
+        }
+        return text;
+    }
+
+    // sizes are stored with an inch mark - "12", "12 inch" and "12\"" are all 12"
+    private static String recordSize(String text) {
+        String digits = NOT_DIGITS.matcher(text).replaceAll("");
+        return digits.isEmpty() ? text : digits + "\"";
+    }
+
+    private int parseInt(String field, int missing) {
+        String value = values.get(field);
+        if (value == null) {
+            return missing;
+        }
+        try {
+            return Integer.parseInt(NOT_NUMBER.matcher(value).replaceAll(""));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad " + field + " \"" + value + "\"");
+        }
+    }
+
+    private static boolean parseBoolean(String text) {
+        if (text == null) {
+            return false;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        return lower.equals("true") || lower.equals("yes") || lower.equals("y") || lower.equals("1");
+    }
+}
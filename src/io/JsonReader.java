@@ -0,0 +1,222 @@
+/*
+ * JsonReader.java
+ * purpose: streaming json parser for catalog exports - reads one object at a time
+ * author: phin
+ */
+
+package io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+// reads a json array of objects, or objects one after another (newline delimited json),
+// handing back one object's fields at a time so memory stays flat however big the file is
+// catalog rows are flat, so only top-level fields are kept - strings, numbers and booleans
+// all come back as text, nulls are left out, and nested objects/arrays are skipped over
+public class JsonReader {
+
+    private static final int BUFFER_CHARS = 64 * 1024;
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_CHARS];
+    private int position = 0;
+    private int limit = 0;
+
+    // characters read so far, for error messages
+    private long offset = 0;
+
+    private final StringBuilder text = new StringBuilder();
+
+    // true once we've seen the opening bracket of a top-level array
+    private boolean inArray = false;
+    private boolean started = false;
+
+    public JsonReader(Reader in) {
+        this.in = in;
+    }
+
+    // reads the next object's fields into fields (cleared first)
+    // returns false once there are no more objects
+    public boolean readObject(Map<String, String> fields) throws IOException {
+        fields.clear();
+        int c = skipWhitespace();
+        if (!started) {
+            started = true;
+            if (c == '[') {
+                inArray = true;
+                c = skipWhitespace();
+            }
+        }
+        if (inArray) {
+            if (c == ',') {
+                c = skipWhitespace();
+            }
+            if (c == ']') {
+                return false;
+            }
+        }
+        if (c == -1) {
+            if (inArray) {
+                throw error("array never closed");
+            }
+            return false;
+        }
+        if (c != '{') {
+            throw error("expected an object");
+        }
+
+        c = skipWhitespace();
+        if (c == '}') {
+            return true;
+        }
+        while (true) {
+            if (c != '"') {
+                throw error("expected a field name");
+            }
+            String name = readString();
+            if (skipWhitespace() != ':') {
+                throw error("expected ':' after \"" + name + "\"");
+            }
+            String value = readValue(skipWhitespace());
+            if (value != null) {
+                fields.put(name, value);
+            }
+
+            c = skipWhitespace();
+            if (c == '}') {
+                return true;
+            }
+            if (c != ',') {
+                throw error("expected ',' or '}'");
+            }
+            c = skipWhitespace();
+        }
+    }
+
+    // reads a value starting with c - text for scalars, null for null and for anything nested
+    private String readValue(int c) throws IOException {
+        if (c == '"') {
+            return readString();
+        }
+        if (c == '{' || c == '[') {
+            skipNested(c);
+            return null;
+        }
+        text.setLength(0);
+        while (c != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+            text.append((char) c);
+            c = read();
+        }
+        if (c != -1) {
+            position--; // let the caller see the separator
+            offset--;
+        }
+        String literal = text.toString();
+        if (literal.isEmpty()) {
+            throw error("expected a value");
+        }
+        return literal.equals("null") ? null : literal;
+    }
+
+    // reads a string (opening quote already consumed), unescaping as it goes
+    private String readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw error("unclosed string");
+            }
+            if (c == '"') {
+                return text.toString();
+            }
+            if (c == '\\') {
+                int escaped = read();
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        text.append((char) escaped);
+                        break;
+                    case 'b':
+                        text.append('\b');
+                        break;
+                    case 'f':
+                        text.append('\f');
+                        break;
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 'r':
+                        text.append('\r');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    case 'u':
+                        text.append((char) readHex());
+                        break;
+                    default:
+                        throw error("bad escape in string");
+                }
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private int readHex() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+                throw error("bad \\u escape");
+            }
+            value = value * 16 + digit;
+        }
+        return value;
+    }
+
+    // skips a nested object or array, minding brackets inside strings
+    private void skipNested(int open) throws IOException {
+        int depth = 1;
+        while (depth > 0) {
+            int c = read();
+            if (c == -1) {
+                throw error("unclosed " + (open == '{' ? "object" : "array"));
+            }
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c = read();
+        while (c != -1 && Character.isWhitespace(c)) {
+            c = read();
+        }
+        return c;
+    }
+
+    private IOException error(String message) {
+        return new IOException("bad json near character " + offset + ": " + message);
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            int count = in.read(buffer, 0, buffer.length);
+            if (count <= 0) {
+                return -1;
+            }
+            position = 0;
+            limit = count;
+        }
+        offset++;
+        return buffer[position++];
+    }
+}
@@ -14,6 +14,13 @@ public class CD extends CollectionItem {
     private boolean hasBooklet;
 
     // constructor with cd-specific stuff
+    public CD(String title, String artist, int year, Grade grade, int trackCount, boolean hasBooklet) {
+        super(title, artist, year, grade);
+        this.trackCount = trackCount;
+        this.hasBooklet = hasBooklet;
+    }
+
+    // same as above with the condition given as text - parsed into a grade, the text kept
     public CD(String title, String artist, int year, String condition, int trackCount, boolean hasBooklet) {
         super(title, artist, year, condition);
         this.trackCount = trackCount;
@@ -47,6 +54,6 @@ public class CD extends CollectionItem {
     // returns the cd-specific details
     @Override
     public String getFormatDetails() {
-        return trackCount + " tracks" + (hasBooklet ? ", includes booklet" : "");
+        return getTrackCount() + " tracks" + (hasBooklet() ? ", includes booklet" : "");
     }
 }
@@ -14,6 +14,13 @@ public class Cassette extends CollectionItem {
     private int length; // in minutes (60, 90, 120, etc.)
 
     // constructor with cassette-specific stuff
+    public Cassette(String title, String artist, int year, Grade grade, String tapeType, int length) {
+        super(title, artist, year, grade);
+        this.tapeType = tapeType;
+        this.length = length;
+    }
+
+    // same as above with the condition given as text - parsed into a grade, the text kept
     public Cassette(String title, String artist, int year, String condition, String tapeType, int length) {
         super(title, artist, year, condition);
         this.tapeType = tapeType;
@@ -47,6 +54,6 @@ public class Cassette extends CollectionItem {
     // returns the cassette-specific details
     @Override
     public String getFormatDetails() {
-        return tapeType + " tape, " + length + " min";
+        return getTapeType() + " tape, " + getLength() + " min";
     }
 }
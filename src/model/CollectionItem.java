@@ -14,14 +14,25 @@ public abstract class CollectionItem {
     protected String title;
     protected String artist;
     protected int year;
-    protected String condition; // mint, excellent, good, fair, poor
+    protected byte grade; // goldmine grade ordinal - see Grade
+
+    // the condition as it was given, when that's anything but the grade's own code ("Mint",
+    // "sealed??") - so what the user typed or imported reads back and exports unchanged.
+    // null in the usual case, so most items carry no extra string
+    protected String conditionText;
 
     // constructor sets up the basic item info
-    public CollectionItem(String title, String artist, int year, String condition) {
+    public CollectionItem(String title, String artist, int year, Grade grade) {
         this.title = title;
         this.artist = artist;
         this.year = year;
-        this.condition = condition;
+        this.grade = (byte) grade.ordinal();
+    }
+
+    // text condition is parsed into a grade - unknown text becomes UNGRADED, but the text is kept
+    public CollectionItem(String title, String artist, int year, String condition) {
+        this(title, artist, year, Grade.parse(condition));
+        keepConditionText(condition);
     }
 
     // getters for all the properties - pretty standard stuff
@@ -37,8 +48,18 @@ public abstract class CollectionItem {
         return year;
     }
 
+    public Grade getGrade() {
+        return Grade.fromOrdinal(getGradeOrdinal());
+    }
+
+    // raw grade ordinal - lets sorts and filters compare grades as plain ints
+    public int getGradeOrdinal() {
+        return grade;
+    }
+
+    // condition as text - exactly what was set, or the grade code if only a grade was
     public String getCondition() {
-        return condition;
+        return conditionText != null ? conditionText : getGrade().getCode();
     }
 
     // setters in case user wants to edit items later
@@ -54,8 +75,20 @@ public abstract class CollectionItem {
         this.year = year;
     }
 
+    public void setGrade(Grade grade) {
+        this.grade = (byte) grade.ordinal();
+        this.conditionText = null;
+    }
+
+    // sorts by the grade the text parses to, and reads back as the text itself
     public void setCondition(String condition) {
-        this.condition = condition;
+        setGrade(Grade.parse(condition));
+        keepConditionText(condition);
+    }
+
+    // keeps condition text only when the grade's code wouldn't give it back
+    private void keepConditionText(String condition) {
+        conditionText = condition == null || condition.equals(Grade.fromOrdinal(grade).getCode()) ? null : condition;
     }
 
     // each subclass must define what type of media it is
@@ -65,9 +98,10 @@ public abstract class CollectionItem {
     public abstract String getFormatDetails();
 
     // nice string representation for display purposes
+    // goes through the getters so items whose values live elsewhere (store views) print right
     @Override
     public String toString() {
         return String.format("%s - %s (%d) [%s] - %s",
-            artist, title, year, condition, getMediaType());
+            getArtist(), getTitle(), getYear(), getCondition(), getMediaType());
     }
 }
@@ -0,0 +1,98 @@
+/*
+ * Grade.java
+ * purpose: goldmine grading scale as a type instead of free-form text
+ *          items store the grade as a single byte ordinal
+ * author: phin
+ */
+
+package model;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// goldmine grades in order - best first, so ordinal order is sort order
+// UNGRADED catches anything we can't parse and always sorts last
+public enum Grade {
+    MINT("M", "Mint"),
+    NEAR_MINT("NM", "Near Mint"),
+    EXCELLENT("EX", "Excellent"),
+    VERY_GOOD_PLUS("VG+", "Very Good Plus"),
+    VERY_GOOD("VG", "Very Good"),
+    GOOD_PLUS("G+", "Good Plus"),
+    GOOD("G", "Good"),
+    FAIR("F", "Fair"),
+    POOR("P", "Poor"),
+    UNGRADED("Ungraded", "Ungraded");
+
+    // cached values() - the jdk hands out a fresh copy on every call
+    private static final Grade[] VALUES = values();
+
+    // lowercase code or name -> grade, filled in once when the class loads
+    private static final Map<String, Grade> BY_TEXT = new HashMap<>();
+
+    static {
+        for (Grade grade : VALUES) {
+            BY_TEXT.put(grade.code.toLowerCase(Locale.ROOT), grade);
+            BY_TEXT.put(grade.displayName.toLowerCase(Locale.ROOT), grade);
+        }
+    }
+
+    // short code shown in the table and dialogs (M, NM, VG+ ...)
+    private final String code;
+
+    // long name people type in imports and older data ("Excellent", "Mint" ...)
+    private final String displayName;
+
+    Grade(String code, String displayName) {
+        this.code = code;
+        this.displayName = displayName;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    // sort rank used by the condition sort - 1 for mint through 9 for poor, 99 if ungraded
+    public int getRank() {
+        return this == UNGRADED ? 99 : ordinal() + 1;
+    }
+
+    // true if this grade is at least as good as the other one
+    public boolean isAtLeast(Grade other) {
+        return ordinal() <= other.ordinal();
+    }
+
+    // parses a code or long name, ignoring case and surrounding spaces
+    // anything unrecognised (including null) comes back as UNGRADED rather than failing
+    public static Grade parse(String text) {
+        if (text == null) {
+            return UNGRADED;
+        }
+        Grade grade = BY_TEXT.get(text.trim().toLowerCase(Locale.ROOT));
+        return grade == null ? UNGRADED : grade;
+    }
+
+    // looks a grade up by the ordinal items store - no allocation, no hashing
+    public static Grade fromOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    // the real grades (everything but UNGRADED) as codes, for the dropdowns
+    public static String[] gradeCodes() {
+        String[] codes = new String[VALUES.length - 1];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = VALUES[i].code;
+        }
+        return codes;
+    }
+
+    @Override
+    public String toString() {
+        return code;
+    }
+}
@@ -14,6 +14,13 @@ public class Record extends CollectionItem {
     private String speed; // 33, 45, or 78 rpm
 
     // constructor with all the vinyl-specific stuff
+    public Record(String title, String artist, int year, Grade grade, String size, String speed) {
+        super(title, artist, year, grade);
+        this.size = size;
+        this.speed = speed;
+    }
+
+    // same as above with the condition given as text - parsed into a grade, the text kept
     public Record(String title, String artist, int year, String condition, String size, String speed) {
         super(title, artist, year, condition);
         this.size = size;
@@ -47,6 +54,6 @@ public class Record extends CollectionItem {
     // returns the vinyl-specific details
     @Override
     public String getFormatDetails() {
-        return size + " @ " + speed + " RPM";
+        return getSize() + " @ " + getSpeed() + " RPM";
     }
 }
@@ -0,0 +1,852 @@
+/*
+ * CollectionLog.java
+ * purpose: saves the collection as an append-only journal of add, edit and delete records,
+ *          folded into a compact snapshot in the background so startup stays fast
+ * author: phin
+ */
+
+package persistence;
+
+import model.CollectionItem;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// file layout (journal and snapshot are the same format):
+//   header - int magic "MCOL", short version, short unused
+//   records, back to back - int length, int crc32, byte operation, long item id, item bytes
+// length and crc cover everything after the crc; delete records have no item bytes
+//
+// every item gets a numeric id the first time it's written, and later edits and deletes refer
+// to it by that id. every append is forced to disk before it returns, so a change the gui has
+// shown is a change that survives a crash.
+//
+// three files live side by side:
+//   collection.log          - the journal new records are appended to
+//   collection.log.old      - a journal that's being folded into the snapshot
+//   collection.log.snapshot - the latest record of every live item, nothing else
+// plus, between a clean close and the next change, collection.log.order - the ids of the live
+// items in the order the app last kept them (see saveOrder), so the next open can skip a sort
+// once the journal has more records than there are live items, it's swapped for an empty one
+// (a rename, done under the write lock) and a background thread folds the old one into a new
+// snapshot. appends carry on into the fresh journal the whole time. opening replays
+// snapshot, then old, then journal - replaying a record twice changes nothing, so a crash at
+// any point during compaction just means the next open or compaction redoes some work.
+//
+// opening reads through each file's record headers to find the last version of each live
+// item - nothing is decoded until the item is actually asked for, and versions that were since
+// edited or deleted are never decoded at all. the files are read with plain reads, never
+// mapped, and whatever hasn't been decoded yet is decoded before compaction renames or
+// deletes any of them - so no file is held open while it's moved (which windows refuses).
+// every rename and delete is followed by forcing the directory, so it survives a crash too.
+// a record that was only half written (power cut, crash) fails its crc and is ignored, along
+// with anything after it
+public class CollectionLog implements Closeable {
+
+    // what a record does to the item it names
+    public enum Operation {
+        ADD, EDIT, DELETE
+    }
+
+    static final int MAGIC = 0x4D434F4C; // "MCOL"
+    static final int ORDER_MAGIC = 0x4D434F52; // "MCOR"
+    static final short VERSION = 1;
+    static final int HEADER_BYTES = 8;
+
+    // length + crc in front of every record
+    static final int RECORD_PREFIX_BYTES = 8;
+
+    // operation + id at the start of every record body
+    static final int RECORD_HEADER_BYTES = 9;
+
+    // journals smaller than this are never worth compacting
+    static final int MIN_COMPACT_RECORDS = 10_000;
+
+    // records are built up here and written in one go
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    private final Path file;
+    private final Path oldFile;
+    private final Path snapshotFile;
+    private final Path orderFile;
+    private FileChannel channel;
+
+    // where the next record goes - just past the last good record
+    private long writePosition;
+
+    // records in the current journal, and how many items are live across all the files
+    private long journalRecords;
+    private long liveItems;
+
+    private final ItemCodec codec = new ItemCodec();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+
+    // ids of items we've written or loaded - matched by identity like the rest of the app
+    private final Map<CollectionItem, Long> ids = new IdentityHashMap<>();
+    private long nextId = 1;
+
+    // the live items found when the log was opened, decoded on first access
+    private final LazyItems loaded;
+
+    // what the loaded items are ordered by - null for oldest first
+    private final String loadedOrder;
+
+    // true while an order file is on disk - the first change after that deletes it
+    private boolean orderSaved;
+
+    // one background thread folds journals into the snapshot
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "collection-log-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> compaction;
+
+    // held while folding, so an explicit compact() and a background one never write the snapshot at once
+    private final Object foldLock = new Object();
+
+    private CollectionLog(Path file) throws IOException {
+        this.file = file;
+        this.oldFile = file.resolveSibling(file.getFileName() + ".old");
+        this.snapshotFile = file.resolveSibling(file.getFileName() + ".snapshot");
+        this.orderFile = file.resolveSibling(file.getFileName() + ".order");
+
+        // snapshot first, then a half-finished compaction, then the journal - later records win
+        // each file stays open for reading until its items have been decoded
+        RecordIndex index = new RecordIndex();
+        List<FileChannel> sources = new ArrayList<>();
+        try {
+            for (Path previous : new Path[] {snapshotFile, oldFile}) {
+                if (Files.exists(previous)) {
+                    FileChannel in = FileChannel.open(previous, StandardOpenOption.READ);
+                    sources.add(in);
+                    index.scan(new RecordReader(in, previous), sources.size() - 1);
+                }
+            }
+
+            boolean created = !Files.exists(file);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() == 0) {
+                writeHeader();
+                channel.force(true);
+                if (created) {
+                    syncDirectory();
+                }
+            } else {
+                FileChannel journal = FileChannel.open(file, StandardOpenOption.READ);
+                sources.add(journal);
+                journalRecords = index.scan(new RecordReader(journal, file), sources.size() - 1);
+                // new records go straight after the last good one, over any torn tail
+                writePosition = index.validEnd;
+            }
+        } catch (IOException | RuntimeException e) {
+            for (FileChannel source : sources) {
+                source.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            throw e;
+        }
+
+        nextId = index.maxId + 1;
+        orderSaved = Files.exists(orderFile);
+        String[] orderName = new String[1];
+        int[] order = orderSaved ? readOrder(index, orderName) : null;
+        this.loaded = new LazyItems(index, order, sources.toArray(new FileChannel[0]));
+        this.loadedOrder = orderName[0];
+        liveItems = loaded.size();
+    }
+
+    // opens a log, creating it (and its directory) if it doesn't exist yet
+    // a journal with a long history is compacted in the background straight away
+    public static CollectionLog open(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        CollectionLog log = new CollectionLog(file.toAbsolutePath());
+        synchronized (log) {
+            log.maybeCompact();
+        }
+        return log;
+    }
+
+    // the items that were in the collection when the log was opened - in the order last saved
+    // with saveOrder if nothing has changed since, otherwise oldest first
+    // decoded the first time each one is read, so opening a big log is just a header scan
+    public List<CollectionItem> items() {
+        return loaded;
+    }
+
+    // the name saveOrder was given for the order items() is in, or null if it's oldest first
+    public String getOrderName() {
+        return loadedOrder;
+    }
+
+    // the file this log writes to
+    public Path getFile() {
+        return file;
+    }
+
+    // throws IllegalArgumentException if an item couldn't be written to the log (a string that's
+    // too long, say) - lets callers turn an item away before they change anything else
+    public void check(CollectionItem item) {
+        codec.check(item); // reads nothing but the item, so safe without the lock
+    }
+
+    // records one change, on disk by the time this returns
+    // an edit to an item the log has never seen is written as an add,
+    // and deleting an item it has never seen does nothing
+    // an item that can't be stored is refused with IllegalArgumentException and nothing is written
+    public synchronized void append(Operation operation, CollectionItem item) throws IOException {
+        if (operation != Operation.DELETE) {
+            check(item);
+        }
+        dropOrder();
+        appendRecord(operation, item);
+        commit();
+    }
+
+    // records the same change for a batch of items with as few writes as possible
+    // the whole batch goes to disk with one force
+    // every item is checked first, so one that can't be stored refuses the whole batch
+    public synchronized void appendAll(Operation operation, Collection<? extends CollectionItem> items)
+            throws IOException {
+        if (operation != Operation.DELETE) {
+            for (CollectionItem item : items) {
+                check(item);
+            }
+        }
+        dropOrder();
+        for (CollectionItem item : items) {
+            appendRecord(operation, item);
+        }
+        commit();
+    }
+
+    // remembers the order the collection is in, so the next open can hand the items back in it
+    // and the app needn't sort them again - name says what the order is (a sort strategy, say).
+    // meant for just before close: the first change made after this forgets the order again,
+    // so a saved order never disagrees with what's in the log. items the log doesn't know are left out
+    public synchronized void saveOrder(String name, List<CollectionItem> items) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + 2 + nameBytes.length + 4 + 4 * items.size() + 4);
+        out.putInt(ORDER_MAGIC).putShort(VERSION).putShort((short) 0);
+        out.putShort((short) nameBytes.length).put(nameBytes);
+        int countAt = out.position();
+        out.putInt(0);
+        int count = 0;
+        for (CollectionItem item : items) {
+            Long id = ids.get(item);
+            if (id != null) {
+                out.putInt(id.intValue());
+                count++;
+            }
+        }
+        out.putInt(countAt, count);
+        CRC32 check = new CRC32();
+        check.update(out.array(), 0, out.position());
+        out.putInt((int) check.getValue());
+        out.flip();
+
+        // written aside and renamed into place, so a crash leaves the old order or none
+        Path temp = orderFile.resolveSibling(orderFile.getFileName() + ".tmp");
+        try (FileChannel orderOut = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                orderOut.write(out);
+            }
+            orderOut.force(true);
+        }
+        Files.move(temp, orderFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+        orderSaved = true;
+    }
+
+    // folds the journal into the snapshot now, waiting until it's done
+    // normally this happens by itself in the background
+    public void compact() throws IOException {
+        Future<?> running;
+        synchronized (this) {
+            running = compaction;
+        }
+        if (running != null) {
+            waitFor(running);
+        }
+        synchronized (this) {
+            rotate();
+        }
+        foldIntoSnapshot();
+    }
+
+    // lets a running compaction finish, then closes the journal
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                commit();
+            } finally {
+                loaded.close();
+                channel.close();
+            }
+        }
+    }
+
+    // deletes the saved order before the log changes - for good, before the change is written,
+    // or a crash could leave an order that no longer matches the items. must hold the lock
+    private void dropOrder() throws IOException {
+        if (orderSaved) {
+            Files.deleteIfExists(orderFile);
+            syncDirectory();
+            orderSaved = false;
+        }
+    }
+
+    // forces the directory itself to disk, so a rename or delete in it survives a crash
+    // some platforms can't open a directory - there the rename is as durable as it gets
+    private void syncDirectory() {
+        Path directory = file.getParent();
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // windows won't open a directory as a channel, and doesn't need to
+        }
+    }
+
+    // reads the saved order, as long as it names every live item exactly once - anything else
+    // (a torn or stray file) is ignored. puts the order's name in name[0]
+    private int[] readOrder(RecordIndex index, String[] name) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(orderFile));
+            if (in.limit() < HEADER_BYTES + 10 || in.getInt(0) != ORDER_MAGIC || in.getShort(4) != VERSION) {
+                return null;
+            }
+            CRC32 check = new CRC32();
+            check.update(in.array(), 0, in.limit() - 4);
+            if ((int) check.getValue() != in.getInt(in.limit() - 4)) {
+                return null;
+            }
+            in.position(HEADER_BYTES);
+            byte[] nameBytes = new byte[in.getShort() & 0xFFFF];
+            in.get(nameBytes);
+            int count = in.getInt();
+            if (count < 0 || count != (in.limit() - in.position() - 4) / 4) {
+                return null;
+            }
+            int[] order = new int[count];
+            BitSet seen = new BitSet();
+            int live = 0;
+            for (int id = 1; id <= index.maxId; id++) {
+                if (index.sourceById[id] >= 0) {
+                    live++;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                int id = in.getInt();
+                if (id <= 0 || id > index.maxId || index.sourceById[id] < 0 || seen.get(id)) {
+                    return null;
+                }
+                seen.set(id);
+                order[i] = id;
+            }
+            if (count != live) {
+                return null;
+            }
+            name[0] = new String(nameBytes, StandardCharsets.UTF_8);
+            return order;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // adds one record to the write buffer, flushing or growing it if it doesn't fit
+    private void appendRecord(Operation operation, CollectionItem item) throws IOException {
+        Long existing = ids.get(item);
+        if (operation == Operation.DELETE && existing == null) {
+            return;
+        }
+        if (operation != Operation.DELETE && existing == null) {
+            operation = Operation.ADD;
+        }
+        long id = existing != null ? existing : nextId;
+
+        while (true) {
+            int start = buffer.position();
+            try {
+                encodeRecord(operation, id, item, start);
+                break;
+            } catch (BufferOverflowException e) {
+                buffer.position(start);
+                if (start > 0) {
+                    flushBuffer(); // make room by writing out what's already queued
+                } else {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2); // one huge item
+                }
+            } catch (RuntimeException e) {
+                // anything else leaves half a record with no length or crc in front of it -
+                // take it back out, or the next commit would write it and hide every record after
+                buffer.position(start);
+                throw e;
+            }
+        }
+
+        // only claim the id once the record is safely in the buffer
+        journalRecords++;
+        if (operation == Operation.DELETE) {
+            ids.remove(item);
+            liveItems--;
+        } else if (existing == null) {
+            ids.put(item, id);
+            nextId++;
+            liveItems++;
+        }
+    }
+
+    // writes one record into the buffer at start, filling in its length and crc at the end
+    private void encodeRecord(Operation operation, long id, CollectionItem item, int start) {
+        if (buffer.remaining() < RECORD_PREFIX_BYTES + RECORD_HEADER_BYTES) {
+            throw new BufferOverflowException();
+        }
+        int bodyStart = start + RECORD_PREFIX_BYTES;
+        buffer.position(bodyStart);
+        buffer.put((byte) operation.ordinal());
+        buffer.putLong(id);
+        if (operation != Operation.DELETE) {
+            codec.encode(item, buffer);
+        }
+        int end = buffer.position();
+
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + bodyStart, end - bodyStart);
+        buffer.putInt(start, end - bodyStart);
+        buffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    // writes out the buffer, forces it to disk and starts a compaction if the journal's got long
+    private void commit() throws IOException {
+        flushBuffer();
+        channel.force(false);
+        maybeCompact();
+    }
+
+    // writes out everything in the buffer at the end of the journal
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+        buffer.clear();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).flip();
+        while (header.hasRemaining()) {
+            writePosition += channel.write(header, writePosition);
+        }
+    }
+
+    // kicks off a background compaction once the journal outgrows the collection
+    // must hold the lock
+    private void maybeCompact() {
+        boolean idle = compaction == null || compaction.isDone();
+        if (idle && !compactor.isShutdown() && journalRecords > Math.max(MIN_COMPACT_RECORDS, liveItems)) {
+            compaction = compactor.submit(() -> {
+                try {
+                    synchronized (this) {
+                        rotate();
+                    }
+                    foldIntoSnapshot();
+                } catch (IOException e) {
+                    // nothing is lost - the journal and old segment are still there for next time
+                    System.out.println("couldn't compact collection log: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    // swaps the journal for an empty one so it can be folded into the snapshot
+    // if an earlier compaction never finished, that old journal is folded first instead
+    // must hold the lock - it's a rename and a header write, so appends barely notice
+    private void rotate() throws IOException {
+        // the files are about to be moved, replaced and deleted - let go of them first, on both
+        // paths, since folding a leftover old journal replaces the snapshot just the same
+        loaded.release();
+        if (Files.exists(oldFile)) {
+            return;
+        }
+        flushBuffer();
+        channel.force(true);
+        channel.close();
+        Files.move(file, oldFile, StandardCopyOption.ATOMIC_MOVE);
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writePosition = 0;
+        journalRecords = 0;
+        writeHeader();
+        channel.force(true);
+        syncDirectory(); // the rename and the new journal
+    }
+
+    // writes the latest record of every live item in snapshot + old into a new snapshot,
+    // then drops the old journal - runs without the lock, appends go to the new journal meanwhile
+    // records are copied byte for byte, nothing is decoded
+    private void foldIntoSnapshot() throws IOException {
+        synchronized (foldLock) {
+            if (Files.exists(oldFile)) {
+                writeSnapshot();
+            }
+        }
+    }
+
+    // one pass over the files finds each item's latest record, a second copies just those
+    // records across in file order. both files are closed again before the rename and delete
+    // must hold the fold lock
+    private void writeSnapshot() throws IOException {
+        List<Path> previous = new ArrayList<>();
+        for (Path path : new Path[] {snapshotFile, oldFile}) {
+            if (Files.exists(path)) {
+                previous.add(path);
+            }
+        }
+
+        RecordIndex index = new RecordIndex();
+        for (int source = 0; source < previous.size(); source++) {
+            try (FileChannel in = FileChannel.open(previous.get(source), StandardOpenOption.READ)) {
+                index.scan(new RecordReader(in, previous.get(source)), source);
+            }
+        }
+
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer batch = ByteBuffer.allocate(INITIAL_BUFFER_BYTES * 16);
+            batch.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+            for (int source = 0; source < previous.size(); source++) {
+                try (FileChannel in = FileChannel.open(previous.get(source), StandardOpenOption.READ)) {
+                    RecordReader reader = new RecordReader(in, previous.get(source));
+                    while (reader.next()) {
+                        int id = (int) reader.id();
+                        if (index.sourceById[id] != source || index.offsetById[id] != reader.position()) {
+                            continue; // deleted, or there's a later version
+                        }
+                        ByteBuffer record = reader.record();
+                        if (record.remaining() > batch.remaining()) {
+                            writeFully(out, batch);
+                            if (record.remaining() > batch.capacity()) {
+                                writeFully(out, record); // bigger than the whole batch
+                                continue;
+                            }
+                        }
+                        batch.put(record);
+                    }
+                }
+            }
+            writeFully(out, batch);
+            out.force(true);
+        }
+
+        // the rename is the commit point - before it the old snapshot + old journal are the truth
+        Files.move(temp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(oldFile);
+        syncDirectory();
+    }
+
+    // writes out whatever's between a buffer's start and its position, and empties it
+    private static void writeFully(FileChannel out, ByteBuffer batch) throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            out.write(batch);
+        }
+        batch.clear();
+    }
+
+    private static void waitFor(Future<?> running) throws IOException {
+        try {
+            running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for compaction", e);
+        } catch (ExecutionException e) {
+            throw new IOException("compaction failed", e.getCause());
+        }
+    }
+
+    // where the latest record of each item is, across however many files have been scanned
+    private static class RecordIndex {
+
+        // item id -> which file its latest record is in (-1 if deleted), where it starts and
+        // how long its body is
+        int[] sourceById = new int[1024];
+        int[] offsetById = new int[1024];
+        int[] lengthById = new int[1024];
+        long maxId = 0;
+
+        // end of the last good record in the most recently scanned file
+        int validEnd;
+
+        RecordIndex() {
+            Arrays.fill(sourceById, -1);
+        }
+
+        // walks a file's records, later ones replacing earlier ones for the same id
+        // returns how many good records it found
+        long scan(RecordReader reader, int source) throws IOException {
+            long records = 0;
+            while (reader.next()) {
+                long id = reader.id();
+                if (id >= sourceById.length) {
+                    int newLength = (int) Math.max(id + 1, sourceById.length * 2L);
+                    int oldLength = sourceById.length;
+                    sourceById = Arrays.copyOf(sourceById, newLength);
+                    offsetById = Arrays.copyOf(offsetById, newLength);
+                    lengthById = Arrays.copyOf(lengthById, newLength);
+                    Arrays.fill(sourceById, oldLength, newLength, -1);
+                }
+                boolean deleted = reader.operation() == Operation.DELETE.ordinal();
+                sourceById[(int) id] = deleted ? -1 : source;
+                offsetById[(int) id] = reader.position();
+                lengthById[(int) id] = reader.length();
+                maxId = Math.max(maxId, id);
+                records++;
+            }
+            validEnd = reader.validEnd();
+            return records;
+        }
+    }
+
+    // the live items of the log's files, in a saved order or else id order, decoded the first
+    // time each one is read - each one is a positional read of just its bytes. before the files
+    // are moved, or to decode everything at once, the files still needed are read into memory
+    // whole, front to back, and closed
+    private class LazyItems extends AbstractList<CollectionItem> implements RandomAccess {
+
+        // the files the items are read from, and their contents once read in whole - both null
+        // once nothing more can be read
+        private FileChannel[] sources;
+        private ByteBuffer[] copies;
+
+        private final int[] itemIds;
+        private final byte[] itemSources;
+        private final int[] offsets;
+        private final int[] lengths;
+        private final CollectionItem[] decoded;
+        private int undecoded;
+
+        // reused for each read - only touched with the log's lock held
+        private ByteBuffer readBuffer = ByteBuffer.allocate(256);
+
+        // order is the ids in the order to list them, or null for id order
+        LazyItems(RecordIndex index, int[] order, FileChannel[] sources) {
+            this.sources = sources;
+            if (order == null) {
+                int count = 0;
+                for (int id = 1; id <= index.maxId; id++) {
+                    if (index.sourceById[id] >= 0) {
+                        count++;
+                    }
+                }
+                order = new int[count];
+                int next = 0;
+                for (int id = 1; id <= index.maxId; id++) {
+                    if (index.sourceById[id] >= 0) {
+                        order[next++] = id;
+                    }
+                }
+            }
+            itemIds = order;
+            itemSources = new byte[order.length];
+            offsets = new int[order.length];
+            lengths = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                itemSources[i] = (byte) index.sourceById[order[i]];
+                offsets[i] = index.offsetById[order[i]] + RECORD_PREFIX_BYTES + RECORD_HEADER_BYTES;
+                lengths[i] = index.lengthById[order[i]] - RECORD_HEADER_BYTES;
+            }
+            decoded = new CollectionItem[order.length];
+            undecoded = order.length;
+            if (undecoded == 0) {
+                close();
+            }
+        }
+
+        // throws IllegalStateException for an item that was never read before the log closed
+        @Override
+        public CollectionItem get(int index) {
+            synchronized (CollectionLog.this) {
+                CollectionItem item = decoded[index];
+                if (item == null) {
+                    item = codec.decode(read(index));
+                    decoded[index] = item;
+                    ids.put(item, (long) itemIds[index]);
+                    if (--undecoded == 0) {
+                        close(); // nothing left to read
+                    }
+                }
+                return item;
+            }
+        }
+
+        @Override
+        public int size() {
+            return itemIds.length;
+        }
+
+        // decodes everything at once from whole-file reads, rather than a read per item
+        @Override
+        public Object[] toArray() {
+            synchronized (CollectionLog.this) {
+                decodeAll();
+                return decoded.clone();
+            }
+        }
+
+        @Override
+        public <T> T[] toArray(T[] array) {
+            synchronized (CollectionLog.this) {
+                decodeAll();
+                return Arrays.asList(decoded).toArray(array);
+            }
+        }
+
+        // reads in the files that still have undecoded items and closes them all, so they can
+        // be renamed and deleted - the items can still be read afterwards. must hold the log's lock
+        void release() {
+            if (sources == null) {
+                return;
+            }
+            copyOut();
+            closeSources();
+        }
+
+        // lets go of the files and anything read from them - items not decoded by now can't be
+        // any more. must hold the log's lock
+        void close() {
+            if (sources != null) {
+                closeSources();
+            }
+            copies = null;
+        }
+
+        // must hold the log's lock
+        private void decodeAll() {
+            if (undecoded == 0) {
+                return;
+            }
+            copyOut();
+            for (int i = 0; i < decoded.length; i++) {
+                get(i);
+            }
+        }
+
+        // reads each file that still has undecoded items into memory, in one go
+        private void copyOut() {
+            if (sources == null) {
+                return;
+            }
+            boolean[] needed = new boolean[sources.length];
+            for (int i = 0; i < decoded.length; i++) {
+                if (decoded[i] == null) {
+                    needed[itemSources[i]] = true;
+                }
+            }
+            if (copies == null) {
+                copies = new ByteBuffer[sources.length];
+            }
+            try {
+                for (int source = 0; source < sources.length; source++) {
+                    if (needed[source] && copies[source] == null) {
+                        copies[source] = readAll(sources[source]);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("couldn't read collection log", e);
+            }
+        }
+
+        private void closeSources() {
+            for (FileChannel source : sources) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    // only ever read from, so there's nothing to lose
+                }
+            }
+            sources = null;
+        }
+
+        // one item's bytes - from a file read in whole, or read from its file into the shared buffer
+        private ByteBuffer read(int index) {
+            int source = itemSources[index];
+            if (copies != null && copies[source] != null) {
+                return copies[source].slice(offsets[index], lengths[index]);
+            }
+            if (sources == null) {
+                throw new IllegalStateException("collection log is closed");
+            }
+            int length = lengths[index];
+            if (length > readBuffer.capacity()) {
+                readBuffer = ByteBuffer.allocate(Math.max(length, readBuffer.capacity() * 2));
+            }
+            readBuffer.clear().limit(length);
+            try {
+                while (readBuffer.hasRemaining()) {
+                    if (sources[source].read(readBuffer, offsets[index] + readBuffer.position()) < 0) {
+                        throw new EOFException("collection log ended inside an item");
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("couldn't read item from collection log", e);
+            }
+            return readBuffer.flip();
+        }
+
+        private ByteBuffer readAll(FileChannel source) throws IOException {
+            ByteBuffer all = ByteBuffer.allocate((int) source.size());
+            while (all.hasRemaining()) {
+                if (source.read(all, all.position()) < 0) {
+                    throw new EOFException("collection log got shorter while reading it");
+                }
+            }
+            return all.flip();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * ItemCodec.java
+ * purpose: compact binary encoding of records, cds and cassettes
+ *          used by everything that writes items to disk
+ * author: phin
+ */
+
+package persistence;
+
+import factory.ItemFactory;
+import factory.StringInterner;
+import model.CD;
+import model.Cassette;
+import model.CollectionItem;
+import model.Grade;
+import model.Record;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// one item as bytes:
+//   byte format (0 cassette, 1 cd, 2 record), byte grade ordinal, int year,
+//   string title, string artist, [string condition], then the format's own fields:
+//     record   - string size, string speed
+//     cd       - int track count, byte has booklet
+//     cassette - string tape type, int length
+// the condition string is only there when the item's condition text isn't its grade code
+// ("Mint", "sealed??") - the grade byte's top bit says so. files written before it existed
+// never set the bit, so they read the same as ever
+// strings are an unsigned short byte count followed by utf-8
+// all big-endian, which is what ByteBuffer does by default
+public class ItemCodec {
+
+    static final byte FORMAT_CASSETTE = 0;
+    static final byte FORMAT_CD = 1;
+    static final byte FORMAT_RECORD = 2;
+
+    // longest string we can store - the length prefix is an unsigned short
+    static final int MAX_STRING_BYTES = 0xFFFF;
+
+    // set on the grade byte when a condition string follows the artist
+    static final int CONDITION_TEXT = 0x80;
+
+    // reused for decoding strings so reading an item only allocates the item and its strings
+    private byte[] scratch = new byte[256];
+
+    // throws IllegalArgumentException if the item can't be stored - a format the codec doesn't
+    // know, or a string longer than its length prefix can hold. callers check before encoding,
+    // so a rejected item never leaves half a record behind
+    public void check(CollectionItem item) {
+        byte format = formatOf(item);
+        checkString("title", item.getTitle());
+        checkString("artist", item.getArtist());
+        checkString("condition", item.getCondition());
+        if (format == FORMAT_RECORD) {
+            checkString("size", ((Record) item).getSize());
+            checkString("speed", ((Record) item).getSpeed());
+        } else if (format == FORMAT_CASSETTE) {
+            checkString("tape type", ((Cassette) item).getTapeType());
+        }
+    }
+
+    // writes an item at the buffer's position
+    // throws BufferOverflowException if it doesn't fit - callers grow the buffer and retry
+    // and IllegalArgumentException for an item check() would reject
+    public void encode(CollectionItem item, ByteBuffer out) {
+        byte format = formatOf(item);
+        out.put(format);
+        String condition = item.getCondition();
+        boolean conditionText = !condition.equals(item.getGrade().getCode());
+        out.put((byte) (item.getGradeOrdinal() | (conditionText ? CONDITION_TEXT : 0)));
+        out.putInt(item.getYear());
+        putString(out, item.getTitle());
+        putString(out, item.getArtist());
+        if (conditionText) {
+            putString(out, condition);
+        }
+
+        switch (format) {
+            case FORMAT_RECORD:
+                Record record = (Record) item;
+                putString(out, record.getSize());
+                putString(out, record.getSpeed());
+                break;
+            case FORMAT_CD:
+                CD cd = (CD) item;
+                out.putInt(cd.getTrackCount());
+                out.put((byte) (cd.hasBooklet() ? 1 : 0));
+                break;
+            default:
+                Cassette cassette = (Cassette) item;
+                putString(out, cassette.getTapeType());
+                out.putInt(cassette.getLength());
+                break;
+        }
+    }
+
+    // reads an item from the buffer's position
+    // artists and format details go through the factory's interner, same as items made in the gui
+    public CollectionItem decode(ByteBuffer in) {
+        StringInterner strings = ItemFactory.getStringInterner();
+        byte format = in.get();
+        int gradeByte = in.get();
+        Grade grade = Grade.fromOrdinal(gradeByte & ~CONDITION_TEXT & 0xFF);
+        int year = in.getInt();
+        String title = getString(in);
+        String artist = strings.intern(getString(in));
+        String condition = (gradeByte & CONDITION_TEXT) != 0 ? strings.intern(getString(in)) : null;
+
+        CollectionItem item;
+        switch (format) {
+            case FORMAT_RECORD:
+                String size = strings.intern(getString(in));
+                String speed = strings.intern(getString(in));
+                item = new Record(title, artist, year, grade, size, speed);
+                break;
+            case FORMAT_CD:
+                int trackCount = in.getInt();
+                boolean hasBooklet = in.get() != 0;
+                item = new CD(title, artist, year, grade, trackCount, hasBooklet);
+                break;
+            case FORMAT_CASSETTE:
+                String tapeType = strings.intern(getString(in));
+                int length = in.getInt();
+                item = new Cassette(title, artist, year, grade, tapeType, length);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown item format " + format);
+        }
+        if (condition != null) {
+            item.setCondition(condition);
+        }
+        return item;
+    }
+
+    // which format byte an item is written with
+    static byte formatOf(CollectionItem item) {
+        if (item instanceof Record) {
+            return FORMAT_RECORD;
+        }
+        if (item instanceof CD) {
+            return FORMAT_CD;
+        }
+        if (item instanceof Cassette) {
+            return FORMAT_CASSETTE;
+        }
+        throw new IllegalArgumentException("can't store " + item.getClass().getSimpleName());
+    }
+
+    private static void checkString(String field, String value) {
+        // three bytes a char is the most utf-8 needs, so short strings skip the count
+        if (value == null || value.length() * 3 <= MAX_STRING_BYTES) {
+            return;
+        }
+        int bytes = utf8Length(value);
+        if (bytes > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException(field + " too long to store (" + bytes + " bytes, at most " +
+                MAX_STRING_BYTES + ")");
+        }
+    }
+
+    // bytes a string takes in utf-8, without encoding it
+    private static int utf8Length(String value) {
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() &&
+                       Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("string too long to store (" + bytes.length + " bytes)");
+        }
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    private String getString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        in.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
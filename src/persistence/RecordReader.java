@@ -0,0 +1,142 @@
+/*
+ * RecordReader.java
+ * purpose: walks the records of a collection log file front to back with plain reads
+ *          no memory mapping, so nothing keeps the file pinned once its channel is closed
+ * author: phin
+ */
+
+package persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+// reads a file a buffer at a time and hands out one good record at a time - see CollectionLog
+// for the layout. stops at the first record that's cut short, fails its crc or names an
+// impossible id or operation, the same as a torn write at the end of the file
+//
+// a mapped file can't be unmapped until the garbage collector gets round to it, and while it's
+// mapped windows won't let it be renamed, replaced or deleted - which compaction does to every
+// file it reads. plain positional reads let go the moment the channel closes
+final class RecordReader {
+
+    // read this much of the file at a time - records bigger than this grow the buffer
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final FileChannel in;
+    private final long size;
+    private final CRC32 crc = new CRC32();
+
+    // the part of the file in the buffer starts here
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).limit(0);
+    private long bufferStart = 0;
+
+    // the current record - where it starts and how long its body is
+    private long position = -1;
+    private int length;
+    private long nextPosition = CollectionLog.HEADER_BYTES;
+
+    // checks the file's header - throws if it isn't a collection log this version can read
+    RecordReader(FileChannel in, Path path) throws IOException {
+        this.in = in;
+        this.size = in.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("collection log is too big to read: " + path + " (" + size + " bytes)");
+        }
+        if (!fill(0, CollectionLog.HEADER_BYTES) || buffer.getInt(0) != CollectionLog.MAGIC) {
+            throw new IOException("not a collection log: " + path);
+        }
+        if (buffer.getShort(4) != CollectionLog.VERSION) {
+            throw new IOException("unsupported collection log version " + buffer.getShort(4) + ": " + path);
+        }
+    }
+
+    // moves on to the next good record - false at the end of the file or a bad record
+    boolean next() throws IOException {
+        long start = nextPosition;
+        if (!fill(start, CollectionLog.RECORD_PREFIX_BYTES)) {
+            return false;
+        }
+        int recordLength = buffer.getInt(offset(start));
+        long bodyStart = start + CollectionLog.RECORD_PREFIX_BYTES;
+        if (recordLength < CollectionLog.RECORD_HEADER_BYTES || recordLength > size - bodyStart ||
+                !fill(start, CollectionLog.RECORD_PREFIX_BYTES + recordLength)) {
+            return false; // torn write at the end of the file
+        }
+        int body = offset(bodyStart);
+        crc.reset();
+        crc.update(buffer.array(), body, recordLength);
+        if ((int) crc.getValue() != buffer.getInt(offset(start) + 4)) {
+            return false;
+        }
+        int operation = buffer.get(body);
+        long id = buffer.getLong(body + 1);
+        if (id <= 0 || id >= Integer.MAX_VALUE || operation < 0 ||
+                operation >= CollectionLog.Operation.values().length) {
+            return false;
+        }
+        position = start;
+        length = recordLength;
+        nextPosition = bodyStart + recordLength;
+        return true;
+    }
+
+    // where the current record starts in the file
+    int position() {
+        return (int) position;
+    }
+
+    // end of the last good record - where the next one would go
+    int validEnd() {
+        return (int) nextPosition;
+    }
+
+    // how long the current record's body is - operation, id and item bytes
+    int length() {
+        return length;
+    }
+
+    int operation() {
+        return buffer.get(offset(position) + CollectionLog.RECORD_PREFIX_BYTES);
+    }
+
+    long id() {
+        return buffer.getLong(offset(position) + CollectionLog.RECORD_PREFIX_BYTES + 1);
+    }
+
+    // the whole current record, length and crc included - good until the next call to next()
+    ByteBuffer record() {
+        int start = offset(position);
+        return buffer.slice(start, CollectionLog.RECORD_PREFIX_BYTES + length);
+    }
+
+    // where a file position falls in the buffer - fill() has made sure it's there
+    private int offset(long filePosition) {
+        return (int) (filePosition - bufferStart);
+    }
+
+    // makes sure count bytes from a file position are in the buffer, reading on from there if
+    // they aren't - false if the file ends first
+    private boolean fill(long from, int count) throws IOException {
+        if (from >= bufferStart && from + count <= bufferStart + buffer.limit()) {
+            return true;
+        }
+        if (from + count > size) {
+            return false;
+        }
+        if (count > buffer.capacity()) {
+            buffer = ByteBuffer.allocate(count);
+        }
+        buffer.clear();
+        bufferStart = from;
+        while (buffer.hasRemaining() && bufferStart + buffer.position() < size) {
+            if (in.read(buffer, bufferStart + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.limit() >= count;
+    }
+}
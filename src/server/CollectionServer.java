@@ -0,0 +1,248 @@
+/*
+ * CollectionServer.java
+ * purpose: small http server so other tools on the same machine can query the collection
+ *          search, sort and page through it without the gui open
+ * author: phin
+ */
+
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.CatalogExporter;
+import io.CatalogFormat;
+import service.CollectionService;
+import service.CollectionView;
+import strategy.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// read-only json api over a CollectionService, listening on the loopback address only
+//
+//   GET /items?q=&sort=&offset=&limit=   the collection (or the items matching q) one page at a time
+//   GET /search?q=&sort=&offset=&limit=  the same, but q is required
+//
+// sort is a strategy name (artist, title, year, condition, format) and only orders the
+// response - the collection keeps its own order. responses look like
+//   {"total": 1234, "offset": 0, "limit": 100, "sort": "artist", "version": 17, "items": [...]}
+// where items are in the same form as a json catalog export, so they import straight back in.
+// pages come from the service's cached views, so paging through a search or another order
+// sorts it once rather than on every request. version changes whenever the collection does -
+// a client paging by offset can compare it to notice rows that may have shifted between pages
+//
+// every request gets its own virtual thread, so thousands of slow or waiting clients cost
+// very little. the items are streamed out through a pooled CatalogExporter as they're read,
+// straight from the service's snapshot - nothing is built up per request
+//
+// the jdk server leaves nagle on unless sun.net.httpserver.nodelay is true, and then a
+// response's small writes (headers, then the body) sit waiting for the client's delayed ack -
+// ~40ms on every request. it's read once, when the first server starts, so whoever starts the
+// process sets it (Main does) - a library shouldn't change system properties behind its back
+public class CollectionServer implements Closeable {
+
+    // page size when none is asked for, and the most one request can have
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 1000;
+
+    // connections waiting to be accepted - room for bursts of local clients
+    private static final int BACKLOG = 4096;
+
+    private final CollectionService service;
+    private final List<SortStrategy> strategies = List.of(new SortByArtist(), new SortByTitle(),
+        new SortByYear(), new SortByCondition(), new SortByMediaType());
+
+    // exporters hold a 64kb direct buffer each, so they're reused rather than made per request
+    // the pool only grows as far as the most requests that were ever writing at once
+    private final ConcurrentLinkedQueue<CatalogExporter> exporters = new ConcurrentLinkedQueue<>();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public CollectionServer(CollectionService service) {
+        this.service = service;
+    }
+
+    // starts listening on localhost - port 0 picks any free port (see getPort)
+    public synchronized void start(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("server is already running on port " + getPort());
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/items", exchange -> handle(exchange, false));
+        server.createContext("/search", exchange -> handle(exchange, true));
+        server.createContext("/", exchange -> {
+            try {
+                sendError(exchange, 404, "unknown path - try /items or /search");
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    // the port being listened on
+    public synchronized int getPort() {
+        if (server == null) {
+            throw new IllegalStateException("server isn't running");
+        }
+        return server.getAddress().getPort();
+    }
+
+    // stops accepting requests and lets the ones in flight finish
+    @Override
+    public synchronized void close() {
+        if (server == null) {
+            return;
+        }
+        server.stop(0);
+        executor.close(); // waits for running requests
+        server = null;
+        executor = null;
+    }
+
+    // one request to /items or /search
+    private void handle(HttpExchange exchange, boolean needsQuery) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (!path.equals(exchange.getHttpContext().getPath())) {
+                sendError(exchange, 404, "unknown path " + path);
+                return;
+            }
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendError(exchange, 405, "only GET is supported");
+                return;
+            }
+
+            // everything is checked before the response starts, so errors can still get a status
+            CollectionView.Page page;
+            try {
+                page = readPage(parseQuery(exchange.getRequestURI().getRawQuery()), needsQuery);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+            sendPage(exchange, page);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // what a request asked for, checked and looked up
+    private CollectionView.Page readPage(Map<String, String> params, boolean needsQuery) {
+        String text = params.getOrDefault("q", "").trim();
+        if (needsQuery && text.isEmpty()) {
+            throw new IllegalArgumentException("q is required");
+        }
+        SortStrategy order = params.containsKey("sort") ? strategyNamed(params.get("sort"))
+                                                       : service.getSortStrategy();
+        int offset = intParam(params, "offset", 0);
+        int limit = Math.min(intParam(params, "limit", DEFAULT_LIMIT), MAX_LIMIT);
+
+        return service.page(text, order, offset, limit);
+    }
+
+    // writes the envelope, then streams the items through an exporter
+    // the length isn't known up front, so the body goes out chunked as the buffer fills
+    private void sendPage(HttpExchange exchange, CollectionView.Page page) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        WritableByteChannel body = Channels.newChannel(exchange.getResponseBody());
+        CollectionView view = page.getView();
+        writeAscii(body, "{\"total\": " + page.getTotal() + ", \"offset\": " + page.getOffset() +
+            ", \"limit\": " + page.getLimit() + ", \"sort\": \"" + view.getOrder().getStrategyName().toLowerCase() +
+            "\", \"version\": " + view.getVersion() + ", \"items\": ");
+
+        CatalogExporter exporter = exporters.poll();
+        if (exporter == null) {
+            exporter = new CatalogExporter();
+        }
+        try {
+            exporter.export(page.getItems(), body, CatalogFormat.JSON);
+        } finally {
+            exporters.add(exporter);
+        }
+        writeAscii(body, "}\n");
+    }
+
+    // a short json error - {"error": "..."}
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = ("{\"error\": \"" + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}\n")
+            .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    // the strategy with this name, ignoring case ("year", "Format")
+    private SortStrategy strategyNamed(String name) {
+        StringBuilder names = new StringBuilder();
+        for (SortStrategy strategy : strategies) {
+            if (strategy.getStrategyName().equalsIgnoreCase(name.trim())) {
+                // the collection's own strategy if it's the same kind, since it needs no sorting
+                SortStrategy current = service.getSortStrategy();
+                return current.getClass() == strategy.getClass() ? current : strategy;
+            }
+            names.append(names.length() == 0 ? "" : ", ").append(strategy.getStrategyName().toLowerCase());
+        }
+        throw new IllegalArgumentException("unknown sort '" + name + "' - use one of " + names);
+    }
+
+    // a non-negative whole number parameter
+    private static int intParam(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int number = Integer.parseInt(value.trim());
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // falls through to the error below
+        }
+        throw new IllegalArgumentException(name + " must be a whole number of 0 or more, not '" + value + "'");
+    }
+
+    // name=value pairs from a raw query string - a name given twice keeps its last value
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void writeAscii(WritableByteChannel channel, String text) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,875 @@
+/*
+ * CollectionService.java
+ * purpose: the collection and everything that can be done to it, with no ui attached
+ *          add, edit, delete, query and sort from any thread - the gui is just one caller
+ * author: phin
+ */
+
+package service;
+
+import index.CollectionIndex;
+import model.CD;
+import model.Cassette;
+import model.CollectionItem;
+import model.Record;
+import persistence.CollectionLog;
+import store.ConcurrentCollectionStore;
+import strategy.SortByArtist;
+import strategy.SortStrategy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// the collection engine - the sorted items, the search index and the log, kept in step
+// every write goes through one lock, so the position it works out, the index update and the
+// log record all happen together and two callers can't interleave halfway through a change.
+// snapshots and views are read without locking. a search takes the index's read lock, so it
+// can wait out a write's index update, but it never waits on the rest of a write.
+// a snapshot fixes which items there are and their order - the items themselves are edited in
+// place (see edit), so their fields can change under a reader holding an old snapshot
+//
+// opening a saved collection only loads the items - in the order they were saved in, so there's
+// usually no sort either - and builds the search index on a background thread. searches made
+// before it's ready wait for it; writes made meanwhile queue their index changes for it
+//
+// each write returns a Change saying what moved where, which is enough for a ui to update
+// just the rows that changed. listeners hear about every change, whoever made it
+//
+// other orders and searches are read through views (see CollectionView), which are kept
+// until the next write - so paging through a big sorted result sorts it once, not per page
+public class CollectionService implements Closeable {
+
+    // told about each change after it's been made, on the thread that made it
+    // changes from different threads can arrive in either order - compare snapshot versions
+    public interface Listener {
+        void collectionChanged(Change change);
+
+        // the change was made in memory but couldn't be written to the log
+        void saveFailed(IOException e);
+    }
+
+    // the items, kept sorted by strategy
+    private final ConcurrentCollectionStore collection = new ConcurrentCollectionStore();
+    private final CollectionIndex searchIndex = new CollectionIndex();
+
+    // where changes are saved - null when nothing is saved
+    private final CollectionLog log;
+
+    // held for the whole of every write
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // the order the collection is kept in - written under the lock
+    private volatile SortStrategy strategy = new SortByArtist();
+
+    // the collection and its order as of the last finished write, published together so a
+    // reader never pairs a snapshot with the wrong order - written under the lock
+    private volatile Current current;
+
+    // sorted and searched views made since the last write, most recently used last
+    private static final int MAX_CACHED_VIEWS = 8;
+    private final Map<String, CollectionView> views = new LinkedHashMap<String, CollectionView>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CollectionView> eldest) {
+            return size() > MAX_CACHED_VIEWS;
+        }
+    };
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // index changes made while the index is being built, applied once it's done - null when the
+    // index is up to date. written under the lock
+    private List<Consumer<CollectionIndex>> pendingIndexChanges;
+    private final CompletableFuture<Void> indexReady = new CompletableFuture<>();
+
+    // an empty collection that isn't saved anywhere
+    public CollectionService() {
+        this(null);
+    }
+
+    // takes whatever the log holds as the starting collection and saves every change to it
+    // a null log means nothing is loaded or saved
+    public CollectionService(CollectionLog log) {
+        this.log = log;
+        if (log != null) {
+            collection.replaceAll(log.items());
+            // closing saves the order the items were in, so there's only a sort if it was another one
+            if (!strategy.getClass().getName().equals(log.getOrderName())) {
+                collection.sort(strategy);
+            }
+        }
+        current = new Current(collection.snapshot(), strategy, 0);
+
+        if (collection.size() == 0) {
+            indexReady.complete(null);
+        } else {
+            pendingIndexChanges = new ArrayList<>();
+            ConcurrentCollectionStore.Snapshot items = collection.snapshot();
+            Thread builder = new Thread(() -> buildIndex(items), "collection-index-builder");
+            builder.setDaemon(true);
+            builder.start();
+        }
+    }
+
+    // opens (or creates) a log file and loads the collection from it
+    public static CollectionService open(Path file) throws IOException {
+        return new CollectionService(CollectionLog.open(file));
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // the file changes are saved to, or null
+    public Path getDataFile() {
+        return log == null ? null : log.getFile();
+    }
+
+    // the collection as it is right now, in the current sort order
+    // never changes, so it's safe to keep and read from any thread
+    public ConcurrentCollectionStore.Snapshot snapshot() {
+        return collection.snapshot();
+    }
+
+    public int size() {
+        return collection.size();
+    }
+
+    public SortStrategy getSortStrategy() {
+        return strategy;
+    }
+
+    // goes up by one with every change, including edits that leave an item where it was
+    // (which don't make a new snapshot) - a view with an older version is out of date
+    public long getVersion() {
+        return current.version;
+    }
+
+    // re-sorts the collection into a different order - new items go into this order from now on
+    public Change setSortStrategy(SortStrategy newStrategy) {
+        Change change;
+        writeLock.lock();
+        try {
+            ConcurrentCollectionStore.Snapshot before = collection.snapshot();
+            strategy = newStrategy;
+            change = Change.resorted(before, collection.sort(newStrategy));
+            published();
+        } finally {
+            writeLock.unlock();
+        }
+        notifyListeners(change);
+        return change;
+    }
+
+    // items matching a search, in the current sort order - an empty query is the whole collection
+    public List<CollectionItem> query(String text) {
+        return query(text, strategy);
+    }
+
+    // items matching a search, in the given order - doesn't change the collection's own order
+    // the list is read-only, and stays as it is when the collection changes
+    // an interrupted thread gives up with a CancellationException, like CollectionIndex.search
+    public List<CollectionItem> query(String text, SortStrategy order) {
+        return view(text, order).asList();
+    }
+
+    // one page of the items matching a search, in the given order - see CollectionView.page
+    public CollectionView.Page page(String text, SortStrategy order, int offset, int limit) {
+        return view(text, order).page(offset, limit);
+    }
+
+    // the items matching a search in the given order, ready to be read a page at a time
+    // the whole collection in its own order is the current snapshot as it is; anything else is
+    // searched and sorted once and then kept, so until the next write asking again costs nothing
+    public CollectionView view(String text, SortStrategy order) {
+        String query = text == null ? "" : text.trim();
+        // read before the index, so a view can be newer than its version but never older
+        Current state = current;
+        // strategies of the same kind put items in the same order, whatever their settings
+        if (query.isEmpty() && order.getClass() == state.strategy.getClass()) {
+            return new CollectionView(query, order, state.version, state.snapshot);
+        }
+
+        String key = viewKey(query, order);
+        CollectionView cached = cachedView(key, state);
+        if (cached != null) {
+            return cached;
+        }
+        // searched and sorted outside the lock - two threads asking at once may both do the work
+        CollectionItem[] rows;
+        if (query.isEmpty()) {
+            rows = state.snapshot.toArray(0, state.snapshot.size());
+            order.sort(Arrays.asList(rows));
+        } else {
+            List<CollectionItem> matches = search(query);
+            order.sort(matches);
+            rows = matches.toArray(new CollectionItem[0]);
+        }
+        CollectionView view = new CollectionView(query, order, state.version, rows);
+        synchronized (views) {
+            if (current == state) {
+                views.put(key, view);
+            }
+        }
+        return view;
+    }
+
+    // the first k items matching a search in the given order - "the 20 oldest", "the 50 best"
+    // read from a view if there is one already, otherwise picked out in one pass with a bounded
+    // heap (see SortStrategy.top) - nothing is sorted in full, and no view is kept for a one-off
+    public List<CollectionItem> top(String text, SortStrategy order, int k) {
+        String query = text == null ? "" : text.trim();
+        Current state = current;
+        CollectionView cached = query.isEmpty() && order.getClass() == state.strategy.getClass()
+            ? new CollectionView(query, order, state.version, state.snapshot) : cachedView(viewKey(query, order), state);
+        if (cached != null) {
+            return cached.page(0, k).getItems();
+        }
+        List<CollectionItem> rows = query.isEmpty() ? state.snapshot : search(query);
+        return Collections.unmodifiableList(order.top(rows, k));
+    }
+
+    // puts a new item straight into its sorted position - a binary search, not a re-sort
+    // an item the log can't store is refused with IllegalArgumentException before anything changes
+    public Change add(CollectionItem item) {
+        checkStorable(item);
+        Change change;
+        writeLock.lock();
+        try {
+            ConcurrentCollectionStore.Snapshot before = collection.snapshot();
+            int row = strategy.insertionPoint(before, item);
+            ConcurrentCollectionStore.Snapshot after = collection.add(row, item);
+            changeIndex(index -> index.add(item));
+            save(CollectionLog.Operation.ADD, List.of(item));
+            published();
+            change = new Change(before, after, List.of(item), List.of(), List.of(),
+                new int[0], new int[0], new int[] {row});
+        } finally {
+            writeLock.unlock();
+        }
+        notifyListeners(change);
+        return change;
+    }
+
+    // adds a batch - sorted once and merged into the collection in one pass
+    public Change addAll(Collection<? extends CollectionItem> items) {
+        return apply(items, List.of(), List.of());
+    }
+
+    // takes an item out - an item that isn't in the collection gives an empty change
+    public Change remove(CollectionItem item) {
+        Change change;
+        writeLock.lock();
+        try {
+            ConcurrentCollectionStore.Snapshot before = collection.snapshot();
+            int row = indexOf(before, item);
+            if (row < 0) {
+                change = new Change(before, before, List.of(), List.of(), List.of(),
+                    new int[0], new int[0], new int[0]);
+            } else {
+                ConcurrentCollectionStore.Snapshot after = collection.remove(row);
+                changeIndex(index -> index.remove(item));
+                save(CollectionLog.Operation.DELETE, List.of(item));
+                published();
+                change = new Change(before, after, List.of(), List.of(item), List.of(),
+                    new int[] {row}, new int[0], new int[0]);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (!change.isEmpty()) {
+            notifyListeners(change);
+        }
+        return change;
+    }
+
+    // changes an item's fields under the write lock, then moves it to wherever they put it
+    // use this rather than setters plus update() when other threads could be writing too
+    // an item that isn't in the collection is refused with IllegalArgumentException before the
+    // edits run. edits that fail, or leave the item too big for the log, are undone and nothing
+    // else changes
+    public Change edit(CollectionItem item, Consumer<? super CollectionItem> edits) {
+        Change change;
+        writeLock.lock();
+        try {
+            int row = indexOf(collection.snapshot(), item);
+            if (row < 0) {
+                throw new IllegalArgumentException("item is not in the collection: " + item);
+            }
+            Runnable undo = restorerFor(item);
+            try {
+                edits.accept(item);
+                checkStorable(item);
+            } catch (RuntimeException e) {
+                undo.run();
+                throw e;
+            }
+            change = updateLocked(item, row);
+        } finally {
+            writeLock.unlock();
+        }
+        notifyListeners(change);
+        return change;
+    }
+
+    // the item's fields were changed by the caller (an edit dialog, say) - moves it if it no
+    // longer sorts where it is, and updates the index and the log
+    // an item the log can't store is refused with IllegalArgumentException before the collection
+    // or the index change - the caller's edits to it stay, so edit() is usually the better choice
+    public Change update(CollectionItem item) {
+        checkStorable(item);
+        Change change;
+        writeLock.lock();
+        try {
+            int row = indexOf(collection.snapshot(), item);
+            if (row < 0) {
+                throw new IllegalArgumentException("item is not in the collection: " + item);
+            }
+            change = updateLocked(item, row);
+        } finally {
+            writeLock.unlock();
+        }
+        notifyListeners(change);
+        return change;
+    }
+
+    // adds, removes and updates a batch of items in one go - one merge pass over the collection
+    // an item both added and removed in the batch never goes in at all, and items that aren't
+    // in the collection are skipped when removing or updating
+    // any added or changed item the log can't store refuses the whole batch before anything changes
+    public Change apply(Collection<? extends CollectionItem> added, Collection<? extends CollectionItem> removed,
+                        Collection<? extends CollectionItem> changed) {
+        for (CollectionItem item : added) {
+            checkStorable(item);
+        }
+        for (CollectionItem item : changed) {
+            checkStorable(item);
+        }
+        Change change;
+        writeLock.lock();
+        try {
+            change = applyLocked(added, removed, changed);
+        } finally {
+            writeLock.unlock();
+        }
+        if (!change.isEmpty()) {
+            notifyListeners(change);
+        }
+        return change;
+    }
+
+    // saves anything still buffered and the order the collection is in, and closes the log
+    @Override
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            if (log != null) {
+                try {
+                    log.saveOrder(strategy.getClass().getName(), collection.snapshot());
+                } finally {
+                    log.close();
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // indexes the items the collection was opened with, then catches up on the writes made
+    // since - runs on its own thread, without the write lock for all but the catching up.
+    // an edit made while the build reads the item is re-indexed from its queued update
+    private void buildIndex(ConcurrentCollectionStore.Snapshot items) {
+        try {
+            searchIndex.addAll(items);
+            writeLock.lock();
+            try {
+                for (Consumer<CollectionIndex> change : pendingIndexChanges) {
+                    change.accept(searchIndex);
+                }
+                pendingIndexChanges = null;
+            } finally {
+                writeLock.unlock();
+            }
+            indexReady.complete(null);
+        } catch (RuntimeException | Error e) {
+            indexReady.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    // applies a change to the search index, or queues it while the index is being built - lock held
+    private void changeIndex(Consumer<CollectionIndex> change) {
+        if (pendingIndexChanges != null) {
+            pendingIndexChanges.add(change);
+        } else {
+            change.accept(searchIndex);
+        }
+    }
+
+    // searches the index, first waiting for it if it's still being built
+    private List<CollectionItem> search(String query) {
+        try {
+            indexReady.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted waiting for the search index");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("the search index couldn't be built", e.getCause());
+        }
+        return searchIndex.search(query);
+    }
+
+    // repositions, reindexes and logs one edited item, found at oldRow - lock held
+    private Change updateLocked(CollectionItem item, int oldRow) {
+        ConcurrentCollectionStore.Snapshot before = collection.snapshot();
+        Change change;
+        if (inOrder(before, oldRow, strategy.getComparator())) {
+            change = new Change(before, before, List.of(), List.of(), List.of(item),
+                new int[0], new int[] {oldRow}, new int[0]);
+        } else {
+            // found against the collection without the item, then moved in one write
+            int newRow = strategy.insertionPoint(withoutRow(before, oldRow), item, oldRow);
+            change = new Change(before, collection.move(oldRow, newRow), List.of(), List.of(), List.of(item),
+                new int[] {oldRow}, new int[0], new int[] {newRow});
+        }
+        changeIndex(index -> index.update(item));
+        save(CollectionLog.Operation.EDIT, List.of(item));
+        published();
+        return change;
+    }
+
+    // the batch merge - lock held
+    private Change applyLocked(Collection<? extends CollectionItem> added, Collection<? extends CollectionItem> removed,
+                               Collection<? extends CollectionItem> changed) {
+        ConcurrentCollectionStore.Snapshot before = collection.snapshot();
+        List<CollectionItem> rows = new ArrayList<>(before);
+        Comparator<CollectionItem> comparator = strategy.getComparator();
+
+        Set<CollectionItem> removedSet = identitySet(removed);
+        List<CollectionItem> newItems = new ArrayList<>(added.size());
+        for (CollectionItem item : added) {
+            if (!removedSet.remove(item)) {
+                newItems.add(item);
+            }
+        }
+        List<CollectionItem> toInsert = new ArrayList<>(newItems);
+
+        // edited items that still sort between the rows staying around them stay put,
+        // the rest are taken out and merged back in with the new items
+        Set<CollectionItem> moving = identitySet(Collections.emptyList());
+        List<CollectionItem> changedItems = new ArrayList<>(changed.size());
+        List<Integer> inPlace = new ArrayList<>();
+        if (!changed.isEmpty()) {
+            Map<CollectionItem, Integer> positions = positionsOf(rows, changed);
+            positions.keySet().removeAll(removedSet);
+            int[] changedRows = new int[positions.size()];
+            int count = 0;
+            for (int row : positions.values()) {
+                changedRows[count++] = row;
+            }
+            Arrays.sort(changedRows);
+
+            // top to bottom, so every changed row above this one is already settled - it's checked
+            // against the nearest row above that stays, and the nearest below that isn't changing
+            // or going at all. a neighbour that's moving out would leave it out of order
+            Set<CollectionItem> changedSet = positions.keySet();
+            for (int row : changedRows) {
+                CollectionItem item = rows.get(row);
+                changedItems.add(item);
+                int above = row - 1;
+                while (above >= 0 && (removedSet.contains(rows.get(above)) || moving.contains(rows.get(above)))) {
+                    above--;
+                }
+                int below = row + 1;
+                while (below < rows.size() && (removedSet.contains(rows.get(below)) ||
+                                               changedSet.contains(rows.get(below)))) {
+                    below++;
+                }
+                if ((above < 0 || comparator.compare(rows.get(above), item) <= 0) &&
+                        (below == rows.size() || comparator.compare(item, rows.get(below)) <= 0)) {
+                    inPlace.add(row);
+                } else {
+                    moving.add(item);
+                    toInsert.add(item);
+                }
+            }
+        }
+
+        // one compacting pass takes out removed and moving items, remembering the old rows
+        List<CollectionItem> removedItems = new ArrayList<>();
+        int[] deletedRows = new int[0];
+        if (!removedSet.isEmpty() || !moving.isEmpty()) {
+            deletedRows = removeAll(rows, removedSet, moving, removedItems);
+        }
+        // rows that stayed put, numbered as they are once the deletes are out
+        int[] updatedRows = new int[inPlace.size()];
+        for (int i = 0; i < updatedRows.length; i++) {
+            updatedRows[i] = inPlace.get(i) - countBelow(deletedRows, inPlace.get(i));
+        }
+
+        // new and moved items are sorted once and merged into the collection in one pass
+        int[] insertedRows = new int[0];
+        if (!toInsert.isEmpty()) {
+            toInsert.sort(comparator);
+            insertedRows = merge(rows, toInsert, comparator);
+        }
+
+        // built from before, so published only if nothing else has been written since
+        ConcurrentCollectionStore.Snapshot after = deletedRows.length == 0 && insertedRows.length == 0
+            ? before : collection.replace(before, rows);
+
+        changeIndex(index -> {
+            index.addAll(newItems);
+            for (CollectionItem item : removedItems) {
+                index.remove(item);
+            }
+            for (CollectionItem item : changedItems) {
+                index.update(item);
+            }
+        });
+        save(CollectionLog.Operation.ADD, newItems);
+        save(CollectionLog.Operation.DELETE, removedItems);
+        save(CollectionLog.Operation.EDIT, changedItems);
+
+        Change change = new Change(before, after, newItems, removedItems, changedItems, deletedRows, updatedRows, insertedRows);
+        if (!change.isEmpty()) {
+            published();
+        }
+        return change;
+    }
+
+    // views are kept per search and kind of order
+    private static String viewKey(String query, SortStrategy order) {
+        return order.getClass().getName() + "\n" + query;
+    }
+
+    // the view kept for a key, if it's still up to date
+    private CollectionView cachedView(String key, Current state) {
+        synchronized (views) {
+            CollectionView cached = views.get(key);
+            return cached != null && cached.getVersion() == state.version ? cached : null;
+        }
+    }
+
+    // makes the finished write visible to view - lock held
+    // views made before it are out of date, so they're dropped rather than kept to the limit
+    private void published() {
+        current = new Current(collection.snapshot(), strategy, current.version + 1);
+        synchronized (views) {
+            views.clear();
+        }
+    }
+
+    // writes changes to the log, if there is one - lock held
+    // a failed write goes to the listeners rather than undoing the change. items are checked
+    // before anything changes, so only the disk should fail here - but whatever goes wrong is
+    // reported the same way, so the collection, the index and the listeners still agree
+    private void save(CollectionLog.Operation operation, List<CollectionItem> items) {
+        if (log == null || items.isEmpty()) {
+            return;
+        }
+        try {
+            log.appendAll(operation, items);
+        } catch (IOException | RuntimeException e) {
+            IOException failure = e instanceof IOException ? (IOException) e
+                                                           : new IOException("couldn't save: " + e.getMessage(), e);
+            for (Listener listener : listeners) {
+                listener.saveFailed(failure);
+            }
+        }
+    }
+
+    // throws IllegalArgumentException if the log couldn't store the item - nothing is checked
+    // when nothing is saved. lets a caller holding a batch turn away just the items that would
+    // make add, apply or update refuse the lot
+    public void checkStorable(CollectionItem item) {
+        if (log != null) {
+            log.check(item);
+        }
+    }
+
+    // puts an item's fields back to how they are now - for undoing an edit that went wrong
+    private static Runnable restorerFor(CollectionItem item) {
+        String title = item.getTitle();
+        String artist = item.getArtist();
+        int year = item.getYear();
+        String condition = item.getCondition();
+        Runnable formatFields = () -> { };
+        if (item instanceof Record) {
+            Record record = (Record) item;
+            String size = record.getSize();
+            String speed = record.getSpeed();
+            formatFields = () -> {
+                record.setSize(size);
+                record.setSpeed(speed);
+            };
+        } else if (item instanceof CD) {
+            CD cd = (CD) item;
+            int trackCount = cd.getTrackCount();
+            boolean hasBooklet = cd.hasBooklet();
+            formatFields = () -> {
+                cd.setTrackCount(trackCount);
+                cd.setHasBooklet(hasBooklet);
+            };
+        } else if (item instanceof Cassette) {
+            Cassette cassette = (Cassette) item;
+            String tapeType = cassette.getTapeType();
+            int length = cassette.getLength();
+            formatFields = () -> {
+                cassette.setTapeType(tapeType);
+                cassette.setLength(length);
+            };
+        }
+        Runnable restoreFormat = formatFields;
+        return () -> {
+            item.setTitle(title);
+            item.setArtist(artist);
+            item.setYear(year);
+            item.setCondition(condition);
+            restoreFormat.run();
+        };
+    }
+
+    private void notifyListeners(Change change) {
+        for (Listener listener : listeners) {
+            listener.collectionChanged(change);
+        }
+    }
+
+    // finds an item by identity - a binary search for the items that sort equal to it, then a
+    // look along those for this one. an item whose fields were changed since it went in (setters
+    // then update()) isn't where its values say any more, so that falls back to a scan
+    private int indexOf(List<CollectionItem> rows, CollectionItem item) {
+        Comparator<CollectionItem> comparator = strategy.getComparator();
+        for (int i = strategy.insertionPoint(rows, item, 0); i < rows.size(); i++) {
+            CollectionItem other = rows.get(i);
+            if (other == item) {
+                return i;
+            }
+            if (comparator.compare(other, item) != 0) {
+                break;
+            }
+        }
+        int i = 0;
+        for (CollectionItem other : rows) {
+            if (other == item) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    // a view of a list with one row left out - nothing is copied
+    private static List<CollectionItem> withoutRow(List<CollectionItem> list, int row) {
+        return new AbstractList<CollectionItem>() {
+            @Override
+            public CollectionItem get(int index) {
+                return list.get(index < row ? index : index + 1);
+            }
+
+            @Override
+            public int size() {
+                return list.size() - 1;
+            }
+        };
+    }
+
+    // where each of the given items currently sits
+    private static Map<CollectionItem, Integer> positionsOf(List<CollectionItem> rows,
+                                                            Collection<? extends CollectionItem> items) {
+        Map<CollectionItem, Integer> positions = new IdentityHashMap<>();
+        Set<CollectionItem> wanted = identitySet(items);
+        for (int i = 0; i < rows.size() && positions.size() < wanted.size(); i++) {
+            if (wanted.contains(rows.get(i))) {
+                positions.put(rows.get(i), i);
+            }
+        }
+        return positions;
+    }
+
+    // true if the item at row still sorts between its neighbours
+    private static boolean inOrder(List<CollectionItem> rows, int row, Comparator<CollectionItem> comparator) {
+        CollectionItem item = rows.get(row);
+        return (row == 0 || comparator.compare(rows.get(row - 1), item) <= 0) &&
+               (row == rows.size() - 1 || comparator.compare(item, rows.get(row + 1)) <= 0);
+    }
+
+    // removes every item in either set, returns the rows they were on (ascending)
+    // removed items that were actually found are added to found
+    private static int[] removeAll(List<CollectionItem> rows, Set<CollectionItem> removed,
+                                   Set<CollectionItem> moving, List<CollectionItem> found) {
+        int[] deleted = new int[removed.size() + moving.size()];
+        int count = 0;
+        int write = 0;
+        for (int read = 0; read < rows.size(); read++) {
+            CollectionItem item = rows.get(read);
+            if (removed.contains(item) || moving.contains(item)) {
+                deleted[count++] = read;
+                if (!moving.contains(item)) {
+                    found.add(item);
+                }
+            } else {
+                rows.set(write++, item);
+            }
+        }
+        rows.subList(write, rows.size()).clear();
+        return Arrays.copyOf(deleted, count);
+    }
+
+    // merges sorted new items into the sorted rows, returns the rows they landed on
+    // new items go after existing equal ones, same as SortStrategy.insertionPoint
+    private static int[] merge(List<CollectionItem> rows, List<CollectionItem> sortedNew,
+                               Comparator<CollectionItem> comparator) {
+        CollectionItem[] merged = new CollectionItem[rows.size() + sortedNew.size()];
+        int[] inserted = new int[sortedNew.size()];
+        int i = 0;
+        int j = 0;
+        int out = 0;
+        while (j < sortedNew.size()) {
+            if (i < rows.size() && comparator.compare(rows.get(i), sortedNew.get(j)) <= 0) {
+                merged[out++] = rows.get(i++);
+            } else {
+                inserted[j] = out;
+                merged[out++] = sortedNew.get(j++);
+            }
+        }
+        while (i < rows.size()) {
+            merged[out++] = rows.get(i++);
+        }
+        rows.clear();
+        rows.addAll(Arrays.asList(merged));
+        return inserted;
+    }
+
+    // how many of the ascending rows are below the given row
+    private static int countBelow(int[] sortedRows, int row) {
+        int index = Arrays.binarySearch(sortedRows, row);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    // items are matched by identity - two copies of the same album are different items
+    private static Set<CollectionItem> identitySet(Collection<? extends CollectionItem> items) {
+        Set<CollectionItem> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        set.addAll(items);
+        return set;
+    }
+
+    // the state published at the end of each write
+    private static final class Current {
+        private final ConcurrentCollectionStore.Snapshot snapshot;
+        private final SortStrategy strategy;
+        private final long version;
+
+        Current(ConcurrentCollectionStore.Snapshot snapshot, SortStrategy strategy, long version) {
+            this.snapshot = snapshot;
+            this.strategy = strategy;
+            this.version = version;
+        }
+    }
+
+    // what one write did, in terms of rows: going from before to after, the deleted rows come
+    // out first (numbered as in before), the updated rows change in place (numbered once the
+    // deletes are out), then the inserted rows go in (numbered as in after)
+    // a re-sort moves everything, so it has no row numbers at all
+    public static final class Change {
+        private final ConcurrentCollectionStore.Snapshot before;
+        private final ConcurrentCollectionStore.Snapshot after;
+        private final List<CollectionItem> added;
+        private final List<CollectionItem> removed;
+        private final List<CollectionItem> changed;
+        private final int[] deletedRows;
+        private final int[] updatedRows;
+        private final int[] insertedRows;
+        private final boolean resort;
+
+        Change(ConcurrentCollectionStore.Snapshot before, ConcurrentCollectionStore.Snapshot after,
+               List<CollectionItem> added, List<CollectionItem> removed, List<CollectionItem> changed,
+               int[] deletedRows, int[] updatedRows, int[] insertedRows) {
+            this(before, after, added, removed, changed, deletedRows, updatedRows, insertedRows, false);
+        }
+
+        private Change(ConcurrentCollectionStore.Snapshot before, ConcurrentCollectionStore.Snapshot after,
+                       List<CollectionItem> added, List<CollectionItem> removed, List<CollectionItem> changed,
+                       int[] deletedRows, int[] updatedRows, int[] insertedRows, boolean resort) {
+            this.before = before;
+            this.after = after;
+            this.added = Collections.unmodifiableList(added);
+            this.removed = Collections.unmodifiableList(removed);
+            this.changed = Collections.unmodifiableList(changed);
+            this.deletedRows = deletedRows;
+            this.updatedRows = updatedRows;
+            this.insertedRows = insertedRows;
+            this.resort = resort;
+        }
+
+        static Change resorted(ConcurrentCollectionStore.Snapshot before, ConcurrentCollectionStore.Snapshot after) {
+            return new Change(before, after, List.of(), List.of(), List.of(),
+                new int[0], new int[0], new int[0], true);
+        }
+
+        public ConcurrentCollectionStore.Snapshot getBefore() {
+            return before;
+        }
+
+        public ConcurrentCollectionStore.Snapshot getAfter() {
+            return after;
+        }
+
+        public List<CollectionItem> getAdded() {
+            return added;
+        }
+
+        public List<CollectionItem> getRemoved() {
+            return removed;
+        }
+
+        public List<CollectionItem> getChanged() {
+            return changed;
+        }
+
+        // deleted and inserted rows are ascending - none of the arrays should be modified
+        public int[] getDeletedRows() {
+            return deletedRows;
+        }
+
+        public int[] getUpdatedRows() {
+            return updatedRows;
+        }
+
+        public int[] getInsertedRows() {
+            return insertedRows;
+        }
+
+        // true if the whole collection was put into a new order
+        public boolean isResort() {
+            return resort;
+        }
+
+        // true if nothing was added, removed or changed
+        public boolean isEmpty() {
+            return !resort && added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * CollectionView.java
+ * purpose: one sorted, filtered view of the collection that can be read a page at a time
+ *          fetching rows 500,000 to 500,100 copies 100 items, not the whole list
+ * author: phin
+ */
+
+package service;
+
+import model.CollectionItem;
+import store.ConcurrentCollectionStore;
+import strategy.SortStrategy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// the items matching a query, in one order, as they were at one version of the collection
+// a view's rows never change once made - later edits make a new view rather than moving rows
+// in this one - so a position in it means the same item for as long as the view is kept, and
+// paging on through a view never skips or repeats an item however the collection changes.
+// the items are the collection's own, though, so an edit made since shows in their fields
+//
+// the service keeps the views it has made until the collection changes (see
+// CollectionService.view), so a page is found by position in O(log n + page size) with no
+// sorting or copying of the whole list. only the first view of each query and order after
+// a change pays for the search and sort
+public final class CollectionView {
+
+    private final String query;
+    private final SortStrategy order;
+    private final long version;
+
+    // the rows in order - either the service's own snapshot (the collection in its own order)
+    // or an array sorted for this view. exactly one of these is set
+    private final ConcurrentCollectionStore.Snapshot snapshot;
+    private final CollectionItem[] sorted;
+
+    CollectionView(String query, SortStrategy order, long version, ConcurrentCollectionStore.Snapshot snapshot) {
+        this(query, order, version, snapshot, null);
+    }
+
+    CollectionView(String query, SortStrategy order, long version, CollectionItem[] sorted) {
+        this(query, order, version, null, sorted);
+    }
+
+    private CollectionView(String query, SortStrategy order, long version,
+                           ConcurrentCollectionStore.Snapshot snapshot, CollectionItem[] sorted) {
+        this.query = query;
+        this.order = order;
+        this.version = version;
+        this.snapshot = snapshot;
+        this.sorted = sorted;
+    }
+
+    // the search the rows match - empty for the whole collection
+    public String getQuery() {
+        return query;
+    }
+
+    public SortStrategy getOrder() {
+        return order;
+    }
+
+    // the service's version when the view was made (see CollectionService.getVersion)
+    public long getVersion() {
+        return version;
+    }
+
+    // how many items match
+    public int size() {
+        return snapshot != null ? snapshot.size() : sorted.length;
+    }
+
+    // up to limit items starting at offset - an offset past the end gives an empty last page
+    public Page page(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit can't be negative: " + offset + ", " + limit);
+        }
+        int from = Math.min(offset, size());
+        int to = (int) Math.min(size(), (long) from + limit);
+        CollectionItem[] items = snapshot != null ? snapshot.toArray(from, to) : Arrays.copyOfRange(sorted, from, to);
+        return new Page(this, from, limit, items);
+    }
+
+    // all the rows as a read-only list - no copy is made
+    public List<CollectionItem> asList() {
+        return snapshot != null ? snapshot : Collections.unmodifiableList(Arrays.asList(sorted));
+    }
+
+    // one page of a view - a cursor that knows where the next page starts
+    public static final class Page {
+        private final CollectionView view;
+        private final int offset;
+        private final int limit;
+        private final List<CollectionItem> items;
+
+        private Page(CollectionView view, int offset, int limit, CollectionItem[] items) {
+            this.view = view;
+            this.offset = offset;
+            this.limit = limit;
+            this.items = Collections.unmodifiableList(Arrays.asList(items));
+        }
+
+        public CollectionView getView() {
+            return view;
+        }
+
+        // where this page starts in the view
+        public int getOffset() {
+            return offset;
+        }
+
+        // the most items the page could hold - the last page can have fewer
+        public int getLimit() {
+            return limit;
+        }
+
+        // how many items the whole view has
+        public int getTotal() {
+            return view.size();
+        }
+
+        public List<CollectionItem> getItems() {
+            return items;
+        }
+
+        // false on a page of no items, since its next page would be the same one
+        public boolean hasNext() {
+            return !items.isEmpty() && offset + items.size() < view.size();
+        }
+
+        // the page after this one, from the same view - positions don't shift between pages
+        // even if the collection has changed since, so nothing is skipped or seen twice
+        public Page next() {
+            return view.page(offset + items.size(), limit);
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * ColumnarCollectionStore.java
+ * purpose: struct-of-arrays storage for large collections
+ *          one primitive array per field instead of one object graph per item
+ * author: phin
+ */
+
+package store;
+
+import factory.ItemFactory.MediaType;
+import model.CD;
+import model.Cassette;
+import model.CollectionItem;
+import model.Grade;
+import model.Record;
+import strategy.SortByArtist;
+import strategy.SortByCondition;
+import strategy.SortByMediaType;
+import strategy.SortByTitle;
+import strategy.SortByYear;
+import strategy.SortStrategy;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+// columnar collection store - every field lives in its own primitive array
+// strings (artist, title, vinyl size/speed, tape type) are dictionary encoded to int ids
+// sorting and filtering walk these arrays directly, which is far more cache friendly
+// than chasing item -> string -> char array pointers for every row
+//
+// the CollectionItem view (get / asList) builds items on demand - they're copies,
+// so changes to a returned item only land in the store when written back with set()
+//
+// not used by the app - the service keeps its items in a ConcurrentCollectionStore, whose
+// snapshots the window, the server and the log all read. this store is a layout to measure
+// against (see SortBenchmark) and a starting point if the service ever needs to hold a catalog
+// too big for item objects
+public class ColumnarCollectionStore {
+
+    // format column values, numbered in the order the format sort puts them
+    // (cassette, cd, vinyl record - alphabetical by media type name)
+    private static final byte FORMAT_CASSETTE = 0;
+    private static final byte FORMAT_CD = 1;
+    private static final byte FORMAT_RECORD = 2;
+    private static final int FORMAT_COUNT = 3;
+
+    // media type names by format code, lowercase for searching
+    private static final String[] FORMAT_SEARCH_NAMES = {"cassette", "cd", "vinyl record"};
+
+    // number of rows in use
+    private int size = 0;
+
+    // one array per field, all the same length
+    private byte[] formats;
+    private byte[] grades;
+    private int[] years;
+    private int[] artistIds;
+    private int[] titleIds;
+
+    // format-specific fields, meaning depends on the format column
+    // record: size id / speed id, cd: track count / booklet (1 or 0), cassette: tape type id / length
+    private int[] detailA;
+    private int[] detailB;
+
+    // condition text id in the details dictionary, for the few items whose condition isn't just
+    // their grade's code ("Mint", "sealed??") - -1 for everything else
+    private int[] conditionIds;
+
+    // dictionaries for the encoded string columns
+    private final StringDictionary artists = new StringDictionary();
+    private final StringDictionary titles = new StringDictionary();
+    private final StringDictionary details = new StringDictionary();
+
+    // empty store with room for a few rows
+    public ColumnarCollectionStore() {
+        this(16);
+    }
+
+    // empty store sized for the given number of rows
+    public ColumnarCollectionStore(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        formats = new byte[capacity];
+        grades = new byte[capacity];
+        years = new int[capacity];
+        artistIds = new int[capacity];
+        titleIds = new int[capacity];
+        detailA = new int[capacity];
+        detailB = new int[capacity];
+        conditionIds = new int[capacity];
+    }
+
+    // builds a store from existing items, in the same order
+    public static ColumnarCollectionStore of(Collection<? extends CollectionItem> items) {
+        ColumnarCollectionStore store = new ColumnarCollectionStore(items.size());
+        for (CollectionItem item : items) {
+            store.add(item);
+        }
+        return store;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // appends an item and returns its row
+    public int add(CollectionItem item) {
+        ensureCapacity(size + 1);
+        write(size, item);
+        return size++;
+    }
+
+    // overwrites a row with the item's current values
+    public void set(int row, CollectionItem item) {
+        checkRow(row);
+        write(row, item);
+    }
+
+    // removes a row, shifting later rows up by one so order is kept
+    public void remove(int row) {
+        checkRow(row);
+        int moved = size - row - 1;
+        if (moved > 0) {
+            System.arraycopy(formats, row + 1, formats, row, moved);
+            System.arraycopy(grades, row + 1, grades, row, moved);
+            System.arraycopy(years, row + 1, years, row, moved);
+            System.arraycopy(artistIds, row + 1, artistIds, row, moved);
+            System.arraycopy(titleIds, row + 1, titleIds, row, moved);
+            System.arraycopy(detailA, row + 1, detailA, row, moved);
+            System.arraycopy(detailB, row + 1, detailB, row, moved);
+            System.arraycopy(conditionIds, row + 1, conditionIds, row, moved);
+        }
+        size--;
+    }
+
+    // builds a CollectionItem for a row - a copy, see the class comment
+    public CollectionItem get(int row) {
+        checkRow(row);
+        String artist = artists.get(artistIds[row]);
+        String title = titles.get(titleIds[row]);
+        int year = years[row];
+        Grade grade = Grade.fromOrdinal(grades[row]);
+
+        CollectionItem item;
+        switch (formats[row]) {
+            case FORMAT_RECORD:
+                item = new Record(title, artist, year, grade, details.get(detailA[row]), details.get(detailB[row]));
+                break;
+            case FORMAT_CD:
+                item = new CD(title, artist, year, grade, detailA[row], detailB[row] != 0);
+                break;
+            default:
+                item = new Cassette(title, artist, year, grade, details.get(detailA[row]), detailB[row]);
+                break;
+        }
+        if (conditionIds[row] >= 0) {
+            item.setCondition(details.get(conditionIds[row]));
+        }
+        return item;
+    }
+
+    // primitive accessors so callers can scan without building items
+    public int getYear(int row) {
+        checkRow(row);
+        return years[row];
+    }
+
+    public Grade getGrade(int row) {
+        checkRow(row);
+        return Grade.fromOrdinal(grades[row]);
+    }
+
+    public MediaType getMediaType(int row) {
+        checkRow(row);
+        switch (formats[row]) {
+            case FORMAT_RECORD:
+                return MediaType.RECORD;
+            case FORMAT_CD:
+                return MediaType.CD;
+            default:
+                return MediaType.CASSETTE;
+        }
+    }
+
+    public String getArtist(int row) {
+        checkRow(row);
+        return artists.get(artistIds[row]);
+    }
+
+    public String getTitle(int row) {
+        checkRow(row);
+        return titles.get(titleIds[row]);
+    }
+
+    // list view over the store - get builds items, set/add/remove write through to the columns
+    public List<CollectionItem> asList() {
+        return new AbstractList<CollectionItem>() {
+            @Override
+            public CollectionItem get(int index) {
+                return ColumnarCollectionStore.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public CollectionItem set(int index, CollectionItem item) {
+                CollectionItem previous = ColumnarCollectionStore.this.get(index);
+                ColumnarCollectionStore.this.set(index, item);
+                return previous;
+            }
+
+            @Override
+            public void add(int index, CollectionItem item) {
+                if (index < 0 || index > size) {
+                    throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+                }
+                ensureCapacity(size + 1);
+                int moved = size - index;
+                if (moved > 0) {
+                    System.arraycopy(formats, index, formats, index + 1, moved);
+                    System.arraycopy(grades, index, grades, index + 1, moved);
+                    System.arraycopy(years, index, years, index + 1, moved);
+                    System.arraycopy(artistIds, index, artistIds, index + 1, moved);
+                    System.arraycopy(titleIds, index, titleIds, index + 1, moved);
+                    System.arraycopy(detailA, index, detailA, index + 1, moved);
+                    System.arraycopy(detailB, index, detailB, index + 1, moved);
+                    System.arraycopy(conditionIds, index, conditionIds, index + 1, moved);
+                }
+                write(index, item);
+                size++;
+                modCount++;
+            }
+
+            @Override
+            public CollectionItem remove(int index) {
+                CollectionItem previous = ColumnarCollectionStore.this.get(index);
+                ColumnarCollectionStore.this.remove(index);
+                modCount++;
+                return previous;
+            }
+        };
+    }
+
+    // returns the rows in the order the strategy would sort them, without touching the store
+    // the built-in strategies sort straight off the primitive columns in linear time
+    // (artist/title rank the distinct strings once, then counting sort the rows)
+    // any other strategy falls back to comparing built items
+    public int[] sortedRows(SortStrategy strategy) {
+        if (strategy instanceof SortByYear) {
+            return sortRowsByYear();
+        }
+        if (strategy instanceof SortByCondition) {
+            return countingSortRows(grades, Grade.values().length);
+        }
+        if (strategy instanceof SortByMediaType) {
+            return countingSortRows(formats, FORMAT_COUNT);
+        }
+        if (strategy instanceof SortByArtist) {
+            return sortRowsByRank(artistIds, artists.caseInsensitiveRanks());
+        }
+        if (strategy instanceof SortByTitle) {
+            return sortRowsByRank(titleIds, titles.caseInsensitiveRanks());
+        }
+        return sortRowsWithComparator(strategy);
+    }
+
+    // rows whose title, artist, media type or year contain the search text anywhere, ignoring case
+    // a plain substring match, looser than the gui's indexed search (which matches the starts of
+    // words and knows year ranges). strings are matched once per distinct value, not per row
+    public int[] filterRows(String searchText) {
+        String text = searchText.toLowerCase();
+        boolean[] artistMatches = artists.matching(text);
+        boolean[] titleMatches = titles.matching(text);
+        boolean[] formatMatches = new boolean[FORMAT_COUNT];
+        for (int format = 0; format < FORMAT_COUNT; format++) {
+            formatMatches[format] = FORMAT_SEARCH_NAMES[format].contains(text);
+        }
+
+        int[] matches = new int[size];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (titleMatches[titleIds[row]] || artistMatches[artistIds[row]] || formatMatches[formats[row]] ||
+                String.valueOf(years[row]).contains(text)) {
+                matches[count++] = row;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    // rows with a year in [fromYear, toYear] - a straight scan over one int array
+    public int[] rowsInYearRange(int fromYear, int toYear) {
+        int[] matches = new int[size];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            int year = years[row];
+            if (year >= fromYear && year <= toYear) {
+                matches[count++] = row;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    // rough heap used by the store - columns plus dictionaries
+    public long estimatedHeapBytes() {
+        long capacity = years.length;
+        // two byte columns, six int columns, one array header each
+        long columns = capacity * (2 + 6 * 4) + 8 * 16;
+        return columns + artists.estimatedHeapBytes() + titles.estimatedHeapBytes() + details.estimatedHeapBytes();
+    }
+
+    // writes an item's values into a row
+    private void write(int row, CollectionItem item) {
+        years[row] = item.getYear();
+        grades[row] = (byte) item.getGradeOrdinal();
+        String condition = item.getCondition();
+        conditionIds[row] = condition.equals(item.getGrade().getCode()) ? -1 : details.idOf(condition);
+        artistIds[row] = artists.idOf(item.getArtist());
+        titleIds[row] = titles.idOf(item.getTitle());
+
+        if (item instanceof Record) {
+            Record record = (Record) item;
+            formats[row] = FORMAT_RECORD;
+            detailA[row] = details.idOf(record.getSize());
+            detailB[row] = details.idOf(record.getSpeed());
+        } else if (item instanceof CD) {
+            CD cd = (CD) item;
+            formats[row] = FORMAT_CD;
+            detailA[row] = cd.getTrackCount();
+            detailB[row] = cd.hasBooklet() ? 1 : 0;
+        } else if (item instanceof Cassette) {
+            Cassette cassette = (Cassette) item;
+            formats[row] = FORMAT_CASSETTE;
+            detailA[row] = details.idOf(cassette.getTapeType());
+            detailB[row] = cassette.getLength();
+        } else {
+            throw new IllegalArgumentException("unsupported item type: " + item.getClass().getName());
+        }
+    }
+
+    // grows every column together
+    private void ensureCapacity(int needed) {
+        if (needed <= years.length) {
+            return;
+        }
+        int capacity = Math.max(needed, years.length * 2);
+        formats = Arrays.copyOf(formats, capacity);
+        grades = Arrays.copyOf(grades, capacity);
+        years = Arrays.copyOf(years, capacity);
+        artistIds = Arrays.copyOf(artistIds, capacity);
+        titleIds = Arrays.copyOf(titleIds, capacity);
+        detailA = Arrays.copyOf(detailA, capacity);
+        detailB = Arrays.copyOf(detailB, capacity);
+        conditionIds = Arrays.copyOf(conditionIds, capacity);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+        }
+    }
+
+    // counting sort of the rows by a small byte column
+    private int[] countingSortRows(byte[] column, int bucketCount) {
+        int[] keys = new int[size];
+        for (int row = 0; row < size; row++) {
+            keys[row] = column[row];
+        }
+        return RowSort.countingSort(keys, bucketCount);
+    }
+
+    // years are usually a narrow band, so this is normally a single counting pass
+    private int[] sortRowsByYear() {
+        if (size == 0) {
+            return new int[0];
+        }
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int row = 0; row < size; row++) {
+            min = Math.min(min, years[row]);
+            max = Math.max(max, years[row]);
+        }
+
+        long range = (long) max - min;
+        if (range < 1 << 16) {
+            int[] keys = new int[size];
+            for (int row = 0; row < size; row++) {
+                keys[row] = years[row] - min;
+            }
+            return RowSort.countingSort(keys, (int) range + 1);
+        }
+
+        // very spread out years (bad data) - fall back to a comparison sort of the rows
+        return sortRowsWithComparator(new SortByYear());
+    }
+
+    // sorts rows by the rank of their dictionary id
+    private int[] sortRowsByRank(int[] idColumn, int[] ranks) {
+        int[] keys = new int[size];
+        int bucketCount = 1;
+        for (int row = 0; row < size; row++) {
+            keys[row] = ranks[idColumn[row]];
+            bucketCount = Math.max(bucketCount, keys[row] + 1);
+        }
+        return RowSort.countingSort(keys, bucketCount);
+    }
+
+    // generic path - build each item once and sort the rows by the strategy's comparator
+    private int[] sortRowsWithComparator(SortStrategy strategy) {
+        CollectionItem[] built = new CollectionItem[size];
+        for (int row = 0; row < size; row++) {
+            built[row] = get(row);
+        }
+        return RowSort.mergeSort(size, (a, b) -> strategy.getComparator().compare(built[a], built[b]));
+    }
+}
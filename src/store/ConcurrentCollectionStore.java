@@ -0,0 +1,356 @@
+/*
+ * ConcurrentCollectionStore.java
+ * purpose: the collection as a series of immutable, versioned snapshots
+ *          readers on any thread get a consistent list without locking, writers take turns
+ * author: phin
+ */
+
+package store;
+
+import model.CollectionItem;
+import strategy.SortStrategy;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.locks.ReentrantLock;
+
+// copy-on-write collection store - the items live in chunks of up to MAX_CHUNK, and a write
+// copies only the chunk it touches plus the (small) array of chunk pointers. every write
+// publishes a new snapshot with the next version number through one volatile field, so
+// readers never lock, never block a writer and never see half a change
+//
+// writers are serialized by one lock. a writer that worked something out from an older
+// snapshot (a batched merge, say) publishes with replace(expected, items), which refuses if
+// anything else was written in the meantime instead of silently losing that write
+public class ConcurrentCollectionStore {
+
+    // chunks are split when they pass MAX_CHUNK, merged into a neighbour when removes take them
+    // under MIN_CHUNK, and rebuilt at CHUNK_SIZE
+    // ~1k items keeps both the chunk copy and the pointer copy small up to millions of items
+    static final int CHUNK_SIZE = 512;
+    static final int MAX_CHUNK = 2 * CHUNK_SIZE;
+    static final int MIN_CHUNK = CHUNK_SIZE / 4;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile Snapshot current = new Snapshot(new CollectionItem[0][], 0);
+
+    // the collection as it is right now - never changes, safe to keep and read from any thread
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    public int size() {
+        return current.size();
+    }
+
+    public long getVersion() {
+        return current.version;
+    }
+
+    // inserts an item at a position
+    public Snapshot add(int index, CollectionItem item) {
+        writeLock.lock();
+        try {
+            Snapshot snapshot = current;
+            if (index < 0 || index > snapshot.size) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + snapshot.size);
+            }
+            return publish(inserted(snapshot, index, item));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // removes the item at a position
+    public Snapshot remove(int index) {
+        writeLock.lock();
+        try {
+            Snapshot snapshot = current;
+            snapshot.checkIndex(index);
+            return publish(removed(snapshot, index));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // takes the item at one position and puts it back in at another, as one write
+    // the new position counts without the item, like remove followed by add -
+    // but readers never see a version with the item missing
+    public Snapshot move(int from, int to) {
+        writeLock.lock();
+        try {
+            Snapshot snapshot = current;
+            snapshot.checkIndex(from);
+            if (to < 0 || to >= snapshot.size) {
+                throw new IndexOutOfBoundsException("index " + to + ", size " + (snapshot.size - 1));
+            }
+            CollectionItem item = snapshot.get(from);
+            Snapshot without = new Snapshot(removed(snapshot, from), snapshot.version);
+            return publish(inserted(without, to, item));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // puts a different item at a position
+    public Snapshot set(int index, CollectionItem item) {
+        writeLock.lock();
+        try {
+            Snapshot snapshot = current;
+            snapshot.checkIndex(index);
+            int chunk = snapshot.chunkOf(index);
+            CollectionItem[] copy = snapshot.chunks[chunk].clone();
+            copy[index - snapshot.starts[chunk]] = item;
+            return publish(replaceChunk(snapshot.chunks, chunk, copy));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // replaces everything with the given items, in order
+    public Snapshot replaceAll(Collection<? extends CollectionItem> items) {
+        writeLock.lock();
+        try {
+            return publish(chunk(items));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // replaces everything, but only if nothing has been written since the expected snapshot
+    // for writers that built the new contents from that snapshot without holding the lock
+    public Snapshot replace(Snapshot expected, Collection<? extends CollectionItem> items) {
+        writeLock.lock();
+        try {
+            if (current != expected) {
+                throw new ConcurrentModificationException("store moved on from version " + expected.version +
+                    " to " + current.version);
+            }
+            return publish(chunk(items));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // sorts the collection with a strategy - readers keep seeing the old order until it's done
+    public Snapshot sort(SortStrategy strategy) {
+        writeLock.lock();
+        try {
+            List<CollectionItem> items = new ArrayList<>(current);
+            strategy.sort(items);
+            return publish(chunk(items));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // swaps in the next snapshot - lock held
+    private Snapshot publish(CollectionItem[][] chunks) {
+        Snapshot next = new Snapshot(chunks, current.version + 1);
+        current = next;
+        return next;
+    }
+
+    // the chunks with an item inserted - only the chunk it lands in is copied
+    private static CollectionItem[][] inserted(Snapshot snapshot, int index, CollectionItem item) {
+        CollectionItem[][] chunks = snapshot.chunks;
+        if (chunks.length == 0) {
+            return new CollectionItem[][] {{item}};
+        }
+
+        // the end of the collection belongs to the last chunk
+        int chunk = index == snapshot.size ? chunks.length - 1 : snapshot.chunkOf(index);
+        int offset = index - snapshot.starts[chunk];
+        CollectionItem[] old = chunks[chunk];
+        CollectionItem[] grown = new CollectionItem[old.length + 1];
+        System.arraycopy(old, 0, grown, 0, offset);
+        grown[offset] = item;
+        System.arraycopy(old, offset, grown, offset + 1, old.length - offset);
+
+        if (grown.length <= MAX_CHUNK) {
+            return replaceChunk(chunks, chunk, grown);
+        }
+        // too big - split it in half
+        int half = grown.length / 2;
+        CollectionItem[][] split = new CollectionItem[chunks.length + 1][];
+        System.arraycopy(chunks, 0, split, 0, chunk);
+        split[chunk] = Arrays.copyOfRange(grown, 0, half);
+        split[chunk + 1] = Arrays.copyOfRange(grown, half, grown.length);
+        System.arraycopy(chunks, chunk + 1, split, chunk + 2, chunks.length - chunk - 1);
+        return split;
+    }
+
+    // the chunks with an item taken out
+    // a chunk left under MIN_CHUNK is folded into its smaller neighbour, so deleting most of the
+    // collection doesn't leave a long pointer array of nearly empty chunks to copy on every write
+    private static CollectionItem[][] removed(Snapshot snapshot, int index) {
+        CollectionItem[][] chunks = snapshot.chunks;
+        int chunk = snapshot.chunkOf(index);
+        int offset = index - snapshot.starts[chunk];
+        CollectionItem[] old = chunks[chunk];
+
+        if (old.length == 1) {
+            // last item in its chunk - the chunk goes
+            CollectionItem[][] fewer = new CollectionItem[chunks.length - 1][];
+            System.arraycopy(chunks, 0, fewer, 0, chunk);
+            System.arraycopy(chunks, chunk + 1, fewer, chunk, chunks.length - chunk - 1);
+            return fewer;
+        }
+        CollectionItem[] shrunk = new CollectionItem[old.length - 1];
+        System.arraycopy(old, 0, shrunk, 0, offset);
+        System.arraycopy(old, offset + 1, shrunk, offset, old.length - offset - 1);
+        if (shrunk.length >= MIN_CHUNK || chunks.length == 1) {
+            return replaceChunk(chunks, chunk, shrunk);
+        }
+
+        // too small - join it to whichever neighbour is smaller, the pair starting at left
+        int left = chunk == chunks.length - 1 ||
+            (chunk > 0 && chunks[chunk - 1].length <= chunks[chunk + 1].length) ? chunk - 1 : chunk;
+        CollectionItem[] first = left == chunk ? shrunk : chunks[left];
+        CollectionItem[] second = left == chunk ? chunks[left + 1] : shrunk;
+        CollectionItem[] joined = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+
+        if (joined.length > MAX_CHUNK) {
+            // the neighbour was nearly full - share the items out evenly between the two instead
+            int half = joined.length / 2;
+            CollectionItem[][] copy = chunks.clone();
+            copy[left] = Arrays.copyOfRange(joined, 0, half);
+            copy[left + 1] = Arrays.copyOfRange(joined, half, joined.length);
+            return copy;
+        }
+        CollectionItem[][] fewer = new CollectionItem[chunks.length - 1][];
+        System.arraycopy(chunks, 0, fewer, 0, left);
+        fewer[left] = joined;
+        System.arraycopy(chunks, left + 2, fewer, left + 1, chunks.length - left - 2);
+        return fewer;
+    }
+
+    private static CollectionItem[][] replaceChunk(CollectionItem[][] chunks, int index, CollectionItem[] chunk) {
+        CollectionItem[][] copy = chunks.clone();
+        copy[index] = chunk;
+        return copy;
+    }
+
+    // cuts a list into fresh CHUNK_SIZE chunks
+    private static CollectionItem[][] chunk(Collection<? extends CollectionItem> items) {
+        CollectionItem[] all = items.toArray(new CollectionItem[0]);
+        CollectionItem[][] chunks = new CollectionItem[(all.length + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = Arrays.copyOfRange(all, i * CHUNK_SIZE, Math.min(all.length, (i + 1) * CHUNK_SIZE));
+        }
+        return chunks;
+    }
+
+    // one version of the collection - a read-only list that never changes once published
+    // snapshots share every chunk a write didn't touch, so keeping old ones around is cheap
+    public static final class Snapshot extends AbstractList<CollectionItem> implements RandomAccess {
+        private final CollectionItem[][] chunks;
+
+        // starts[i] is the index of the first item in chunk i, starts[chunks.length] is the size
+        private final int[] starts;
+        private final int size;
+        private final long version;
+
+        Snapshot(CollectionItem[][] chunks, long version) {
+            this.chunks = chunks;
+            this.version = version;
+            this.starts = new int[chunks.length + 1];
+            for (int i = 0; i < chunks.length; i++) {
+                starts[i + 1] = starts[i] + chunks[i].length;
+            }
+            this.size = starts[chunks.length];
+        }
+
+        // goes up by one with every write to the store
+        public long getVersion() {
+            return version;
+        }
+
+        @Override
+        public CollectionItem get(int index) {
+            checkIndex(index);
+            int chunk = chunkOf(index);
+            return chunks[chunk][index - starts[chunk]];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        // walks the chunks directly rather than looking each index up
+        @Override
+        public Iterator<CollectionItem> iterator() {
+            return new Iterator<CollectionItem>() {
+                private int chunk = 0;
+                private int offset = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return chunk < chunks.length;
+                }
+
+                @Override
+                public CollectionItem next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    CollectionItem item = chunks[chunk][offset++];
+                    if (offset == chunks[chunk].length) {
+                        chunk++;
+                        offset = 0;
+                    }
+                    return item;
+                }
+            };
+        }
+
+        @Override
+        public Object[] toArray() {
+            Object[] all = new Object[size];
+            for (int i = 0; i < chunks.length; i++) {
+                System.arraycopy(chunks[i], 0, all, starts[i], chunks[i].length);
+            }
+            return all;
+        }
+
+        // the items from one index up to (not including) another, copied out chunk by chunk
+        // one binary search to find the first chunk, then straight copies - no lookup per item
+        public CollectionItem[] toArray(int from, int to) {
+            if (from < 0 || to > size || from > to) {
+                throw new IndexOutOfBoundsException("range " + from + " to " + to + ", size " + size);
+            }
+            CollectionItem[] range = new CollectionItem[to - from];
+            int chunk = from < size ? chunkOf(from) : chunks.length;
+            int copied = 0;
+            while (copied < range.length) {
+                int offset = from + copied - starts[chunk];
+                int count = Math.min(chunks[chunk].length - offset, range.length - copied);
+                System.arraycopy(chunks[chunk], offset, range, copied, count);
+                copied += count;
+                chunk++;
+            }
+            return range;
+        }
+
+        // which chunk holds an index - binary search over the chunk starts
+        private int chunkOf(int index) {
+            int found = Arrays.binarySearch(starts, 0, chunks.length, index);
+            return found >= 0 ? found : -found - 2;
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+            }
+        }
+    }
+}
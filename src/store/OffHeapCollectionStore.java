@@ -0,0 +1,965 @@
+/*
+ * OffHeapCollectionStore.java
+ * purpose: collection storage outside the java heap for very large catalogs
+ *          fixed-width rows and utf-8 strings in direct buffers, read through flyweight items
+ * author: phin
+ */
+
+package store;
+
+import factory.ItemFactory.MediaType;
+import model.CD;
+import model.Cassette;
+import model.CollectionItem;
+import model.Grade;
+import model.Record;
+import strategy.SortByArtist;
+import strategy.SortByCondition;
+import strategy.SortByMediaType;
+import strategy.SortByTitle;
+import strategy.SortByYear;
+import strategy.SortStrategy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+// off-heap collection store - nothing per item lives on the java heap, so a 10m item catalog
+// costs the heap a few hundred kb of chunk bookkeeping instead of gigabytes of objects, and
+// the gc has nothing to trace or copy however big the collection gets
+//
+// every row is 40 bytes in a direct buffer chunk:
+//   format (1) | grade (1) | unused (2) | year (4) | artist (8) | title (8) | detailA (8) | detailB (8)
+// artist, title and the string details are offsets into a separate string area, where each
+// string is a 2 byte length followed by its utf-8 bytes. detailA/detailB mean the same as in
+// ColumnarCollectionStore - record: size / speed, cd: track count / booklet, cassette: tape type / length
+// only the grade of a condition is kept, so condition text that isn't a grade code ("Mint",
+// "sealed??") reads back as the code - fine for measuring layouts, not for keeping a catalog
+//
+// get() hands back flyweight items - Record, CD and Cassette subclasses that hold only the
+// store and a row number and read every value straight out of the buffers. setters write
+// straight back in. a flyweight is tied to its row number, not its values, so after an
+// insert or remove above it, it shows whatever row moved into its slot - use copyOf() for an
+// item that outlives changes to the store. for the same reason, sort with sort() or
+// sortedRows() rather than running a list sort over asList()
+//
+// not thread safe - same as ColumnarCollectionStore, callers do their own locking
+//
+// like the columnar store, not used by the app: the service, window and server all work on
+// ConcurrentCollectionStore snapshots of ordinary items. this one is exercised by StoreBenchmark
+// to show what a catalog too big for the heap would cost. the buffers are direct ByteBuffers
+// rather than MemorySegments only so the store also builds on a jdk 21 toolchain - the jdk 24
+// the project targets has the final foreign memory api, and switching would change no layout
+public class OffHeapCollectionStore {
+
+    // row layout
+    private static final int ROW_BYTES = 40;
+    private static final int FORMAT = 0;
+    private static final int GRADE = 1;
+    private static final int YEAR = 4;
+    private static final int ARTIST = 8;
+    private static final int TITLE = 16;
+    private static final int DETAIL_A = 24;
+    private static final int DETAIL_B = 32;
+
+    // rows are kept in chunks so growing never copies what's already stored
+    private static final int ROW_SHIFT = 14;
+    private static final int ROWS_PER_CHUNK = 1 << ROW_SHIFT;
+    private static final int ROW_MASK = ROWS_PER_CHUNK - 1;
+
+    // strings go in 4mb chunks - a string never spans two, so a reference is chunk and offset
+    private static final int STRING_SHIFT = 22;
+    private static final int STRING_CHUNK_BYTES = 1 << STRING_SHIFT;
+    private static final int STRING_MASK = STRING_CHUNK_BYTES - 1;
+
+    // same limit as the collection log - lengths are stored in two bytes
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    // format codes, numbered in the order the format sort puts them (same as the columnar store)
+    private static final byte FORMAT_CASSETTE = 0;
+    private static final byte FORMAT_CD = 1;
+    private static final byte FORMAT_RECORD = 2;
+    private static final int FORMAT_COUNT = 3;
+    private static final String[] FORMAT_SEARCH_NAMES = {"cassette", "cd", "vinyl record"};
+
+    // recently stored strings, so repeated artists and details share one copy off-heap
+    // fixed size and direct mapped - a miss just stores the string again, the heap never grows
+    private static final int CACHE_SLOTS = 4096;
+
+    // marks a sort prefix that can't be compared as plain ascii
+    private static final long NOT_ASCII = -1L;
+
+    private final List<ByteBuffer> rowChunks = new ArrayList<>();
+    private final List<ByteBuffer> stringChunks = new ArrayList<>();
+
+    // number of rows in use
+    private int size = 0;
+
+    // where the next string goes, as a string reference
+    private long stringEnd = 0;
+
+    // bytes of strings no row points at any more (left behind by edits)
+    private long staleStringBytes = 0;
+
+    private final String[] cachedStrings = new String[CACHE_SLOTS];
+    private final long[] cachedRefs = new long[CACHE_SLOTS];
+
+    // builds a store from existing items, in the same order
+    public static OffHeapCollectionStore of(Collection<? extends CollectionItem> items) {
+        OffHeapCollectionStore store = new OffHeapCollectionStore();
+        for (CollectionItem item : items) {
+            store.add(item);
+        }
+        return store;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // appends an item and returns its row
+    public int add(CollectionItem item) {
+        ensureCapacity(size + 1);
+        write(size, item);
+        return size++;
+    }
+
+    // overwrites a row with the item's current values
+    public void set(int row, CollectionItem item) {
+        checkRow(row);
+        if (isViewOf(item, row)) {
+            return; // a flyweight for this row already wrote its changes through
+        }
+        releaseStrings(row);
+        write(row, item);
+    }
+
+    // inserts an item at a row, shifting later rows down by one
+    public void insert(int row, CollectionItem item) {
+        if (row < 0 || row > size) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+        }
+        ensureCapacity(size + 1);
+        moveRows(row, row + 1, size - row);
+        write(row, item);
+        size++;
+    }
+
+    // removes a row, shifting later rows up by one so order is kept
+    public void remove(int row) {
+        checkRow(row);
+        releaseStrings(row);
+        moveRows(row + 1, row, size - row - 1);
+        size--;
+    }
+
+    // a flyweight item for a row - see the class comment
+    public CollectionItem get(int row) {
+        checkRow(row);
+        switch (rowChunk(row).get(rowOffset(row) + FORMAT)) {
+            case FORMAT_RECORD:
+                return new RecordView(this, row);
+            case FORMAT_CD:
+                return new CDView(this, row);
+            default:
+                return new CassetteView(this, row);
+        }
+    }
+
+    // a plain heap item with the row's current values, unaffected by later changes
+    public CollectionItem copyOf(int row) {
+        checkRow(row);
+        String title = getTitle(row);
+        String artist = getArtist(row);
+        int year = getYear(row);
+        Grade grade = getGrade(row);
+        switch (rowChunk(row).get(rowOffset(row) + FORMAT)) {
+            case FORMAT_RECORD:
+                return new Record(title, artist, year, grade, getString(row, DETAIL_A), getString(row, DETAIL_B));
+            case FORMAT_CD:
+                return new CD(title, artist, year, grade, (int) getLong(row, DETAIL_A), getLong(row, DETAIL_B) != 0);
+            default:
+                return new Cassette(title, artist, year, grade, getString(row, DETAIL_A), (int) getLong(row, DETAIL_B));
+        }
+    }
+
+    // primitive accessors so callers can scan without building items
+    public int getYear(int row) {
+        checkRow(row);
+        return rowChunk(row).getInt(rowOffset(row) + YEAR);
+    }
+
+    public Grade getGrade(int row) {
+        checkRow(row);
+        return Grade.fromOrdinal(rowChunk(row).get(rowOffset(row) + GRADE));
+    }
+
+    public MediaType getMediaType(int row) {
+        checkRow(row);
+        switch (rowChunk(row).get(rowOffset(row) + FORMAT)) {
+            case FORMAT_RECORD:
+                return MediaType.RECORD;
+            case FORMAT_CD:
+                return MediaType.CD;
+            default:
+                return MediaType.CASSETTE;
+        }
+    }
+
+    public String getArtist(int row) {
+        checkRow(row);
+        return getString(row, ARTIST);
+    }
+
+    public String getTitle(int row) {
+        checkRow(row);
+        return getString(row, TITLE);
+    }
+
+    // list view over the store - get gives flyweights, set/add/remove write through
+    // set and remove hand back copies of what was there, since the row itself has changed
+    public List<CollectionItem> asList() {
+        return new AbstractList<CollectionItem>() {
+            @Override
+            public CollectionItem get(int index) {
+                return OffHeapCollectionStore.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public CollectionItem set(int index, CollectionItem item) {
+                CollectionItem previous = copyOf(index);
+                OffHeapCollectionStore.this.set(index, item);
+                return previous;
+            }
+
+            @Override
+            public void add(int index, CollectionItem item) {
+                insert(index, item);
+                modCount++;
+            }
+
+            @Override
+            public CollectionItem remove(int index) {
+                CollectionItem previous = copyOf(index);
+                OffHeapCollectionStore.this.remove(index);
+                modCount++;
+                return previous;
+            }
+        };
+    }
+
+    // puts the rows in the order the strategy would sort them
+    // rows are copied into fresh chunks in the new order, then the old chunks are dropped
+    public void sort(SortStrategy strategy) {
+        int[] order = sortedRows(strategy);
+        List<ByteBuffer> sorted = new ArrayList<>(rowChunks.size());
+        for (int i = 0; i < rowChunks.size(); i++) {
+            sorted.add(ByteBuffer.allocateDirect(ROWS_PER_CHUNK * ROW_BYTES));
+        }
+        for (int i = 0; i < order.length; i++) {
+            sorted.get(i >>> ROW_SHIFT).put(rowOffset(i), rowChunk(order[i]), rowOffset(order[i]), ROW_BYTES);
+        }
+        rowChunks.clear();
+        rowChunks.addAll(sorted);
+    }
+
+    // returns the rows in the order the strategy would sort them, without touching the store
+    // the built-in strategies read the row bytes directly - counting sorts for year, grade
+    // and format, and a merge sort comparing the stored utf-8 for artist and title
+    // any other strategy falls back to comparing flyweights
+    public int[] sortedRows(SortStrategy strategy) {
+        if (strategy instanceof SortByYear) {
+            return sortRowsByYear();
+        }
+        if (strategy instanceof SortByCondition) {
+            return countingSortRows(GRADE, Grade.values().length);
+        }
+        if (strategy instanceof SortByMediaType) {
+            return countingSortRows(FORMAT, FORMAT_COUNT);
+        }
+        if (strategy instanceof SortByArtist) {
+            return sortRowsByString(ARTIST);
+        }
+        if (strategy instanceof SortByTitle) {
+            return sortRowsByString(TITLE);
+        }
+        return RowSort.mergeSort(size, (a, b) -> strategy.getComparator().compare(get(a), get(b)));
+    }
+
+    // rows whose title, artist, media type or year contain the search text anywhere, ignoring case
+    // the same plain substring match as ColumnarCollectionStore.filterRows, not the gui's indexed
+    // search - ascii text is matched on the stored bytes without decoding
+    public int[] filterRows(String searchText) {
+        String text = searchText.toLowerCase();
+        byte[] needle = text.getBytes(StandardCharsets.UTF_8);
+        boolean asciiNeedle = needle.length == text.length();
+        byte[] digits = new byte[11];
+        boolean[] formatMatches = new boolean[FORMAT_COUNT];
+        for (int format = 0; format < FORMAT_COUNT; format++) {
+            formatMatches[format] = FORMAT_SEARCH_NAMES[format].contains(text);
+        }
+
+        int[] matches = new int[size];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            ByteBuffer chunk = rowChunk(row);
+            int offset = rowOffset(row);
+            if (formatMatches[chunk.get(offset + FORMAT)] ||
+                stringContains(chunk.getLong(offset + TITLE), text, needle, asciiNeedle) ||
+                stringContains(chunk.getLong(offset + ARTIST), text, needle, asciiNeedle) ||
+                yearContains(chunk.getInt(offset + YEAR), needle, digits)) {
+                matches[count++] = row;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    // rows with a year in [fromYear, toYear] - a straight scan over the year field
+    public int[] rowsInYearRange(int fromYear, int toYear) {
+        int[] matches = new int[size];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            int year = rowChunk(row).getInt(rowOffset(row) + YEAR);
+            if (year >= fromYear && year <= toYear) {
+                matches[count++] = row;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    // rough heap used by the store - chunk bookkeeping and the string cache, not the rows
+    public long estimatedHeapBytes() {
+        // a direct buffer object plus its cleaner is about 100 bytes, the lists ~8 per entry
+        long chunks = (rowChunks.size() + stringChunks.size()) * 108L;
+        return chunks + CACHE_SLOTS * (4L + 8L) + 64;
+    }
+
+    // native memory reserved for rows and strings
+    public long offHeapBytes() {
+        return (long) rowChunks.size() * ROWS_PER_CHUNK * ROW_BYTES + (long) stringChunks.size() * STRING_CHUNK_BYTES;
+    }
+
+    // bytes in the string area that edits and removes have left unused
+    public long getStaleStringBytes() {
+        return staleStringBytes;
+    }
+
+    // writes an item's values into a row
+    private void write(int row, CollectionItem item) {
+        long artist = storeString(item.getArtist(), true);
+        long title = storeString(item.getTitle(), false);
+        byte format;
+        long detailA;
+        long detailB;
+
+        if (item instanceof Record) {
+            Record record = (Record) item;
+            format = FORMAT_RECORD;
+            detailA = storeString(record.getSize(), true);
+            detailB = storeString(record.getSpeed(), true);
+        } else if (item instanceof CD) {
+            CD cd = (CD) item;
+            format = FORMAT_CD;
+            detailA = cd.getTrackCount();
+            detailB = cd.hasBooklet() ? 1 : 0;
+        } else if (item instanceof Cassette) {
+            Cassette cassette = (Cassette) item;
+            format = FORMAT_CASSETTE;
+            detailA = storeString(cassette.getTapeType(), true);
+            detailB = cassette.getLength();
+        } else {
+            throw new IllegalArgumentException("unsupported item type: " + item.getClass().getName());
+        }
+
+        ByteBuffer chunk = rowChunk(row);
+        int offset = rowOffset(row);
+        chunk.put(offset + FORMAT, format);
+        chunk.put(offset + GRADE, (byte) item.getGradeOrdinal());
+        chunk.putInt(offset + YEAR, item.getYear());
+        chunk.putLong(offset + ARTIST, artist);
+        chunk.putLong(offset + TITLE, title);
+        chunk.putLong(offset + DETAIL_A, detailA);
+        chunk.putLong(offset + DETAIL_B, detailB);
+    }
+
+    // appends a string to the string area and returns its reference
+    // shared strings (artists, formats) go through the cache so repeats are stored once
+    private long storeString(String value, boolean shared) {
+        String text = value == null ? "" : value;
+        int slot = 0;
+        if (shared) {
+            int hash = text.hashCode();
+            slot = (hash ^ (hash >>> 16)) & (CACHE_SLOTS - 1);
+            if (text.equals(cachedStrings[slot])) {
+                return cachedRefs[slot];
+            }
+        }
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("string too long to store (" + bytes.length + " bytes)");
+        }
+        int needed = 2 + bytes.length;
+        if ((stringEnd & STRING_MASK) + needed > STRING_CHUNK_BYTES) {
+            stringEnd = (stringEnd | STRING_MASK) + 1; // rest of this chunk can't fit it - start the next
+        }
+        int chunkIndex = (int) (stringEnd >>> STRING_SHIFT);
+        if (chunkIndex == stringChunks.size()) {
+            stringChunks.add(ByteBuffer.allocateDirect(STRING_CHUNK_BYTES));
+        }
+        ByteBuffer chunk = stringChunks.get(chunkIndex);
+        int offset = (int) (stringEnd & STRING_MASK);
+        chunk.putShort(offset, (short) bytes.length);
+        chunk.put(offset + 2, bytes);
+
+        long ref = stringEnd;
+        stringEnd += needed;
+        if (shared) {
+            cachedStrings[slot] = text;
+            cachedRefs[slot] = ref;
+        }
+        return ref;
+    }
+
+    // decodes the string a row field points at
+    private String getString(int row, int field) {
+        return decode(rowChunk(row).getLong(rowOffset(row) + field));
+    }
+
+    private String decode(long ref) {
+        ByteBuffer chunk = stringChunks.get((int) (ref >>> STRING_SHIFT));
+        int offset = (int) (ref & STRING_MASK);
+        byte[] bytes = new byte[chunk.getShort(offset) & 0xFFFF];
+        chunk.get(offset + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int stringLength(long ref) {
+        return stringChunks.get((int) (ref >>> STRING_SHIFT)).getShort((int) (ref & STRING_MASK)) & 0xFFFF;
+    }
+
+    // counts the title of a row being overwritten or removed as stale
+    // shared strings may still be used by other rows, so they're left alone
+    private void releaseStrings(int row) {
+        staleStringBytes += 2 + stringLength(rowChunk(row).getLong(rowOffset(row) + TITLE));
+    }
+
+    private long getLong(int row, int field) {
+        return rowChunk(row).getLong(rowOffset(row) + field);
+    }
+
+    // points a string field of a row at a new value - used by the flyweights
+    private void putString(int row, int field, String value, boolean shared) {
+        checkRow(row);
+        if (!shared) {
+            staleStringBytes += 2 + stringLength(getLong(row, field));
+        }
+        rowChunk(row).putLong(rowOffset(row) + field, storeString(value, shared));
+    }
+
+    private void putLong(int row, int field, long value) {
+        checkRow(row);
+        rowChunk(row).putLong(rowOffset(row) + field, value);
+    }
+
+    private ByteBuffer rowChunk(int row) {
+        return rowChunks.get(row >>> ROW_SHIFT);
+    }
+
+    private static int rowOffset(int row) {
+        return (row & ROW_MASK) * ROW_BYTES;
+    }
+
+    // adds row chunks until there's room - existing chunks never move
+    private void ensureCapacity(int needed) {
+        while ((long) rowChunks.size() * ROWS_PER_CHUNK < needed) {
+            rowChunks.add(ByteBuffer.allocateDirect(ROWS_PER_CHUNK * ROW_BYTES));
+        }
+    }
+
+    // copies count rows from one row number to another, chunk piece by chunk piece
+    // works front to back or back to front depending on direction, so overlapping ranges are safe
+    private void moveRows(int from, int to, int count) {
+        int done = 0;
+        while (done < count) {
+            int source;
+            int target;
+            int rows;
+            if (to < from) {
+                source = from + done;
+                target = to + done;
+                rows = Math.min(count - done,
+                    Math.min(ROWS_PER_CHUNK - (source & ROW_MASK), ROWS_PER_CHUNK - (target & ROW_MASK)));
+            } else {
+                int sourceEnd = from + count - done;
+                int targetEnd = to + count - done;
+                rows = Math.min(count - done,
+                    Math.min(((sourceEnd - 1) & ROW_MASK) + 1, ((targetEnd - 1) & ROW_MASK) + 1));
+                source = sourceEnd - rows;
+                target = targetEnd - rows;
+            }
+            // the buffer copy behaves like memmove, so overlap within one chunk is fine too
+            rowChunk(target).put(rowOffset(target), rowChunk(source), rowOffset(source), rows * ROW_BYTES);
+            done += rows;
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+        }
+    }
+
+    private boolean isViewOf(CollectionItem item, int row) {
+        return item instanceof RowView && ((RowView) item).store() == this && ((RowView) item).row() == row;
+    }
+
+    // counting sort of the rows by a one byte field
+    private int[] countingSortRows(int field, int bucketCount) {
+        int[] keys = new int[size];
+        for (int row = 0; row < size; row++) {
+            keys[row] = rowChunk(row).get(rowOffset(row) + field);
+        }
+        return RowSort.countingSort(keys, bucketCount);
+    }
+
+    // years are usually a narrow band, so this is normally a single counting pass
+    private int[] sortRowsByYear() {
+        int[] years = new int[size];
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int row = 0; row < size; row++) {
+            years[row] = rowChunk(row).getInt(rowOffset(row) + YEAR);
+            min = Math.min(min, years[row]);
+            max = Math.max(max, years[row]);
+        }
+        if (size == 0) {
+            return years;
+        }
+
+        long range = (long) max - min;
+        if (range < 1 << 16) {
+            for (int row = 0; row < size; row++) {
+                years[row] -= min;
+            }
+            return RowSort.countingSort(years, (int) range + 1);
+        }
+
+        // very spread out years (bad data) - fall back to a comparison sort of the rows
+        return RowSort.mergeSort(size, (a, b) -> Integer.compare(years[a], years[b]));
+    }
+
+    // case-insensitive string order, same as compareToIgnoreCase
+    // the first sixteen bytes of each string are folded into two longs once, so most
+    // comparisons are a long compare or two - only ties and non-ascii prefixes go back to the
+    // stored bytes, and rows sharing one stored string (repeated artists) are equal outright
+    private int[] sortRowsByString(int field) {
+        long[] refs = new long[size];
+        long[] highPrefixes = new long[size];
+        long[] lowPrefixes = new long[size];
+        for (int row = 0; row < size; row++) {
+            refs[row] = rowChunk(row).getLong(rowOffset(row) + field);
+            highPrefixes[row] = asciiPrefix(refs[row], 0);
+            lowPrefixes[row] = highPrefixes[row] == NOT_ASCII ? NOT_ASCII : asciiPrefix(refs[row], 8);
+        }
+        return RowSort.mergeSort(size, (a, b) -> {
+            if (refs[a] == refs[b]) {
+                return 0;
+            }
+            long highA = highPrefixes[a];
+            long highB = highPrefixes[b];
+            if (highA != NOT_ASCII && highB != NOT_ASCII) {
+                if (highA != highB) {
+                    return Long.compare(highA, highB);
+                }
+                long lowA = lowPrefixes[a];
+                long lowB = lowPrefixes[b];
+                if (lowA != lowB && lowA != NOT_ASCII && lowB != NOT_ASCII) {
+                    return Long.compare(lowA, lowB);
+                }
+            }
+            return compareIgnoreCase(refs[a], refs[b]);
+        });
+    }
+
+    // eight bytes from a position in a string, lowercased and packed big end first, zero padded
+    // ascii bytes never set the top bit, so packed prefixes compare correctly as signed longs
+    private long asciiPrefix(long ref, int from) {
+        ByteBuffer chunk = stringChunks.get((int) (ref >>> STRING_SHIFT));
+        int offset = (int) (ref & STRING_MASK);
+        int length = chunk.getShort(offset) & 0xFFFF;
+        long prefix = 0;
+        for (int i = from; i < from + 8; i++) {
+            int b = i < length ? chunk.get(offset + 2 + i) : 0;
+            if (b < 0) {
+                return NOT_ASCII;
+            }
+            prefix = (prefix << 8) | lowerAscii(b);
+        }
+        return prefix;
+    }
+
+    // compares two stored strings ignoring case, byte by byte while they're ascii
+    // at the first non-ascii byte the rest of both strings is decoded and compared as strings
+    private int compareIgnoreCase(long refA, long refB) {
+        ByteBuffer chunkA = stringChunks.get((int) (refA >>> STRING_SHIFT));
+        ByteBuffer chunkB = stringChunks.get((int) (refB >>> STRING_SHIFT));
+        int offsetA = (int) (refA & STRING_MASK);
+        int offsetB = (int) (refB & STRING_MASK);
+        int lengthA = chunkA.getShort(offsetA) & 0xFFFF;
+        int lengthB = chunkB.getShort(offsetB) & 0xFFFF;
+
+        int common = Math.min(lengthA, lengthB);
+        for (int i = 0; i < common; i++) {
+            int a = chunkA.get(offsetA + 2 + i);
+            int b = chunkB.get(offsetB + 2 + i);
+            if (a < 0 || b < 0) {
+                // everything before here matched, so comparing the rests gives the same answer
+                return tail(chunkA, offsetA, lengthA, i).compareToIgnoreCase(tail(chunkB, offsetB, lengthB, i));
+            }
+            if (a != b) {
+                int difference = lowerAscii(a) - lowerAscii(b);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private static String tail(ByteBuffer chunk, int offset, int length, int from) {
+        byte[] bytes = new byte[length - from];
+        chunk.get(offset + 2 + from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int lowerAscii(int b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    // does a stored string contain the (lowercase) search text
+    // ascii strings are searched in place, anything else is decoded first
+    private boolean stringContains(long ref, String text, byte[] needle, boolean asciiNeedle) {
+        ByteBuffer chunk = stringChunks.get((int) (ref >>> STRING_SHIFT));
+        int offset = (int) (ref & STRING_MASK) + 2;
+        int length = chunk.getShort(offset - 2) & 0xFFFF;
+        for (int i = 0; i < length; i++) {
+            if (chunk.get(offset + i) < 0) {
+                return decode(ref).toLowerCase().contains(text);
+            }
+        }
+        if (!asciiNeedle) {
+            return false; // lowercased ascii is still ascii, so it can't contain other characters
+        }
+
+        outer:
+        for (int start = 0; start + needle.length <= length; start++) {
+            for (int i = 0; i < needle.length; i++) {
+                if (lowerAscii(chunk.get(offset + start + i)) != needle[i]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // does a year's decimal form contain the search text - digits are written into a
+    // scratch array rather than a String per row
+    private static boolean yearContains(int year, byte[] needle, byte[] digits) {
+        int start = digits.length;
+        long rest = Math.abs((long) year);
+        do {
+            digits[--start] = (byte) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest > 0);
+        if (year < 0) {
+            digits[--start] = '-';
+        }
+
+        outer:
+        for (int from = start; from + needle.length <= digits.length; from++) {
+            for (int i = 0; i < needle.length; i++) {
+                if (digits[from + i] != needle[i]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // what the flyweights have in common
+    private interface RowView {
+        OffHeapCollectionStore store();
+
+        int row();
+    }
+
+    // a vinyl record read straight from a row
+    private static final class RecordView extends Record implements RowView {
+        private final OffHeapCollectionStore store;
+        private final int row;
+
+        RecordView(OffHeapCollectionStore store, int row) {
+            super(null, null, 0, Grade.UNGRADED, null, null);
+            this.store = store;
+            this.row = row;
+        }
+
+        @Override
+        public OffHeapCollectionStore store() {
+            return store;
+        }
+
+        @Override
+        public int row() {
+            return row;
+        }
+
+        @Override
+        public String getTitle() {
+            return store.getTitle(row);
+        }
+
+        @Override
+        public String getArtist() {
+            return store.getArtist(row);
+        }
+
+        @Override
+        public int getYear() {
+            return store.getYear(row);
+        }
+
+        @Override
+        public int getGradeOrdinal() {
+            return store.getGrade(row).ordinal();
+        }
+
+        @Override
+        public String getSize() {
+            store.checkRow(row);
+            return store.getString(row, DETAIL_A);
+        }
+
+        @Override
+        public String getSpeed() {
+            store.checkRow(row);
+            return store.getString(row, DETAIL_B);
+        }
+
+        @Override
+        public void setTitle(String title) {
+            store.putString(row, TITLE, title, false);
+        }
+
+        @Override
+        public void setArtist(String artist) {
+            store.putString(row, ARTIST, artist, true);
+        }
+
+        @Override
+        public void setYear(int year) {
+            store.checkRow(row);
+            store.rowChunk(row).putInt(rowOffset(row) + YEAR, year);
+        }
+
+        @Override
+        public void setGrade(Grade grade) {
+            store.checkRow(row);
+            store.rowChunk(row).put(rowOffset(row) + GRADE, (byte) grade.ordinal());
+        }
+
+        @Override
+        public void setSize(String size) {
+            store.putString(row, DETAIL_A, size, true);
+        }
+
+        @Override
+        public void setSpeed(String speed) {
+            store.putString(row, DETAIL_B, speed, true);
+        }
+    }
+
+    // a cd read straight from a row
+    private static final class CDView extends CD implements RowView {
+        private final OffHeapCollectionStore store;
+        private final int row;
+
+        CDView(OffHeapCollectionStore store, int row) {
+            super(null, null, 0, Grade.UNGRADED, 0, false);
+            this.store = store;
+            this.row = row;
+        }
+
+        @Override
+        public OffHeapCollectionStore store() {
+            return store;
+        }
+
+        @Override
+        public int row() {
+            return row;
+        }
+
+        @Override
+        public String getTitle() {
+            return store.getTitle(row);
+        }
+
+        @Override
+        public String getArtist() {
+            return store.getArtist(row);
+        }
+
+        @Override
+        public int getYear() {
+            return store.getYear(row);
+        }
+
+        @Override
+        public int getGradeOrdinal() {
+            return store.getGrade(row).ordinal();
+        }
+
+        @Override
+        public int getTrackCount() {
+            store.checkRow(row);
+            return (int) store.getLong(row, DETAIL_A);
+        }
+
+        @Override
+        public boolean hasBooklet() {
+            store.checkRow(row);
+            return store.getLong(row, DETAIL_B) != 0;
+        }
+
+        @Override
+        public void setTitle(String title) {
+            store.putString(row, TITLE, title, false);
+        }
+
+        @Override
+        public void setArtist(String artist) {
+            store.putString(row, ARTIST, artist, true);
+        }
+
+        @Override
+        public void setYear(int year) {
+            store.checkRow(row);
+            store.rowChunk(row).putInt(rowOffset(row) + YEAR, year);
+        }
+
+        @Override
+        public void setGrade(Grade grade) {
+            store.checkRow(row);
+            store.rowChunk(row).put(rowOffset(row) + GRADE, (byte) grade.ordinal());
+        }
+
+        @Override
+        public void setTrackCount(int trackCount) {
+            store.putLong(row, DETAIL_A, trackCount);
+        }
+
+        @Override
+        public void setHasBooklet(boolean hasBooklet) {
+            store.putLong(row, DETAIL_B, hasBooklet ? 1 : 0);
+        }
+    }
+
+    // a cassette read straight from a row
+    private static final class CassetteView extends Cassette implements RowView {
+        private final OffHeapCollectionStore store;
+        private final int row;
+
+        CassetteView(OffHeapCollectionStore store, int row) {
+            super(null, null, 0, Grade.UNGRADED, null, 0);
+            this.store = store;
+            this.row = row;
+        }
+
+        @Override
+        public OffHeapCollectionStore store() {
+            return store;
+        }
+
+        @Override
+        public int row() {
+            return row;
+        }
+
+        @Override
+        public String getTitle() {
+            return store.getTitle(row);
+        }
+
+        @Override
+        public String getArtist() {
+            return store.getArtist(row);
+        }
+
+        @Override
+        public int getYear() {
+            return store.getYear(row);
+        }
+
+        @Override
+        public int getGradeOrdinal() {
+            return store.getGrade(row).ordinal();
+        }
+
+        @Override
+        public String getTapeType() {
+            store.checkRow(row);
+            return store.getString(row, DETAIL_A);
+        }
+
+        @Override
+        public int getLength() {
+            store.checkRow(row);
+            return (int) store.getLong(row, DETAIL_B);
+        }
+
+        @Override
+        public void setTitle(String title) {
+            store.putString(row, TITLE, title, false);
+        }
+
+        @Override
+        public void setArtist(String artist) {
+            store.putString(row, ARTIST, artist, true);
+        }
+
+        @Override
+        public void setYear(int year) {
+            store.checkRow(row);
+            store.rowChunk(row).putInt(rowOffset(row) + YEAR, year);
+        }
+
+        @Override
+        public void setGrade(Grade grade) {
+            store.checkRow(row);
+            store.rowChunk(row).put(rowOffset(row) + GRADE, (byte) grade.ordinal());
+        }
+
+        @Override
+        public void setTapeType(String tapeType) {
+            store.putString(row, DETAIL_A, tapeType, true);
+        }
+
+        @Override
+        public void setLength(int length) {
+            store.putLong(row, DETAIL_B, length);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * RowSort.java
+ * purpose: sorts row numbers for the stores, without boxing them or building items
+ * author: phin
+ */
+
+package store;
+
+// shared by the stores - they hand over per-row keys or a row comparator and get
+// row numbers back in sorted order. both sorts are stable, so rows that compare equal
+// keep their store order, the same as the list sorts
+final class RowSort {
+
+    // compares two rows of a store
+    interface RowComparator {
+        int compare(int row1, int row2);
+    }
+
+    // below this many rows a merge sort run is finished off with an insertion sort
+    private static final int INSERTION_SORT_ROWS = 32;
+
+    private RowSort() {
+    }
+
+    // stable counting sort of row numbers by per-row keys in [0, bucketCount)
+    static int[] countingSort(int[] keys, int bucketCount) {
+        int[] starts = new int[bucketCount + 1];
+        for (int key : keys) {
+            starts[key + 1]++;
+        }
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            starts[bucket + 1] += starts[bucket];
+        }
+        int[] rows = new int[keys.length];
+        for (int row = 0; row < keys.length; row++) {
+            rows[starts[keys[row]]++] = row;
+        }
+        return rows;
+    }
+
+    // stable merge sort of rows 0..rowCount-1 - two int arrays, no Integer per row
+    static int[] mergeSort(int rowCount, RowComparator comparator) {
+        int[] rows = new int[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            rows[row] = row;
+        }
+        int[] scratch = rows.clone();
+        mergeSort(scratch, rows, 0, rowCount, comparator);
+        return rows;
+    }
+
+    // sorts from[start, end) into to[start, end) - both hold the same rows going in
+    private static void mergeSort(int[] from, int[] to, int start, int end, RowComparator comparator) {
+        if (end - start <= INSERTION_SORT_ROWS) {
+            for (int i = start + 1; i < end; i++) {
+                int row = to[i];
+                int j = i - 1;
+                while (j >= start && comparator.compare(to[j], row) > 0) {
+                    to[j + 1] = to[j];
+                    j--;
+                }
+                to[j + 1] = row;
+            }
+            return;
+        }
+        int middle = (start + end) >>> 1;
+        // sort each half into the other array, then merge back - saves a copy per level
+        mergeSort(to, from, start, middle, comparator);
+        mergeSort(to, from, middle, end, comparator);
+
+        int left = start;
+        int right = middle;
+        for (int i = start; i < end; i++) {
+            if (right >= end || (left < middle && comparator.compare(from[left], from[right]) <= 0)) {
+                to[i] = from[left++];
+            } else {
+                to[i] = from[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * StringDictionary.java
+ * purpose: dictionary encoding for repeated strings in the columnar store
+ *          each distinct string is kept once and referred to by a small int id
+ * author: phin
+ */
+
+package store;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// maps strings to dense int ids and back
+// ids are handed out in first-seen order and never change, so columns can hold them safely
+// strings are packed back to back as utf-8 in one byte array and found through an
+// open-addressing table of ids, so each distinct string costs its bytes plus ~16 bytes
+// instead of a String object, its backing array and a hash map node
+public class StringDictionary {
+
+    // packed utf-8 bytes of every string
+    private byte[] pool = new byte[256];
+    private int poolSize = 0;
+
+    // string id -> start of its bytes in the pool (offsets[id + 1] is the end)
+    private int[] offsets = new int[17];
+
+    // string id -> String.hashCode(), kept so the table can grow without decoding
+    private int[] hashes = new int[16];
+
+    // open addressing table of (id + 1), 0 means empty - kept at most half full
+    private int[] table = new int[32];
+
+    // how many distinct strings we've seen
+    private int size = 0;
+
+    // returns the id for a string, adding it if it's new
+    public int idOf(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int hash = value.hashCode();
+
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if (hashes[id] == hash && bytesEqual(id, bytes)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // new string - append its bytes and claim the empty slot
+        int id = size++;
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, pool, poolSize, bytes.length);
+        poolSize += bytes.length;
+        offsets[id + 1] = poolSize;
+        hashes[id] = hash;
+        table[slot] = id + 1;
+
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return id;
+    }
+
+    // returns the string behind an id (decoded fresh each call)
+    public String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("string id " + id + ", size " + size);
+        }
+        return new String(pool, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+    }
+
+    // number of distinct strings
+    public int size() {
+        return size;
+    }
+
+    // ranks every id by case-insensitive order - equal-ignoring-case strings share a rank
+    // sorting d distinct strings once is far cheaper than comparing strings n log n times
+    public int[] caseInsensitiveRanks() {
+        String[] values = new String[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = get(i);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(values[a], values[b]));
+
+        int[] ranks = new int[size];
+        int rank = 0;
+        for (int i = 0; i < size; i++) {
+            if (i > 0 && String.CASE_INSENSITIVE_ORDER.compare(values[order[i - 1]], values[order[i]]) != 0) {
+                rank++;
+            }
+            ranks[order[i]] = rank;
+        }
+        return ranks;
+    }
+
+    // marks every id whose string contains the (lowercase) search text
+    public boolean[] matching(String lowerCaseText) {
+        boolean[] matches = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            matches[i] = get(i).toLowerCase().contains(lowerCaseText);
+        }
+        return matches;
+    }
+
+    // heap used by the dictionary - all primitive arrays, so this is close to exact
+    public long estimatedHeapBytes() {
+        return 4 * 16L + pool.length + 4L * offsets.length + 4L * hashes.length + 4L * table.length;
+    }
+
+    // compares a stored string's bytes against candidate bytes
+    private boolean bytesEqual(int id, byte[] bytes) {
+        int start = offsets[id];
+        int length = offsets[id + 1] - start;
+        return length == bytes.length &&
+            Arrays.equals(pool, start, start + length, bytes, 0, bytes.length);
+    }
+
+    // room for one more string of the given byte length
+    private void ensureCapacity(int byteLength) {
+        if (poolSize + byteLength > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(poolSize + byteLength, pool.length * 2));
+        }
+        if (size + 1 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        if (size > hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+    }
+
+    // rebuilds the table at a new (power of two) size
+    private void rehash(int newLength) {
+        int[] newTable = new int[newLength];
+        int mask = newLength - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = spread(hashes[id]) & mask;
+            while (newTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = id + 1;
+        }
+        table = newTable;
+    }
+
+    // mixes the high bits in so similar strings don't cluster in the table
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
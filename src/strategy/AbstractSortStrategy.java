@@ -0,0 +1,97 @@
+/*
+ * AbstractSortStrategy.java
+ * purpose: shared sorting engine for the strategy implementations
+ *          picks between a sequential and a parallel sort based on collection size
+ * author: phin
+ */
+
+package strategy;
+
+import model.CollectionItem;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.function.ToIntFunction;
+
+// base class the concrete strategies extend
+// subclasses only decide *what* to compare, this class decides *how* the sort runs
+public abstract class AbstractSortStrategy implements SortStrategy {
+
+    // collections at least this big get sorted in parallel by default
+    // below this the fork/join overhead costs more than it saves
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 100_000;
+
+    // use as the threshold to keep a strategy strictly single threaded
+    public static final int NEVER_PARALLEL = Integer.MAX_VALUE;
+
+    // size at which this strategy switches to the parallel path
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    // returns the size at which this strategy sorts in parallel
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    // sets the size at which this strategy sorts in parallel (NEVER_PARALLEL turns it off)
+    // no effect on a strategy without a parallel path - see hasParallelPath
+    public void setParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold < 2) {
+            throw new IllegalArgumentException("parallel threshold must be at least 2: " + parallelThreshold);
+        }
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    // false for strategies that always sort on one thread, whatever the threshold says - the
+    // counting sorts (year, condition, format) are a couple of linear passes that spend their
+    // time waiting on memory, so splitting them across cores buys next to nothing
+    public boolean hasParallelPath() {
+        return true;
+    }
+
+    // true when a collection of this size should take the parallel path
+    protected boolean isParallel(int size) {
+        return size >= parallelThreshold;
+    }
+
+    // sorts with the given comparator, in parallel once the list is big enough
+    // both paths are stable merge sorts so equal items keep their order either way
+    protected void sortWith(List<CollectionItem> items, Comparator<? super CollectionItem> comparator) {
+        int size = items.size();
+        if (size < 2) {
+            return;
+        }
+
+        if (!isParallel(size)) {
+            Collections.sort(items, comparator);
+            return;
+        }
+
+        // pull the items out into an array, sort that across the fork/join pool, write back
+        CollectionItem[] array = items.toArray(new CollectionItem[0]);
+        Arrays.parallelSort(array, comparator);
+        writeBack(items, array);
+    }
+
+    // top for strategies whose order is just an int key, smallest first
+    // compares the keys as ints instead of going through the comparator (see TopK.selectByKey)
+    protected List<CollectionItem> topByKey(List<CollectionItem> items, int k, ToIntFunction<CollectionItem> keyOf) {
+        if (k >= items.size()) {
+            List<CollectionItem> all = new ArrayList<>(items);
+            sort(all);
+            return all;
+        }
+        return TopK.selectByKey(items, k, keyOf);
+    }
+
+    // copies a sorted array back into the list without resizing it
+    static void writeBack(List<CollectionItem> items, CollectionItem[] sorted) {
+        ListIterator<CollectionItem> it = items.listIterator();
+        for (CollectionItem item : sorted) {
+            it.next();
+            it.set(item);
+        }
+    }
+}
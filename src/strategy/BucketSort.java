@@ -0,0 +1,59 @@
+/*
+ * BucketSort.java
+ * purpose: stable counting sort for strategies that only have a handful of distinct keys
+ *          runs in linear time instead of n log n comparisons
+ * author: phin
+ */
+
+package strategy;
+
+import model.CollectionItem;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+// counting sort over small integer keys (0 until bucketCount)
+// one pass to work out each item's bucket, one to count, one to place - no comparisons at all
+final class BucketSort {
+
+    private BucketSort() {
+        // static helper only
+    }
+
+    // sorts by the bucket each item falls into, looking every item's bucket up exactly once
+    static void sort(List<CollectionItem> items, int bucketCount, ToIntFunction<CollectionItem> bucketOf) {
+        int size = items.size();
+        if (size < 2) {
+            return;
+        }
+
+        CollectionItem[] array = items.toArray(new CollectionItem[0]);
+        int[] keys = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = bucketOf.applyAsInt(array[i]);
+        }
+        sortByKeys(items, array, keys, bucketCount);
+    }
+
+    // sorts items (already copied into array) by the matching precomputed keys
+    // walking the input front to back when placing keeps equal keys in their original order
+    static void sortByKeys(List<CollectionItem> items, CollectionItem[] array, int[] keys, int bucketCount) {
+        // count how many items land in each bucket
+        int[] starts = new int[bucketCount + 1];
+        for (int key : keys) {
+            starts[key + 1]++;
+        }
+
+        // turn the counts into the first slot of each bucket
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            starts[bucket + 1] += starts[bucket];
+        }
+
+        // drop every item into the next free slot of its bucket
+        CollectionItem[] sorted = new CollectionItem[array.length];
+        for (int i = 0; i < array.length; i++) {
+            sorted[starts[keys[i]]++] = array[i];
+        }
+
+        AbstractSortStrategy.writeBack(items, sorted);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * CollationKeySort.java
+ * purpose: decorate-sort-undecorate helper for the text based strategies
+ *          folds each string's case once instead of on every comparison
+ * author: phin
+ */
+
+package strategy;
+
+import model.CollectionItem;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+// sorts items on a precomputed, case-folded key
+// compareToIgnoreCase re-folds both strings on every one of the n log n comparisons,
+// here each item is folded exactly once and the sort compares plain strings
+final class CollationKeySort {
+
+    // item paired with its cached sort key
+    private static final class Keyed {
+        final String key;
+        final CollectionItem item;
+
+        Keyed(String key, CollectionItem item) {
+            this.key = key;
+            this.item = item;
+        }
+    }
+
+    // plain string comparison on the cached keys
+    private static final Comparator<Keyed> BY_KEY = new Comparator<Keyed>() {
+        @Override
+        public int compare(Keyed k1, Keyed k2) {
+            return k1.key.compareTo(k2.key);
+        }
+    };
+
+    private CollationKeySort() {
+        // static helper only
+    }
+
+    // folds a string the same way compareToIgnoreCase does (upper then lower, per code point)
+    // so sorting on the keys gives exactly the same order as the comparator
+    static String keyOf(String value) {
+        if (value == null) {
+            return "";
+        }
+
+        // fast path - most keys are already folded after the first character, don't copy them
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            int codePoint = value.codePointAt(i);
+            if (fold(codePoint) != codePoint) {
+                break;
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (i == length) {
+            return value;
+        }
+
+        StringBuilder folded = new StringBuilder(length);
+        folded.append(value, 0, i);
+        while (i < length) {
+            int codePoint = value.codePointAt(i);
+            folded.appendCodePoint(fold(codePoint));
+            i += Character.charCount(codePoint);
+        }
+        return folded.toString();
+    }
+
+    // same case folding rule as String.CASE_INSENSITIVE_ORDER
+    private static int fold(int codePoint) {
+        return Character.toLowerCase(Character.toUpperCase(codePoint));
+    }
+
+    // decorate every item with its key, sort on the keys, then write the items back in order
+    // both array sorts on objects are stable merge sorts so equal keys keep their relative order
+    // in parallel mode the key folding and the sort are both spread across the fork/join pool
+    static void sort(List<CollectionItem> items, Function<CollectionItem, String> field, boolean parallel) {
+        int size = items.size();
+        if (size < 2) {
+            return;
+        }
+
+        CollectionItem[] array = items.toArray(new CollectionItem[0]);
+        Keyed[] keyed = new Keyed[size];
+        if (parallel) {
+            IntStream.range(0, size).parallel()
+                .forEach(i -> keyed[i] = new Keyed(keyOf(field.apply(array[i])), array[i]));
+            Arrays.parallelSort(keyed, BY_KEY);
+        } else {
+            for (int i = 0; i < size; i++) {
+                keyed[i] = new Keyed(keyOf(field.apply(array[i])), array[i]);
+            }
+            Arrays.sort(keyed, BY_KEY);
+        }
+
+        for (int i = 0; i < size; i++) {
+            array[i] = keyed[i].item;
+        }
+        AbstractSortStrategy.writeBack(items, array);
+    }
+}
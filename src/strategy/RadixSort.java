@@ -0,0 +1,92 @@
+/*
+ * RadixSort.java
+ * purpose: stable lsd radix sort for strategies that order by an int field
+ *          linear time for bounded values like release years
+ * author: phin
+ */
+
+package strategy;
+
+import model.CollectionItem;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+// least significant digit radix sort on an int key
+// keys are shifted down by the smallest one first, so the usual 1900-2030 year range
+// fits in a single digit and the whole sort is one counting pass
+// anything wider (typos like year 19690, negative years) just takes more passes
+final class RadixSort {
+
+    // bits per digit - 2048 buckets keeps the count array inside l1 cache
+    private static final int DIGIT_BITS = 11;
+    private static final int DIGIT_MASK = (1 << DIGIT_BITS) - 1;
+
+    private RadixSort() {
+        // static helper only
+    }
+
+    // sorts items ascending by the given int key, equal keys keep their order
+    static void sort(List<CollectionItem> items, ToIntFunction<CollectionItem> keyOf) {
+        int size = items.size();
+        if (size < 2) {
+            return;
+        }
+
+        // read every key once and find the range they span
+        CollectionItem[] array = items.toArray(new CollectionItem[0]);
+        int[] keys = new int[size];
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            int key = keyOf.applyAsInt(array[i]);
+            keys[i] = key;
+            min = Math.min(min, key);
+            max = Math.max(max, key);
+        }
+        if (min == max) {
+            return; // all the same, nothing to do
+        }
+
+        // offset from the minimum, as an unsigned value so even the full int range works
+        for (int i = 0; i < size; i++) {
+            keys[i] -= min;
+        }
+        long range = (long) max - min;
+
+        // common case - one digit covers everything, that's just a counting sort
+        if (range <= DIGIT_MASK) {
+            BucketSort.sortByKeys(items, array, keys, (int) range + 1);
+            return;
+        }
+
+        // otherwise one stable counting pass per digit, lowest digit first
+        CollectionItem[] itemsOut = new CollectionItem[size];
+        int[] keysOut = new int[size];
+        int[] starts = new int[DIGIT_MASK + 2];
+        for (int shift = 0; shift < 32 && (range >>> shift) != 0; shift += DIGIT_BITS) {
+            Arrays.fill(starts, 0);
+            for (int key : keys) {
+                starts[((key >>> shift) & DIGIT_MASK) + 1]++;
+            }
+            for (int digit = 0; digit <= DIGIT_MASK; digit++) {
+                starts[digit + 1] += starts[digit];
+            }
+            for (int i = 0; i < size; i++) {
+                int slot = starts[(keys[i] >>> shift) & DIGIT_MASK]++;
+                itemsOut[slot] = array[i];
+                keysOut[slot] = keys[i];
+            }
+
+            // swap buffers - this pass's output is the next pass's input
+            CollectionItem[] itemsSwap = array;
+            array = itemsOut;
+            itemsOut = itemsSwap;
+            int[] keysSwap = keys;
+            keys = keysOut;
+            keysOut = keysSwap;
+        }
+
+        AbstractSortStrategy.writeBack(items, array);
+    }
+}
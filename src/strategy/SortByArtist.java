@@ -8,23 +8,49 @@
 package strategy;
 
 import model.CollectionItem;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
 // sorts items by their artist - alphabetically, case insensitive
-public class SortByArtist implements SortStrategy {
+public class SortByArtist extends AbstractSortStrategy {
+
+    // alphabetical by artist name, ignoring case
+    private static final Comparator<CollectionItem> ARTIST_ORDER = new Comparator<CollectionItem>() {
+        @Override
+        public int compare(CollectionItem item1, CollectionItem item2) {
+            // case insensitive for consistency
+            return item1.getArtist().compareToIgnoreCase(item2.getArtist());
+        }
+    };
+
+    // when true each artist is case-folded once up front instead of on every comparison
+    private final boolean useCollationKeys;
+
+    // default uses the precomputed keys - same order, much less work on big collections
+    public SortByArtist() {
+        this(true);
+    }
+
+    // lets callers (and the benchmark) pick the plain comparator sort
+    public SortByArtist(boolean useCollationKeys) {
+        this.useCollationKeys = useCollationKeys;
+    }
 
     @Override
     public void sort(List<CollectionItem> items) {
-        // using comparator for clean sorting by artist name
-        Collections.sort(items, new Comparator<CollectionItem>() {
-            @Override
-            public int compare(CollectionItem item1, CollectionItem item2) {
-                // case insensitive for consistency
-                return item1.getArtist().compareToIgnoreCase(item2.getArtist());
-            }
-        });
+        if (useCollationKeys) {
+            // decorate-sort-undecorate on the folded artist name
+            CollationKeySort.sort(items, CollectionItem::getArtist, isParallel(items.size()));
+            return;
+        }
+
+        // plain comparator sort, folds case on every comparison
+        sortWith(items, ARTIST_ORDER);
+    }
+
+    @Override
+    public Comparator<CollectionItem> getComparator() {
+        return ARTIST_ORDER;
     }
 
     @Override
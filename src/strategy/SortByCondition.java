@@ -8,44 +8,46 @@
 package strategy;
 
 import model.CollectionItem;
-import java.util.Collections;
+import model.Grade;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 // sorts items by condition - mint first, poor last
-public class SortByCondition implements SortStrategy {
-
-    // map condition strings to numeric values for comparison
-    // lower number = better condition = appears first
-    // uses goldmine grading scale
-    private static final Map<String, Integer> CONDITION_RANK = new HashMap<>();
-
-    static {
-        // initialize condition rankings - goldmine scale (plus EX)
-        CONDITION_RANK.put("M", 1);    // mint
-        CONDITION_RANK.put("NM", 2);   // near mint
-        CONDITION_RANK.put("EX", 3);   // excellent
-        CONDITION_RANK.put("VG+", 4);  // very good plus
-        CONDITION_RANK.put("VG", 5);   // very good
-        CONDITION_RANK.put("G+", 6);   // good plus
-        CONDITION_RANK.put("G", 7);    // good
-        CONDITION_RANK.put("F", 8);    // fair
-        CONDITION_RANK.put("P", 9);    // poor
-    }
+public class SortByCondition extends AbstractSortStrategy {
+
+    // best condition first, unknown grades last
+    // grade ordinals are already in goldmine order, so this is a plain int compare
+    private static final Comparator<CollectionItem> CONDITION_ORDER = new Comparator<CollectionItem>() {
+        @Override
+        public int compare(CollectionItem item1, CollectionItem item2) {
+            return Integer.compare(item1.getGradeOrdinal(), item2.getGradeOrdinal());
+        }
+    };
+
+    // one bucket per grade, UNGRADED (rank 99) is the last one
+    private static final int BUCKET_COUNT = Grade.values().length;
 
     @Override
     public void sort(List<CollectionItem> items) {
-        Collections.sort(items, new Comparator<CollectionItem>() {
-            @Override
-            public int compare(CollectionItem item1, CollectionItem item2) {
-                // get rank for each condition, default to 99 if unknown
-                int rank1 = CONDITION_RANK.getOrDefault(item1.getCondition(), 99);
-                int rank2 = CONDITION_RANK.getOrDefault(item2.getCondition(), 99);
-                return Integer.compare(rank1, rank2);
-            }
-        });
+        // only nine grades, so a counting sort beats comparing - the grade ordinal is the bucket
+        BucketSort.sort(items, BUCKET_COUNT, CollectionItem::getGradeOrdinal);
+    }
+
+    // the bucket sort is a single threaded linear pass
+    @Override
+    public boolean hasParallelPath() {
+        return false;
+    }
+
+    // picks on the int key directly rather than through the comparator
+    @Override
+    public List<CollectionItem> top(List<CollectionItem> items, int k) {
+        return topByKey(items, k, CollectionItem::getGradeOrdinal);
+    }
+
+    @Override
+    public Comparator<CollectionItem> getComparator() {
+        return CONDITION_ORDER;
     }
 
     @Override
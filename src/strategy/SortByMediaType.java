@@ -8,22 +8,91 @@
 package strategy;
 
 import model.CollectionItem;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
 // sorts items by media type - groups records, cds, cassettes together
-public class SortByMediaType implements SortStrategy {
+public class SortByMediaType extends AbstractSortStrategy {
+
+    // groups formats together, alphabetical by media type name
+    private static final Comparator<CollectionItem> MEDIA_TYPE_ORDER = new Comparator<CollectionItem>() {
+        @Override
+        public int compare(CollectionItem item1, CollectionItem item2) {
+            // alphabetical by media type name
+            return item1.getMediaType().compareToIgnoreCase(item2.getMediaType());
+        }
+    };
 
     @Override
     public void sort(List<CollectionItem> items) {
-        Collections.sort(items, new Comparator<CollectionItem>() {
-            @Override
-            public int compare(CollectionItem item1, CollectionItem item2) {
-                // alphabetical by media type name
-                return item1.getMediaType().compareToIgnoreCase(item2.getMediaType());
+        int size = items.size();
+        if (size < 2) {
+            return;
+        }
+
+        // there are only a few formats, so give each distinct media type name a local id
+        // media type names are constants, so the identity check almost always hits first time
+        CollectionItem[] array = items.toArray(new CollectionItem[0]);
+        int[] keys = new int[size];
+        String[] names = new String[4];
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            String name = array[i].getMediaType();
+            int id = 0;
+            while (id < distinct && names[id] != name && !names[id].equals(name)) {
+                id++;
+            }
+            if (id == distinct) {
+                if (distinct == names.length) {
+                    names = Arrays.copyOf(names, distinct * 2);
+                }
+                names[distinct++] = name;
+            }
+            keys[i] = id;
+        }
+
+        // work out which bucket each name goes in - same order the comparator gives,
+        // and names that only differ by case share a bucket just like compareToIgnoreCase
+        int[] bucketOfId = new int[distinct];
+        int bucketCount = 0;
+        for (int id = 0; id < distinct; id++) {
+            int before = 0;
+            for (int other = 0; other < distinct; other++) {
+                if (names[other].compareToIgnoreCase(names[id]) < 0 && isFirstOfCase(names, other)) {
+                    before++;
+                }
             }
-        });
+            bucketOfId[id] = before;
+            bucketCount = Math.max(bucketCount, before + 1);
+        }
+        for (int i = 0; i < size; i++) {
+            keys[i] = bucketOfId[keys[i]];
+        }
+
+        BucketSort.sortByKeys(items, array, keys, bucketCount);
+    }
+
+    // the bucket sort is a single threaded linear pass
+    @Override
+    public boolean hasParallelPath() {
+        return false;
+    }
+
+    // true for the first name (by id) of each group of names that are equal ignoring case
+    // so the bucket numbers count groups, not spellings
+    private static boolean isFirstOfCase(String[] names, int id) {
+        for (int other = 0; other < id; other++) {
+            if (names[other].compareToIgnoreCase(names[id]) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Comparator<CollectionItem> getComparator() {
+        return MEDIA_TYPE_ORDER;
     }
 
     @Override
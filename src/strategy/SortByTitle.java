@@ -8,23 +8,49 @@
 package strategy;
 
 import model.CollectionItem;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
 // sorts items by their title - alphabetically, case insensitive
-public class SortByTitle implements SortStrategy {
+public class SortByTitle extends AbstractSortStrategy {
+
+    // alphabetical by title, ignoring case
+    private static final Comparator<CollectionItem> TITLE_ORDER = new Comparator<CollectionItem>() {
+        @Override
+        public int compare(CollectionItem item1, CollectionItem item2) {
+            // case insensitive comparison for better user experience
+            return item1.getTitle().compareToIgnoreCase(item2.getTitle());
+        }
+    };
+
+    // when true each title is case-folded once up front instead of on every comparison
+    private final boolean useCollationKeys;
+
+    // default uses the precomputed keys - same order, much less work on big collections
+    public SortByTitle() {
+        this(true);
+    }
+
+    // lets callers (and the benchmark) pick the plain comparator sort
+    public SortByTitle(boolean useCollationKeys) {
+        this.useCollationKeys = useCollationKeys;
+    }
 
     @Override
     public void sort(List<CollectionItem> items) {
-        // using comparator for clean, readable sorting
-        Collections.sort(items, new Comparator<CollectionItem>() {
-            @Override
-            public int compare(CollectionItem item1, CollectionItem item2) {
-                // case insensitive comparison for better user experience
-                return item1.getTitle().compareToIgnoreCase(item2.getTitle());
-            }
-        });
+        if (useCollationKeys) {
+            // decorate-sort-undecorate on the folded title
+            CollationKeySort.sort(items, CollectionItem::getTitle, isParallel(items.size()));
+            return;
+        }
+
+        // plain comparator sort, folds case on every comparison
+        sortWith(items, TITLE_ORDER);
+    }
+
+    @Override
+    public Comparator<CollectionItem> getComparator() {
+        return TITLE_ORDER;
     }
 
     @Override
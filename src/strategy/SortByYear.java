@@ -8,23 +8,61 @@
 package strategy;
 
 import model.CollectionItem;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
 // sorts items by year - oldest to newest
-public class SortByYear implements SortStrategy {
+public class SortByYear extends AbstractSortStrategy {
+
+    // numeric comparison for years - oldest first
+    private static final Comparator<CollectionItem> YEAR_ORDER = new Comparator<CollectionItem>() {
+        @Override
+        public int compare(CollectionItem item1, CollectionItem item2) {
+            // simple integer comparison
+            return Integer.compare(item1.getYear(), item2.getYear());
+        }
+    };
+
+    // when true years are radix sorted instead of compared
+    private final boolean useRadixSort;
+
+    // default uses the radix sort - years are small bounded ints so it's a single linear pass
+    public SortByYear() {
+        this(true);
+    }
+
+    // lets callers (and the benchmark) pick the plain comparator sort
+    public SortByYear(boolean useRadixSort) {
+        this.useRadixSort = useRadixSort;
+    }
 
     @Override
     public void sort(List<CollectionItem> items) {
-        // numeric comparison for years
-        Collections.sort(items, new Comparator<CollectionItem>() {
-            @Override
-            public int compare(CollectionItem item1, CollectionItem item2) {
-                // simple integer comparison
-                return Integer.compare(item1.getYear(), item2.getYear());
-            }
-        });
+        if (useRadixSort) {
+            // stable lsd radix sort, copes with years outside the usual range by adding passes
+            RadixSort.sort(items, CollectionItem::getYear);
+            return;
+        }
+
+        // plain comparator sort
+        sortWith(items, YEAR_ORDER);
+    }
+
+    // the radix sort is single threaded - only the comparator sort goes parallel
+    @Override
+    public boolean hasParallelPath() {
+        return !useRadixSort;
+    }
+
+    // picks on the int key directly rather than through the comparator
+    @Override
+    public List<CollectionItem> top(List<CollectionItem> items, int k) {
+        return topByKey(items, k, CollectionItem::getYear);
+    }
+
+    @Override
+    public Comparator<CollectionItem> getComparator() {
+        return YEAR_ORDER;
     }
 
     @Override
@@ -8,6 +8,8 @@
 package strategy;
 
 import model.CollectionItem;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 // strategy interface for sorting collection items
@@ -17,6 +19,80 @@ public interface SortStrategy {
     // sorts the given list of items - each implementation decides how
     void sort(List<CollectionItem> items);
 
+    // the ordering sort() produces, as a comparator
+    // lets callers position single items without re-sorting everything
+    // this default works it out by sorting the two items on their own, which is right for any
+    // stable sort but costs two small sorts a comparison - strategies written before this method
+    // existed keep working, and every one in this package overrides it with the real thing
+    default Comparator<CollectionItem> getComparator() {
+        return (a, b) -> {
+            if (a == b) {
+                return 0;
+            }
+            List<CollectionItem> pair = new ArrayList<>(List.of(a, b));
+            sort(pair);
+            if (pair.get(0) == b) {
+                return 1;
+            }
+            // a stable sort leaves equal items where they were, so check the other way round too
+            pair = new ArrayList<>(List.of(b, a));
+            sort(pair);
+            return pair.get(0) == a ? -1 : 0;
+        };
+    }
+
     // returns a nice name for display in the ui
     String getStrategyName();
+
+    // the first k items in this order without sorting the whole list - n log k time, k extra slots
+    // the same items in the same order as sorting a copy and taking k (equal items keep list order)
+    // the list itself isn't changed
+    default List<CollectionItem> top(List<CollectionItem> items, int k) {
+        if (k >= items.size()) {
+            // everything is wanted, so a full sort is the cheaper way to get it
+            List<CollectionItem> all = new ArrayList<>(items);
+            sort(all);
+            return all;
+        }
+        return TopK.select(items, k, getComparator());
+    }
+
+    // binary search for where a new item belongs in a list already sorted by this strategy
+    // goes after any equal items, which is where appending and re-sorting would have put it
+    default int insertionPoint(List<CollectionItem> sorted, CollectionItem item) {
+        return insertionPoint(sorted, item, sorted.size());
+    }
+
+    // binary search for where an item belongs, staying as close to preferredIndex as the order allows
+    // used when an edited item is put back - among equal items it keeps its old relative place
+    default int insertionPoint(List<CollectionItem> sorted, CollectionItem item, int preferredIndex) {
+        Comparator<CollectionItem> comparator = getComparator();
+
+        // first position whose item is not less than the new one
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(sorted.get(mid), item) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int firstEqual = low;
+
+        // first position whose item is greater than the new one
+        high = sorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(sorted.get(mid), item) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int afterEqual = low;
+
+        return Math.max(firstEqual, Math.min(preferredIndex, afterEqual));
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ * TopK.java
+ * purpose: picks the first k items of an ordering without sorting the whole list
+ *          a bounded heap - n log k time and k extra slots of memory
+ * author: phin
+ */
+
+package strategy;
+
+import model.CollectionItem;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+// keeps the k best items seen so far in a max-heap with the worst of them on top, so each new
+// item is one comparison against the top and most are turned away there. ties go to whichever
+// item came first in the input, so the result is exactly the first k of a stable sort
+final class TopK {
+
+    private TopK() {
+        // static helper only
+    }
+
+    // the first k items of the list in comparator order, ties in list order
+    static List<CollectionItem> select(List<CollectionItem> items, int k, Comparator<CollectionItem> comparator) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k can't be negative: " + k);
+        }
+        int size = Math.min(k, items.size());
+        if (size == 0) {
+            return new ArrayList<>();
+        }
+
+        // the heap, with each item's position in the input alongside to break ties
+        CollectionItem[] heap = new CollectionItem[size];
+        int[] positions = new int[size];
+        int count = 0;
+        int position = 0;
+        for (CollectionItem item : items) {
+            if (count < size) {
+                heap[count] = item;
+                positions[count] = position;
+                siftUp(heap, positions, count++, comparator);
+            } else if (comparator.compare(item, heap[0]) < 0) {
+                // strictly better than the worst kept - an equal one came later, so it loses the tie
+                heap[0] = item;
+                positions[0] = position;
+                siftDown(heap, positions, size, comparator);
+            }
+            position++;
+        }
+
+        // take the worst off the top until the heap is empty, filling the result from the back
+        CollectionItem[] sorted = new CollectionItem[size];
+        for (int last = size - 1; last >= 0; last--) {
+            sorted[last] = heap[0];
+            heap[0] = heap[last];
+            positions[0] = positions[last];
+            siftDown(heap, positions, last, comparator);
+        }
+        return new ArrayList<>(Arrays.asList(sorted));
+    }
+
+    // the same as select for an order that's just an int key, smallest first - each item's key is
+    // read once and compared as an int, which is most of the cost when nearly every item is turned away
+    static List<CollectionItem> selectByKey(List<CollectionItem> items, int k, ToIntFunction<CollectionItem> keyOf) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k can't be negative: " + k);
+        }
+        int size = Math.min(k, items.size());
+        if (size == 0) {
+            return new ArrayList<>();
+        }
+
+        // each kept item's key and input position packed into one long, key in the high half -
+        // comparing the longs compares keys, then positions, so the worst kept is the largest
+        long[] heap = new long[size];
+        CollectionItem[] kept = new CollectionItem[size];
+        int count = 0;
+        int position = 0;
+        for (CollectionItem item : items) {
+            int key = keyOf.applyAsInt(item);
+            if (count < size) {
+                heap[count] = pack(key, position);
+                kept[count] = item;
+                siftUp(heap, kept, count++);
+            } else if (key < (int) (heap[0] >> 32)) {
+                heap[0] = pack(key, position);
+                kept[0] = item;
+                siftDown(heap, kept, size);
+            }
+            position++;
+        }
+
+        CollectionItem[] sorted = new CollectionItem[size];
+        for (int last = size - 1; last >= 0; last--) {
+            sorted[last] = kept[0];
+            heap[0] = heap[last];
+            kept[0] = kept[last];
+            siftDown(heap, kept, last);
+        }
+        return new ArrayList<>(Arrays.asList(sorted));
+    }
+
+    private static long pack(int key, int position) {
+        return ((long) key << 32) | position;
+    }
+
+    private static void siftUp(long[] heap, CollectionItem[] kept, int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[index] <= heap[parent]) {
+                return;
+            }
+            swap(heap, kept, index, parent);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(long[] heap, CollectionItem[] kept, int count) {
+        int index = 0;
+        while (true) {
+            int largest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < count && heap[left] > heap[largest]) {
+                largest = left;
+            }
+            if (right < count && heap[right] > heap[largest]) {
+                largest = right;
+            }
+            if (largest == index) {
+                return;
+            }
+            swap(heap, kept, index, largest);
+            index = largest;
+        }
+    }
+
+    private static void swap(long[] heap, CollectionItem[] kept, int a, int b) {
+        long packed = heap[a];
+        heap[a] = heap[b];
+        heap[b] = packed;
+        CollectionItem item = kept[a];
+        kept[a] = kept[b];
+        kept[b] = item;
+    }
+
+    // true if a sorts after b - by the comparator, then by which came later
+    private static boolean after(CollectionItem[] heap, int[] positions, int a, int b,
+                                 Comparator<CollectionItem> comparator) {
+        int compared = comparator.compare(heap[a], heap[b]);
+        return compared > 0 || (compared == 0 && positions[a] > positions[b]);
+    }
+
+    private static void siftUp(CollectionItem[] heap, int[] positions, int index, Comparator<CollectionItem> comparator) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!after(heap, positions, index, parent, comparator)) {
+                return;
+            }
+            swap(heap, positions, index, parent);
+            index = parent;
+        }
+    }
+
+    // moves the top down until both children sort before it - count is the heap's size
+    private static void siftDown(CollectionItem[] heap, int[] positions, int count, Comparator<CollectionItem> comparator) {
+        int index = 0;
+        while (true) {
+            int largest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < count && after(heap, positions, left, largest, comparator)) {
+                largest = left;
+            }
+            if (right < count && after(heap, positions, right, largest, comparator)) {
+                largest = right;
+            }
+            if (largest == index) {
+                return;
+            }
+            swap(heap, positions, index, largest);
+            index = largest;
+        }
+    }
+
+    private static void swap(CollectionItem[] heap, int[] positions, int a, int b) {
+        CollectionItem item = heap[a];
+        heap[a] = heap[b];
+        heap[b] = item;
+        int position = positions[a];
+        positions[a] = positions[b];
+        positions[b] = position;
+    }
+}
@@ -8,16 +8,58 @@
 package test;
 
 import factory.ItemFactory;
+import factory.StringInterner;
 import model.CollectionItem;
 import model.Record;
 import model.CD;
 import model.Cassette;
+import model.Grade;
 import strategy.*;
 import gui.CollectionManagerGUI;
+import gui.CollectionTableModel;
+import gui.TableUpdateCoalescer;
+import index.CollectionIndex;
+import io.CatalogExporter;
+import io.CatalogFormat;
+import io.CatalogImporter;
+import persistence.CollectionLog;
+import persistence.ItemCodec;
+import server.CollectionServer;
+import service.CollectionService;
+import service.CollectionView;
+import store.ColumnarCollectionStore;
+import store.ConcurrentCollectionStore;
+import store.OffHeapCollectionStore;
 
 import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // comprehensive test class that demonstrates all features
 public class CollectionManagerTest {
@@ -36,6 +78,19 @@ public class CollectionManagerTest {
         testStrategyPattern();
         testModelClasses();
         testIntegration();
+        testOptimizedSorts();
+        testStorage();
+        testSearchIndex();
+        testTableModel();
+        testPersistence();
+        testImport();
+        testOffHeapStore();
+        testConcurrentStore();
+        testCollectionService();
+        testServer();
+        testViews();
+        testTopK();
+        testYearRanges();
 
         // print summary
         System.out.println("\n===========================================");
@@ -253,6 +308,1619 @@ public class CollectionManagerTest {
         System.out.println();
     }
 
+    // tests the faster sort paths give the same order as the plain comparator sorts
+    private static void testOptimizedSorts() {
+        System.out.println("--- testing optimized sort paths ---\n");
+
+        // mixed case and accented names so the case folding actually matters
+        List<CollectionItem> items = new ArrayList<>();
+        items.add(ItemFactory.createCD("zebra", "b artist", 2001, "M", 10, true));
+        items.add(ItemFactory.createCD("Apple", "B Artist", 2002, "NM", 10, true));
+        items.add(ItemFactory.createCD("apple", "a artist", 2003, "EX", 10, true));
+        items.add(ItemFactory.createCD("\u00c9clair", "\u00e9mile", 2004, "VG", 10, true));
+        items.add(ItemFactory.createCD("ZEBRA", "A ARTIST", 2005, "G", 10, true));
+        items.add(ItemFactory.createCD("Mango", "\u00c9mile", 2006, "P", 10, true));
+
+        // test 24: collation key artist sort matches comparator sort (including stability)
+        System.out.print("test 24: collation key artist sort... ");
+        List<CollectionItem> keyed = new ArrayList<>(items);
+        List<CollectionItem> plain = new ArrayList<>(items);
+        new SortByArtist(true).sort(keyed);
+        new SortByArtist(false).sort(plain);
+        assertCondition(keyed.equals(plain), "same order as compareToIgnoreCase");
+
+        // test 25: collation key title sort matches comparator sort (including stability)
+        System.out.print("test 25: collation key title sort... ");
+        keyed = new ArrayList<>(items);
+        plain = new ArrayList<>(items);
+        new SortByTitle(true).sort(keyed);
+        new SortByTitle(false).sort(plain);
+        assertCondition(keyed.equals(plain), "same order as compareToIgnoreCase");
+
+        // lots of duplicate keys so any instability in the parallel path would show up
+        List<CollectionItem> many = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            many.add(ItemFactory.createCD("Album " + (i % 37), "Artist " + (i % 13), 1950 + (i % 50), "VG", 10, true));
+        }
+
+        // test 26: parallel sort gives the same stable order as the sequential sort
+        System.out.print("test 26: parallel sort matches sequential... ");
+        boolean allMatch = true;
+        AbstractSortStrategy[] strategies = {new SortByArtist(), new SortByTitle(false), new SortByYear(false)};
+        for (AbstractSortStrategy parallelSort : strategies) {
+            allMatch &= parallelSort.hasParallelPath();
+            List<CollectionItem> parallelOrder = new ArrayList<>(many);
+            List<CollectionItem> sequentialOrder = new ArrayList<>(many);
+            parallelSort.setParallelThreshold(2);
+            parallelSort.sort(parallelOrder);
+            parallelSort.setParallelThreshold(AbstractSortStrategy.NEVER_PARALLEL);
+            parallelSort.sort(sequentialOrder);
+            allMatch &= parallelOrder.equals(sequentialOrder);
+        }
+        // the counting sorts say they're single threaded rather than ignoring the threshold quietly
+        allMatch &= !new SortByYear().hasParallelPath() && !new SortByCondition().hasParallelPath() &&
+                    !new SortByMediaType().hasParallelPath();
+        assertCondition(allMatch, "parallel and sequential orders are identical, counting sorts single threaded");
+
+        // test 27: binary search insertion builds the same order as append + full sort
+        System.out.print("test 27: sorted insertion matches full sort... ");
+        boolean insertMatches = true;
+        SortStrategy[] allStrategies = {new SortByArtist(), new SortByTitle(), new SortByYear(),
+                                        new SortByCondition(), new SortByMediaType()};
+        for (SortStrategy insertStrategy : allStrategies) {
+            List<CollectionItem> inserted = new ArrayList<>();
+            List<CollectionItem> appended = new ArrayList<>();
+            for (CollectionItem next : items) {
+                inserted.add(insertStrategy.insertionPoint(inserted, next), next);
+                appended.add(next);
+                insertStrategy.sort(appended);
+                insertMatches &= inserted.equals(appended);
+            }
+        }
+        assertCondition(insertMatches, "incremental order is identical for every strategy");
+
+        // test 28: repositioning an edited item matches a stable re-sort
+        System.out.print("test 28: edited item repositioning... ");
+        SortStrategy editStrategy = new SortByYear();
+        List<CollectionItem> repositioned = new ArrayList<>(many.subList(0, 200));
+        editStrategy.sort(repositioned);
+        int oldIndex = 120;
+        CollectionItem edited = repositioned.get(oldIndex);
+        edited.setYear(1960);
+        List<CollectionItem> resorted = new ArrayList<>(repositioned);
+        editStrategy.sort(resorted);
+        repositioned.remove(oldIndex);
+        repositioned.add(editStrategy.insertionPoint(repositioned, edited, oldIndex), edited);
+        assertCondition(repositioned.equals(resorted), "edited item lands where a re-sort puts it");
+
+        // test 29: a strategy written before getComparator existed still works, service included
+        System.out.print("test 29: strategy without its own comparator... ");
+        SortStrategy oldStyle = new SortStrategy() {
+            @Override
+            public void sort(List<CollectionItem> list) {
+                list.sort(Comparator.comparingInt(CollectionItem::getYear));
+            }
+
+            @Override
+            public String getStrategyName() {
+                return "Old Style Year";
+            }
+        };
+        List<CollectionItem> oldInserted = new ArrayList<>();
+        for (CollectionItem next : many.subList(0, 200)) {
+            oldInserted.add(oldStyle.insertionPoint(oldInserted, next), next);
+        }
+        List<CollectionItem> oldSorted = new ArrayList<>(many.subList(0, 200));
+        oldStyle.sort(oldSorted);
+        CollectionService oldService = new CollectionService();
+        oldService.setSortStrategy(oldStyle);
+        oldService.addAll(many.subList(0, 200));
+        CollectionItem oldGone = oldService.snapshot().get(50);
+        CollectionItem oldMoved = oldService.snapshot().get(150);
+        oldService.remove(oldGone);
+        oldService.edit(oldMoved, item -> item.setYear(1000));
+        boolean oldOk = oldInserted.equals(oldSorted) && !oldService.snapshot().contains(oldGone) &&
+                        oldService.snapshot().get(0) == oldMoved && oldService.snapshot().size() == 199;
+        assertCondition(oldOk, "comparator worked out from sort() positions items like the sort");
+
+        // test 30: bucket sorts give the same stable order as their comparators
+        System.out.print("test 30: condition and format bucket sorts... ");
+        List<CollectionItem> graded = new ArrayList<>(many.subList(0, 300));
+        String[] grades = {"M", "NM", "EX", "VG+", "VG", "G+", "G", "F", "P", "Mint", "Unknown"};
+        for (int i = 0; i < graded.size(); i++) {
+            graded.get(i).setCondition(grades[(i * 7) % grades.length]);
+        }
+        graded.add(ItemFactory.createRecord("Vinyl", "Artist", 1970, "EX", "12\"", "33"));
+        graded.add(ItemFactory.createCassette("Tape", "Artist", 1980, "G", "Normal", 60));
+        boolean bucketsMatch = true;
+        SortStrategy[] bucketStrategies = {new SortByCondition(), new SortByMediaType()};
+        for (SortStrategy bucketStrategy : bucketStrategies) {
+            List<CollectionItem> bucketed = new ArrayList<>(graded);
+            List<CollectionItem> compared = new ArrayList<>(graded);
+            bucketStrategy.sort(bucketed);
+            compared.sort(bucketStrategy.getComparator());
+            bucketsMatch &= bucketed.equals(compared);
+        }
+        assertCondition(bucketsMatch, "counting sort order is identical to the comparator order");
+
+        // test 31: radix year sort matches comparator sort, including out-of-range years
+        System.out.print("test 31: radix year sort... ");
+        List<CollectionItem> dated = new ArrayList<>(many.subList(0, 500));
+        dated.get(3).setYear(-5);
+        dated.get(10).setYear(19690);
+        dated.get(42).setYear(Integer.MAX_VALUE);
+        dated.get(99).setYear(Integer.MIN_VALUE);
+        List<CollectionItem> radixOrder = new ArrayList<>(dated);
+        List<CollectionItem> yearOrder = new ArrayList<>(dated);
+        new SortByYear(true).sort(radixOrder);
+        new SortByYear(false).sort(yearOrder);
+        assertCondition(radixOrder.equals(yearOrder), "radix order is identical to Integer.compare order");
+
+        // test 32: conditions are parsed into goldmine grades at the factory boundary
+        System.out.print("test 32: goldmine grade parsing... ");
+        CollectionItem longName = ItemFactory.createCD("Grades", "Tester", 2000, "Excellent", 10, true);
+        CollectionItem shortCode = ItemFactory.createCD("Grades", "Tester", 2000, " vg+ ", 10, true);
+        CollectionItem unknown = ItemFactory.createCD("Grades", "Tester", 2000, "sealed??", 10, true);
+        // the text itself is kept, through the codec the log and snapshots use too
+        ItemCodec codec = new ItemCodec();
+        ByteBuffer encoded = ByteBuffer.allocate(256);
+        codec.encode(unknown, encoded);
+        codec.encode(shortCode, encoded);
+        encoded.flip();
+        CollectionItem unknownBack = codec.decode(encoded);
+        CollectionItem shortBack = codec.decode(encoded);
+        CollectionItem regraded = ItemFactory.createCD("Grades", "Tester", 2000, "Mint", 10, true);
+        regraded.setGrade(Grade.GOOD);
+        assertCondition(longName.getGrade() == Grade.EXCELLENT &&
+                       longName.getCondition().equals("Excellent") &&
+                       shortCode.getGrade() == Grade.VERY_GOOD_PLUS &&
+                       unknown.getGrade() == Grade.UNGRADED &&
+                       unknown.getCondition().equals("sealed??") &&
+                       unknown.getGrade().getRank() == 99 &&
+                       unknownBack.getCondition().equals("sealed??") && unknownBack.getGrade() == Grade.UNGRADED &&
+                       shortBack.getCondition().equals(" vg+ ") && shortBack.getGrade() == Grade.VERY_GOOD_PLUS &&
+                       regraded.getCondition().equals("G") &&
+                       Grade.NEAR_MINT.isAtLeast(Grade.VERY_GOOD),
+                       "codes and long names parse, the text reads back as given, unknown text is ungraded");
+
+        System.out.println();
+    }
+
+    // tests the alternative storage backends
+    private static void testStorage() {
+        System.out.println("--- testing storage ---\n");
+
+        // a mix of every format, with repeated artists and odd grades
+        List<CollectionItem> items = new ArrayList<>();
+        String[] grades = {"M", "NM", "EX", "VG+", "VG", "G+", "G", "F", "P", "??"};
+        for (int i = 0; i < 300; i++) {
+            String artist = (i % 2 == 0 ? "artist " : "Artist ") + (i % 17);
+            String title = "Title " + (i * 31 % 101);
+            String grade = grades[i % grades.length];
+            if (i % 3 == 0) {
+                items.add(ItemFactory.createRecord(title, artist, 1950 + (i % 60), grade, "12\"", "33"));
+            } else if (i % 3 == 1) {
+                items.add(ItemFactory.createCD(title, artist, 1950 + (i % 60), grade, 5 + (i % 10), i % 2 == 0));
+            } else {
+                items.add(ItemFactory.createCassette(title, artist, 1950 + (i % 60), grade, "Chrome", 60));
+            }
+        }
+
+        // test 33: columnar store round trips items and sorts off its columns
+        System.out.print("test 33: columnar store sorting... ");
+        ColumnarCollectionStore columnar = ColumnarCollectionStore.of(items);
+        boolean columnarMatches = describe(columnar.asList()).equals(describe(items));
+        SortStrategy[] strategies = {new SortByArtist(), new SortByTitle(), new SortByYear(),
+                                     new SortByCondition(), new SortByMediaType()};
+        for (SortStrategy strategy : strategies) {
+            List<CollectionItem> expected = new ArrayList<>(items);
+            strategy.sort(expected);
+            List<CollectionItem> actual = new ArrayList<>();
+            for (int row : columnar.sortedRows(strategy)) {
+                actual.add(columnar.get(row));
+            }
+            columnarMatches &= describe(actual).equals(describe(expected));
+        }
+        assertCondition(columnarMatches, "same items and same order as the list sorts");
+
+        // test 34: columnar filtering and edits through the list view
+        System.out.print("test 34: columnar filter and edit... ");
+        int[] found = columnar.filterRows("ARTIST 16");
+        int[] decade = columnar.rowsInYearRange(1960, 1969);
+        CollectionItem edited = columnar.get(0);
+        edited.setTitle("Edited Title");
+        columnar.asList().set(0, edited);
+        columnar.asList().remove(1);
+        assertCondition(found.length == 17 && decade.length == 50 &&
+                       columnar.get(0).getTitle().equals("Edited Title") &&
+                       columnar.size() == items.size() - 1,
+                       "filters scan the columns and the list view writes through");
+
+        // test 35: factory shares one copy of repeated artist and format strings
+        System.out.print("test 35: string deduplication... ");
+        long savedBefore = ItemFactory.getStringInterner().getBytesSaved();
+        CollectionItem first = ItemFactory.createRecord("One", new String("Dedup Artist"), 1970, "M", "12\"", "33");
+        CollectionItem second = ItemFactory.createRecord("Two", new String("Dedup Artist"), 1971, "M", new String("12\""), "33");
+        StringInterner bounded = new StringInterner(2);
+        bounded.intern("a");
+        bounded.intern("b");
+        String notKept = new String("c");
+        assertCondition(first.getArtist() == second.getArtist() &&
+                       ((Record) first).getSize() == ((Record) second).getSize() &&
+                       ItemFactory.getStringInterner().getBytesSaved() > savedBefore &&
+                       bounded.intern(notKept) == notKept && bounded.size() == 2,
+                       "duplicates share one instance, bounded interner stops growing");
+
+        System.out.println();
+    }
+
+    // tests the search index
+    private static void testSearchIndex() {
+        System.out.println("--- testing search index ---\n");
+
+        CollectionIndex index = new CollectionIndex();
+        CollectionItem zeppelin = ItemFactory.createRecord("Led Zeppelin IV", "Led Zeppelin", 1971, "G", "12\"", "33");
+        CollectionItem floyd = ItemFactory.createRecord("Dark Side of the Moon", "Pink Floyd", 1973, "M", "12\"", "33");
+        CollectionItem thriller = ItemFactory.createCD("Thriller", "Michael Jackson", 1982, "NM", 9, true);
+        CollectionItem nevermind = ItemFactory.createCassette("Nevermind", "Nirvana", 1991, "VG", "Chrome", 60);
+        index.add(zeppelin);
+        index.add(floyd);
+        index.add(thriller);
+        index.add(nevermind);
+
+        // test 36: multi-word and prefix searches intersect the posting lists
+        System.out.print("test 36: token index search... ");
+        boolean searchWorks = index.search("led zep").equals(List.of(zeppelin)) &&
+                              index.search("197").size() == 2 &&
+                              index.search("VINYL moon").equals(List.of(floyd)) &&
+                              index.search("cd").equals(List.of(thriller)) &&
+                              index.search("floyd jackson").isEmpty() &&
+                              index.search("  ").isEmpty();
+        assertCondition(searchWorks, "prefix terms match and multiple terms intersect");
+
+        // test 37: edits and deletes keep the index current
+        System.out.print("test 37: index stays current on edit and delete... ");
+        thriller.setTitle("Bad");
+        index.update(thriller);
+        index.remove(nevermind);
+        index.add(ItemFactory.createCD("Bad Moon Rising", "Sonic Youth", 1985, "VG", 10, true));
+        assertCondition(index.search("thriller").isEmpty() &&
+                       index.search("bad").size() == 2 &&
+                       index.search("nirvana").isEmpty() &&
+                       index.size() == 4,
+                       "old tokens are gone, new ones are found");
+
+        // test 38: lots of edits, deletes and re-adds out of id order leave every list right
+        System.out.print("test 38: index stays right through heavy churn... ");
+        CollectionIndex churned = new CollectionIndex();
+        String[] bands = {"Alpha", "Bravo", "Charlie", "Delta"};
+        Random churn = new Random(38);
+        List<CollectionItem> live = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            live.add(ItemFactory.createCD("Churn " + i, bands[i % bands.length], 1950 + i % 50, "M", 10, true));
+        }
+        churned.addAll(live);
+        for (int i = 0; i < 6000; i++) {
+            CollectionItem item = live.get(churn.nextInt(live.size()));
+            int what = churn.nextInt(3);
+            if (what == 0) {
+                item.setArtist(bands[churn.nextInt(bands.length)]);
+                item.setYear(1950 + churn.nextInt(50));
+                churned.update(item);
+            } else if (what == 1) {
+                churned.remove(item);
+                live.remove(item);
+            } else {
+                // a new item takes a freed id, which is smaller than the ids already in the lists
+                CollectionItem added = ItemFactory.createCD("Churn x" + i, bands[churn.nextInt(bands.length)],
+                    1950 + churn.nextInt(50), "M", 10, true);
+                churned.add(added);
+                live.add(added);
+            }
+        }
+        boolean churnOk = churned.size() == live.size() &&
+                          sameItems(churned.search("1960s"), yearsBetween(live, 1960, 1969, null)) &&
+                          sameItems(churned.search("lph"), yearsBetween(live, 0, 9999, "Alpha"));
+        for (String band : bands) {
+            churnOk &= sameItems(churned.search(band), yearsBetween(live, 0, 9999, band)) &&
+                       sameItems(churned.search(band + " 1970-1979"), yearsBetween(live, 1970, 1979, band));
+        }
+        assertCondition(churnOk, "words, fragments and ranges match a brute force search");
+
+        // test 39: trigram index finds fragments from the middle of words
+        System.out.print("test 39: trigram substring search... ");
+        CollectionItem lookalike = ItemFactory.createCD("Abcx Bcde", "Tester", 2000, "M", 10, true);
+        index.add(lookalike);
+        assertCondition(index.search("eppeli").equals(List.of(zeppelin)) &&
+                       index.search("ZEPPELIN IV").equals(List.of(zeppelin)) &&
+                       index.search("loy").equals(List.of(floyd)) &&
+                       index.search("bcx").equals(List.of(lookalike)) &&
+                       index.search("abcde").isEmpty(),
+                       "mid-word fragments match, scattered trigrams are rejected");
+
+        // test 40: a search on an interrupted thread gives up instead of finishing
+        System.out.print("test 40: superseded search is cancelled... ");
+        boolean cancelled = false;
+        Thread.currentThread().interrupt();
+        try {
+            index.search("zeppelin");
+        } catch (CancellationException e) {
+            cancelled = true;
+        } finally {
+            Thread.interrupted(); // clear the flag so the rest of the run isn't affected
+        }
+        assertCondition(cancelled && index.search("zeppelin").equals(List.of(zeppelin)),
+                       "interrupted search throws, the next one runs normally");
+
+        System.out.println();
+    }
+
+    // tests the table model the gui shows items through
+    private static void testTableModel() {
+        System.out.println("--- testing table model ---\n");
+
+        // test 41: cells are read straight from the list, no rows are copied
+        System.out.print("test 41: table model reads the collection in place... ");
+        List<CollectionItem> items = new ArrayList<>();
+        items.add(ItemFactory.createRecord("Abbey Road", "The Beatles", 1969, "EX", "12\"", "33"));
+        CollectionTableModel model = new CollectionTableModel();
+        model.setRows(items);
+        items.add(ItemFactory.createCD("Thriller", "Michael Jackson", 1982, "NM", 9, true));
+        items.get(0).setTitle("Let It Be");
+        assertCondition(model.getRowCount() == 2 &&
+                       "Let It Be".equals(model.getValueAt(0, 1)) &&
+                       Integer.valueOf(1982).equals(model.getValueAt(1, 2)) &&
+                       "CD".equals(model.getValueAt(1, 4)) &&
+                       model.getItem(1) == items.get(1) &&
+                       model.getColumnName(3).equals("Condition"),
+                       "rows follow the backing list without being rebuilt");
+
+        // test 42: queued changes land sorted, as a handful of row events
+        System.out.print("test 42: table updates are coalesced... ");
+        boolean[] coalesced = new boolean[1];
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    coalesced[0] = checkCoalescedUpdates();
+                }
+            });
+        } catch (Exception e) {
+            coalesced[0] = false;
+        }
+        assertCondition(coalesced[0], "1000 adds in one frame become one sorted merge and one insert event");
+
+        // test 43: an item too big to save is turned away on its own, the rest of its batch goes in
+        System.out.print("test 43: one bad item doesn't sink a coalesced batch... ");
+        boolean[] partial = new boolean[1];
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    partial[0] = checkRefusedInBatch();
+                }
+            });
+        } catch (Exception e) {
+            partial[0] = false;
+        }
+        assertCondition(partial[0], "5 good items saved, the bad one reported instead of thrown");
+
+        System.out.println();
+    }
+
+    // tests saving and loading through the collection log
+    private static void testPersistence() {
+        System.out.println("--- testing persistence ---\n");
+
+        Path file = null;
+        try {
+            file = Files.createTempFile("collection-test", ".log");
+            Files.delete(file);
+
+            // test 44: adds, edits and deletes come back as the latest live items
+            System.out.print("test 44: collection log round trip... ");
+            CollectionItem abbey = ItemFactory.createRecord("Abbey Road", "The Beatles", 1969, "EX", "12\"", "33");
+            CollectionItem thriller = ItemFactory.createCD("Thriller", "Michael Jackson", 1982, "NM", 9, true);
+            CollectionItem purple = ItemFactory.createCassette("Purple Rain", "Prince", 1984, "EX", "Normal", 90);
+            try (CollectionLog log = CollectionLog.open(file)) {
+                log.appendAll(CollectionLog.Operation.ADD, List.of(abbey, thriller, purple));
+                abbey.setGrade(Grade.VERY_GOOD);
+                log.append(CollectionLog.Operation.EDIT, abbey);
+                log.append(CollectionLog.Operation.DELETE, thriller);
+            }
+            List<CollectionItem> reloaded;
+            try (CollectionLog log = CollectionLog.open(file)) {
+                reloaded = new ArrayList<>(log.items());
+            }
+            assertCondition(describe(reloaded).equals(describe(List.of(abbey, purple))),
+                           "edited item has its new grade, deleted item is gone");
+
+            // test 45: a half-written record at the end is ignored and new records go after the good ones
+            System.out.print("test 45: torn write at the end of the log... ");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 40, 1, 2, 3}));
+            }
+            CollectionItem nevermind = ItemFactory.createCassette("Nevermind", "Nirvana", 1991, "VG", "Chrome", 60);
+            List<CollectionItem> afterTear;
+            try (CollectionLog log = CollectionLog.open(file)) {
+                afterTear = new ArrayList<>(log.items());
+                log.append(CollectionLog.Operation.DELETE, afterTear.get(1));
+                log.append(CollectionLog.Operation.ADD, nevermind);
+            }
+            List<CollectionItem> afterAppend;
+            try (CollectionLog log = CollectionLog.open(file)) {
+                afterAppend = new ArrayList<>(log.items());
+            }
+            assertCondition(afterTear.size() == 2 &&
+                           describe(afterAppend).equals(describe(List.of(abbey, nevermind))),
+                           "torn tail skipped, ids carry on across reopens");
+
+            // test 46: compaction leaves a snapshot of live items and an empty journal
+            System.out.print("test 46: journal compaction... ");
+            Path snapshot = file.resolveSibling(file.getFileName() + ".snapshot");
+            Path old = file.resolveSibling(file.getFileName() + ".old");
+            CollectionItem rumours = ItemFactory.createCD("Rumours", "Fleetwood Mac", 1977, "NM", 11, true);
+            long journalBefore;
+            try (CollectionLog log = CollectionLog.open(file)) {
+                List<CollectionItem> live = new ArrayList<>(log.items());
+                for (int i = 0; i < 50; i++) {
+                    live.get(0).setYear(1969 + (i % 2)); // a long edit history for one item
+                    log.append(CollectionLog.Operation.EDIT, live.get(0));
+                }
+                journalBefore = Files.size(file);
+                log.compact();
+                log.append(CollectionLog.Operation.ADD, rumours); // lands in the fresh journal
+            }
+            List<CollectionItem> compacted;
+            try (CollectionLog log = CollectionLog.open(file)) {
+                compacted = new ArrayList<>(log.items());
+            }
+            abbey.setYear(1970);
+            assertCondition(Files.exists(snapshot) && !Files.exists(old) &&
+                           Files.size(file) < journalBefore / 10 &&
+                           describe(compacted).equals(describe(List.of(abbey, nevermind, rumours))),
+                           "history folded away, later appends kept");
+
+            // test 47: a crash after the snapshot was written but before the old journal was
+            // deleted replays the old journal again, which changes nothing
+            System.out.print("test 47: recovery from an interrupted compaction... ");
+            Files.copy(file, old);
+            try (CollectionLog log = CollectionLog.open(file)) {
+                log.compact();
+            }
+            List<CollectionItem> recovered;
+            try (CollectionLog log = CollectionLog.open(file)) {
+                recovered = new ArrayList<>(log.items());
+            }
+            assertCondition(!Files.exists(old) && describe(recovered).equals(describe(compacted)),
+                           "replaying records twice gives the same collection");
+            Files.deleteIfExists(snapshot);
+
+            // test 48: an item that can't be stored is refused without leaving half a record behind
+            System.out.print("test 48: oversized item refused cleanly... ");
+            Files.deleteIfExists(file);
+            CollectionItem huge = ItemFactory.createCD("x".repeat(70_000), "Nobody", 2000, "M", 1, false);
+            CollectionItem after1 = ItemFactory.createCD("Blue", "Joni Mitchell", 1971, "NM", 10, true);
+            CollectionItem after2 = ItemFactory.createRecord("Kind of Blue", "Miles Davis", 1959, "EX", "12\"", "33");
+            boolean refused = false;
+            boolean batchRefused = false;
+            try (CollectionLog log = CollectionLog.open(file)) {
+                log.append(CollectionLog.Operation.ADD, abbey);
+                try {
+                    log.append(CollectionLog.Operation.ADD, huge);
+                } catch (IllegalArgumentException e) {
+                    refused = true;
+                }
+                try {
+                    log.appendAll(CollectionLog.Operation.ADD, List.of(after1, huge));
+                } catch (IllegalArgumentException e) {
+                    batchRefused = true;
+                }
+                log.append(CollectionLog.Operation.ADD, after1);
+                log.append(CollectionLog.Operation.ADD, after2);
+            }
+            List<CollectionItem> afterRefusal;
+            try (CollectionLog log = CollectionLog.open(file)) {
+                afterRefusal = new ArrayList<>(log.items());
+            }
+            assertCondition(refused && batchRefused &&
+                           describe(afterRefusal).equals(describe(List.of(abbey, after1, after2))),
+                           "later items still there after reopening, a bad batch writes nothing");
+
+            // test 49: items not read yet when compaction moves the files still read back after it
+            System.out.print("test 49: lazy items across a compaction... ");
+            List<CollectionItem> many = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                many.add(ItemFactory.createCassette("Mix " + i, "Various", 1980 + i % 20, "G", "Normal", 90));
+            }
+            try (CollectionLog log = CollectionLog.open(file)) {
+                log.appendAll(CollectionLog.Operation.ADD, many);
+                log.compact();
+                log.append(CollectionLog.Operation.DELETE, many.get(7)); // in the journal, not the snapshot
+            }
+            List<CollectionItem> expected = new ArrayList<>(afterRefusal);
+            expected.addAll(many);
+            expected.remove(many.get(7));
+            List<String> readAcross = new ArrayList<>();
+            try (CollectionLog log = CollectionLog.open(file)) {
+                List<CollectionItem> lazy = log.items();
+                readAcross.addAll(describe(lazy.subList(0, 10)));
+                log.compact(); // renames the journal and replaces the snapshot under the unread items
+                readAcross.addAll(describe(lazy.subList(10, lazy.size())));
+            }
+            assertCondition(readAcross.equals(describe(expected)) && !Files.exists(old) &&
+                           !Files.exists(snapshot.resolveSibling(snapshot.getFileName() + ".tmp")),
+                           "every item read back in order, no files left behind");
+
+            // test 50: the same when a compaction that never finished left an old journal behind -
+            // the items let go of the files before the leftover is folded in and deleted
+            System.out.print("test 50: lazy items across a leftover old journal... ");
+            Files.copy(file, old);
+            List<String> readAcrossOld = new ArrayList<>();
+            boolean stillHeld;
+            try (CollectionLog log = CollectionLog.open(file)) {
+                List<CollectionItem> lazy = log.items();
+                readAcrossOld.addAll(describe(lazy.subList(0, 10)));
+                log.compact(); // folds the leftover, replacing the snapshot and deleting the old journal
+                stillHeld = holdsDeletedFile(file.getFileName().toString());
+                readAcrossOld.addAll(describe(lazy.subList(10, lazy.size())));
+            }
+            assertCondition(readAcrossOld.equals(describe(expected)) && !Files.exists(old) && !stillHeld,
+                           "every item read back, no replaced or deleted file still open");
+            Files.deleteIfExists(snapshot);
+        } catch (IOException e) {
+            assertCondition(false, "log i/o failed: " + e.getMessage());
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    System.out.println("couldn't delete " + file);
+                }
+            }
+        }
+
+        System.out.println();
+    }
+
+    // true if this process still has a file open that starts with the given name but has since
+    // been deleted or replaced - linux only, anywhere else it can't tell and says false
+    private static boolean holdsDeletedFile(String name) {
+        Path descriptors = Paths.get("/proc/self/fd");
+        if (!Files.isDirectory(descriptors)) {
+            return false;
+        }
+        try (DirectoryStream<Path> open = Files.newDirectoryStream(descriptors)) {
+            for (Path descriptor : open) {
+                try {
+                    String target = Files.readSymbolicLink(descriptor).toString();
+                    if (target.contains(name) && target.endsWith(" (deleted)")) {
+                        return true;
+                    }
+                } catch (IOException e) {
+                    // closed while we looked - not held
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return false;
+    }
+
+    // tests the streaming catalog importer and exporter
+    private static void testImport() {
+        System.out.println("--- testing catalog import and export ---\n");
+
+        // test 51: csv with quoting, loose column names and a bad row, in small batches
+        System.out.print("test 51: streaming csv import... ");
+        String csv = "\uFEFFMedia Type,Artist,Title,Released,Condition,Track Count,RPM\r\n" +
+                     "Vinyl,The Beatles,Abbey Road,1969-09-26,Near Mint (NM),,33 rpm\r\n" +
+                     "CD,\"Crosby, Stills & Nash\",\"D\u00e9j\u00e0 \"\"Vu\"\"\",1970,VG+,10,\r\n" +
+                     "\r\n" +
+                     "Cassette,Prince,\"Purple\nRain\",1984,EX,,\r\n" +
+                     "8-Track,Nobody,Lost,1975,G,,\r\n" +
+                     "CD,Nobody,\"" + "x".repeat(70_000) + "\",1999,G,1,\r\n";
+        List<Integer> batchSizes = new ArrayList<>();
+        List<CollectionItem> imported = new ArrayList<>();
+        CatalogImporter.ImportResult csvResult = null;
+        try {
+            csvResult = new CatalogImporter(2).importStream(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), CatalogFormat.CSV,
+                (batch, rowsRead, bytesRead) -> {
+                    batchSizes.add(batch.size());
+                    imported.addAll(batch);
+                });
+        } catch (IOException e) {
+            System.out.print("(" + e.getMessage() + ") ");
+        }
+        assertCondition(csvResult != null && csvResult.getRowsRead() == 5 && csvResult.getSkipped() == 2 &&
+                       csvResult.getErrors().get(0).contains("8-Track") &&
+                       csvResult.getErrors().get(1).contains("too long") &&
+                       batchSizes.equals(List.of(2, 1)) &&
+                       describe(imported).equals(describe(List.of(
+                           ItemFactory.createRecord("Abbey Road", "The Beatles", 1969, "NM", "12\"", "33"),
+                           ItemFactory.createCD("D\u00e9j\u00e0 \"Vu\"", "Crosby, Stills & Nash", 1970, "VG+", 10, false),
+                           ItemFactory.createCassette("Purple\nRain", "Prince", 1984, "EX", "Normal", 0)))),
+                       "quoted fields, aliases and grades parsed, unknown format and unsavable title skipped");
+
+        // test 52: json arrays and newline delimited json both stream object by object
+        System.out.print("test 52: streaming json import... ");
+        String jsonArray = "[{\"format\": \"cd\", \"artist\": \"Michael Jackson\", \"title\": \"Thriller\", " +
+                           "\"year\": 1982, \"grade\": \"NM\", \"tracks\": 9, \"booklet\": true, " +
+                           "\"labels\": [{\"name\": \"Epic\"}], \"notes\": null}, " +
+                           "{\"format\": \"LP\", \"artist\": \"Pink Floyd\", \"title\": \"Dark Side \\u0026 Moon\", \"year\": 1973}]";
+        String ndjson = "{\"type\":\"tape\",\"artist\":\"Nirvana\",\"title\":\"Nevermind\",\"length\":60}\n" +
+                        "{\"type\":\"tape\",\"title\":\"No Artist\"}\n";
+        List<CollectionItem> fromJson = new ArrayList<>();
+        long jsonRows = 0;
+        try {
+            for (String json : new String[] {jsonArray, ndjson}) {
+                jsonRows += new CatalogImporter().importStream(
+                    new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), CatalogFormat.JSON,
+                    (batch, rowsRead, bytesRead) -> fromJson.addAll(batch)).getRowsRead();
+            }
+        } catch (IOException e) {
+            System.out.print("(" + e.getMessage() + ") ");
+        }
+        assertCondition(jsonRows == 4 && describe(fromJson).equals(describe(List.of(
+                           ItemFactory.createCD("Thriller", "Michael Jackson", 1982, "NM", 9, true),
+                           ItemFactory.createRecord("Dark Side & Moon", "Pink Floyd", 1973, null, "12\"", "33"),
+                           ItemFactory.createCassette("Nevermind", "Nirvana", 0, null, "Normal", 60)))),
+                       "nested values skipped, escapes decoded, rows missing an artist skipped");
+
+        // test 53: awkward text survives an export and import in both formats
+        System.out.print("test 53: export round trip... ");
+        List<CollectionItem> awkward = List.of(
+            ItemFactory.createCD("D\u00e9j\u00e0 \"Vu\"", "Crosby, Stills & Nash", 1970, "VG+", 10, true),
+            ItemFactory.createRecord("Purple\r\nRain \\ \uD83C\uDFB5", "Prince", 1984, "NM", "7\"", "45"),
+            ItemFactory.createCassette("\u6771\u4eac", "Tab\tArtist", 0, null, "Chrome", 46));
+        boolean roundTrips = true;
+        for (CatalogFormat format : CatalogFormat.values()) {
+            List<CollectionItem> back = exportAndImport(awkward, format);
+            roundTrips &= describe(back).equals(describe(awkward));
+        }
+        assertCondition(roundTrips, "quotes, commas, line breaks, emoji and missing years round trip");
+
+        // test 54: a big export spans many buffer flushes and every byte is counted
+        System.out.print("test 54: large streaming export... ");
+        List<CollectionItem> many = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            many.add(ItemFactory.createRecord("Caf\u00e9 \u00e0 la carte " + i, "Artist, " + (i % 97),
+                1950 + i % 70, "VG", "12\"", "33"));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CatalogExporter.ExportResult exported = null;
+        List<CollectionItem> manyBack = new ArrayList<>();
+        try {
+            exported = new CatalogExporter().export(many, Channels.newChannel(bytes), CatalogFormat.CSV);
+            new CatalogImporter().importStream(new ByteArrayInputStream(bytes.toByteArray()), CatalogFormat.CSV,
+                (batch, rowsRead, bytesRead) -> manyBack.addAll(batch));
+        } catch (IOException e) {
+            System.out.print("(" + e.getMessage() + ") ");
+        }
+        assertCondition(exported != null && exported.getRowsWritten() == many.size() &&
+                       exported.getBytesWritten() == bytes.size() && bytes.size() > 64 * 1024 &&
+                       describe(manyBack).equals(describe(many)),
+                       "20,000 rows written and read back intact");
+
+        System.out.println();
+    }
+
+    // feeds a coalescer a frame's worth of changes and checks the collection and the events it fired
+    private static boolean checkCoalescedUpdates() {
+        CollectionService service = new CollectionService();
+        SortStrategy byYear = new SortByYear();
+        service.setSortStrategy(byYear);
+        CollectionTableModel model = new CollectionTableModel();
+        model.setRows(service.snapshot());
+        List<CollectionService.Change> applied = new ArrayList<>();
+        TableUpdateCoalescer updates = new TableUpdateCoalescer(service, model, applied::add);
+
+        List<TableModelEvent> events = new ArrayList<>();
+        model.addTableModelListener(events::add);
+
+        // a thousand adds in one frame land as one contiguous run at the end
+        CollectionItem first = ItemFactory.createCD("First", "Tester", 1950, "VG", 10, true);
+        updates.itemAdded(first);
+        updates.flush();
+        for (int i = 0; i < 1000; i++) {
+            updates.itemAdded(ItemFactory.createCD("Album " + i, "Tester", 1960 + (i * 7) % 50, "VG", 10, true));
+        }
+        events.clear();
+        updates.flush();
+        boolean bulkAdd = events.size() == 1 &&
+                          events.get(0).getType() == TableModelEvent.INSERT &&
+                          events.get(0).getFirstRow() == 1 && events.get(0).getLastRow() == 1000;
+
+        // an edit that breaks the order moves the item, removals come out, all in one flush
+        first.setYear(2020);
+        updates.itemChanged(first);
+        CollectionItem gone = service.snapshot().get(1);
+        updates.itemRemoved(gone);
+        // while the delete events go out the table reads the rows left, without the moved and removed ones
+        List<CollectionItem> left = new ArrayList<>(service.snapshot());
+        left.remove(first);
+        left.remove(gone);
+        boolean[] deletesReadRight = {true};
+        model.addTableModelListener(e -> {
+            if (e.getType() == TableModelEvent.DELETE) {
+                deletesReadRight[0] &= model.copyRows().equals(left);
+            }
+        });
+        events.clear();
+        updates.flush();
+
+        List<CollectionItem> items = service.snapshot();
+        List<CollectionItem> expected = new ArrayList<>(items);
+        byYear.sort(expected);
+        return bulkAdd && items.equals(expected) && items.size() == 1000 &&
+               items.get(items.size() - 1) == first && applied.size() == 3 &&
+               events.size() <= 3 && updates.isIdle() && model.isShowing(items) && deletesReadRight[0];
+    }
+
+    // queues good items with one the log can't store through a coalescer on a saved collection
+    private static boolean checkRefusedInBatch() {
+        Path file = null;
+        try {
+            file = Files.createTempFile("coalescer-test", ".log");
+            Files.delete(file);
+            CollectionService service = CollectionService.open(file);
+            CollectionTableModel model = new CollectionTableModel();
+            model.setRows(service.snapshot());
+            List<CollectionItem> refused = new ArrayList<>();
+            List<CollectionService.Change> applied = new ArrayList<>();
+            TableUpdateCoalescer updates = new TableUpdateCoalescer(service, model, new TableUpdateCoalescer.Listener() {
+                @Override
+                public void changesApplied(CollectionService.Change change) {
+                    applied.add(change);
+                }
+
+                @Override
+                public void changesRefused(List<CollectionItem> items, RuntimeException reason) {
+                    refused.addAll(items);
+                }
+            });
+
+            List<CollectionItem> batch = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                batch.add(ItemFactory.createCD("Good " + i, "Tester", 1990 + i, "VG", 10, false));
+            }
+            CollectionItem bad = ItemFactory.createCD("x".repeat(70_000), "Tester", 1995, "VG", 10, false);
+            batch.add(bad);
+            updates.itemsAdded(batch);
+            updates.flush();
+            boolean ok = service.size() == 5 && !service.snapshot().contains(bad) &&
+                         refused.equals(List.of(bad)) && applied.size() == 1 && updates.isIdle() &&
+                         model.isShowing(service.snapshot());
+            service.close();
+
+            CollectionService reopened = CollectionService.open(file);
+            ok &= reopened.size() == 5;
+            reopened.close();
+            return ok;
+        } catch (IOException | RuntimeException e) {
+            System.out.print("(" + e + ") ");
+            return false;
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                    Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".snapshot"));
+                    Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".order"));
+                } catch (IOException e) {
+                    System.out.println("couldn't delete " + file);
+                }
+            }
+        }
+    }
+
+    // tests the off-heap store and its flyweight items
+    private static void testOffHeapStore() {
+        System.out.println("--- testing off-heap store ---\n");
+
+        // case-only differences, accents and a year spread wide enough for every sort path
+        List<CollectionItem> items = new ArrayList<>();
+        String[] artists = {"abba", "ABBA", "\u00c9dith Piaf", "Zappa", "edith piaf", "The The", "\u00e9dith"};
+        for (int i = 0; i < 500; i++) {
+            String artist = artists[i % artists.length];
+            String title = (i % 4 == 0 ? "Album " : "album ") + (i * 37 % 211);
+            String grade = Grade.gradeCodes()[i % Grade.gradeCodes().length];
+            if (i % 3 == 0) {
+                items.add(ItemFactory.createRecord(title, artist, 1950 + (i % 70), grade, "7\"", "45"));
+            } else if (i % 3 == 1) {
+                items.add(ItemFactory.createCD(title, artist, 1950 + (i % 70), grade, i % 20, i % 2 == 0));
+            } else {
+                items.add(ItemFactory.createCassette(title, artist, 1950 + (i % 70), grade, "Metal", 90));
+            }
+        }
+
+        // test 55: flyweights read back the same items and the row sorts match the list sorts
+        System.out.print("test 55: off-heap store sorting and filtering... ");
+        OffHeapCollectionStore offHeap = OffHeapCollectionStore.of(items);
+        ColumnarCollectionStore columnar = ColumnarCollectionStore.of(items);
+        boolean offHeapMatches = describe(offHeap.asList()).equals(describe(items));
+        SortStrategy[] strategies = {new SortByArtist(), new SortByTitle(), new SortByYear(),
+                                     new SortByCondition(), new SortByMediaType()};
+        for (SortStrategy strategy : strategies) {
+            List<CollectionItem> expected = new ArrayList<>(items);
+            strategy.sort(expected);
+            List<CollectionItem> actual = new ArrayList<>();
+            for (int row : offHeap.sortedRows(strategy)) {
+                actual.add(offHeap.get(row));
+            }
+            offHeapMatches &= describe(actual).equals(describe(expected));
+        }
+        for (String text : new String[] {"ABBA", "\u00e9dith", "cd", "196", "bum 1", "x"}) {
+            offHeapMatches &= Arrays.equals(offHeap.filterRows(text), columnar.filterRows(text));
+        }
+        assertCondition(offHeapMatches && offHeap.rowsInYearRange(1960, 1969).length == 70,
+                       "same order as the list sorts, same matches as the columnar store");
+
+        // test 56: edits write through, rows shift across chunks and the heap cost stays flat
+        System.out.print("test 56: off-heap flyweights and growth... ");
+        OffHeapCollectionStore big = new OffHeapCollectionStore();
+        long emptyHeap = big.estimatedHeapBytes();
+        for (int i = 0; i < 40_000; i++) {
+            big.add(ItemFactory.createCD("Disc " + i, "Artist " + (i % 50), 1970 + i % 30, "VG", 12, false));
+        }
+        CollectionItem view = big.get(20_000);
+        view.setTitle("Edited \uD83C\uDFB5");
+        view.setGrade(Grade.MINT);
+        ((CD) view).setTrackCount(99);
+        CollectionItem copy = big.copyOf(20_000);
+        big.remove(5);
+        big.insert(0, ItemFactory.createCassette("First", "Tester", 1999, "NM", "Chrome", 60));
+        big.sort(new SortByTitle());
+        // "disc 5" matches 5, 50-59, 500-599 and 5000-5999 - less disc 5 itself, which was removed
+        boolean growthOk = big.size() == 40_000 && big.get(0).getTitle().equals("Disc 0") &&
+                           big.get(big.size() - 1).getTitle().equals("First") &&
+                           big.get(big.size() - 2).getTitle().equals("Edited \uD83C\uDFB5") &&
+                           ((CD) big.get(big.size() - 2)).getTrackCount() == 99 &&
+                           big.filterRows("disc 5").length == 1110 &&
+                           copy.getGrade() == Grade.MINT && !(copy.getClass().getName().contains("View")) &&
+                           big.estimatedHeapBytes() - emptyHeap < 40_000;
+        assertCondition(growthOk, "40,000 rows, under a byte of heap per item");
+
+        System.out.println();
+    }
+
+    // tests the copy-on-write store and its snapshots
+    private static void testConcurrentStore() {
+        System.out.println("--- testing concurrent store ---\n");
+
+        // test 57: chunked writes match a plain list, and old snapshots never change
+        System.out.print("test 57: copy-on-write snapshots... ");
+        ConcurrentCollectionStore store = new ConcurrentCollectionStore();
+        List<CollectionItem> reference = new ArrayList<>();
+        Random random = new Random(7);
+        ConcurrentCollectionStore.Snapshot early = null;
+        List<CollectionItem> earlyContents = null;
+        for (int i = 0; i < 6000; i++) {
+            int op = random.nextInt(10);
+            CollectionItem item = ItemFactory.createCD("Disc " + i, "Tester", 1950 + i % 60, "VG", 10, false);
+            if (op < 6 || reference.isEmpty()) {
+                // bunch the inserts up near the front so chunks have to split
+                int index = random.nextInt(Math.min(reference.size(), 50) + 1);
+                store.add(index, item);
+                reference.add(index, item);
+            } else if (op < 9) {
+                int index = random.nextInt(reference.size());
+                store.remove(index);
+                reference.remove(index);
+            } else {
+                int index = random.nextInt(reference.size());
+                store.set(index, item);
+                reference.set(index, item);
+            }
+            if (i == 3000) {
+                early = store.snapshot();
+                earlyContents = new ArrayList<>(reference);
+            }
+        }
+        boolean staleRefused = false;
+        try {
+            store.replace(early, reference);
+        } catch (ConcurrentModificationException e) {
+            staleRefused = true;
+        }
+        store.sort(new SortByYear());
+        new SortByYear().sort(reference);
+        boolean sameAfterWrites = store.snapshot().equals(reference);
+
+        // emptying most of a big store merges the chunks that get small along the way
+        List<CollectionItem> drained = new ArrayList<>(reference);
+        for (int i = 0; i < 20000; i++) {
+            drained.add(ItemFactory.createCD("Drain " + i, "Tester", 1950 + i % 60, "VG", 10, false));
+        }
+        ConcurrentCollectionStore draining = new ConcurrentCollectionStore();
+        draining.replaceAll(drained);
+        while (drained.size() > 300) {
+            int index = random.nextInt(drained.size());
+            draining.remove(index);
+            drained.remove(index);
+            if (random.nextInt(20) == 0) {
+                int to = random.nextInt(drained.size());
+                draining.move(index % drained.size(), to);
+                drained.add(to, drained.remove(index % drained.size()));
+            }
+        }
+        assertCondition(sameAfterWrites && draining.snapshot().equals(drained) && early.equals(earlyContents) &&
+                       store.getVersion() > early.getVersion() && staleRefused,
+                       "random writes and a near emptying match an ArrayList, an old snapshot still reads the same");
+
+        // test 58: readers walk snapshots while a writer inserts, removes and re-sorts
+        System.out.print("test 58: snapshot reads during writes... ");
+        ConcurrentCollectionStore shared = new ConcurrentCollectionStore();
+        SortStrategy byYear = new SortByYear();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger badReads = new AtomicInteger();
+        AtomicInteger reads = new AtomicInteger();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            Thread reader = new Thread(() -> {
+                // every snapshot must be whole and in year order, whatever the writer is doing
+                do {
+                    try {
+                        ConcurrentCollectionStore.Snapshot snapshot = shared.snapshot();
+                        int count = 0;
+                        int lastYear = Integer.MIN_VALUE;
+                        for (CollectionItem item : snapshot) {
+                            if (item.getYear() < lastYear) {
+                                badReads.incrementAndGet();
+                            }
+                            lastYear = item.getYear();
+                            count++;
+                        }
+                        if (count != snapshot.size()) {
+                            badReads.incrementAndGet();
+                        }
+                        reads.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        badReads.incrementAndGet();
+                    }
+                } while (writing.get());
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        Random writes = new Random(11);
+        for (int i = 0; i < 4000; i++) {
+            ConcurrentCollectionStore.Snapshot current = shared.snapshot();
+            if (i % 1000 == 999) {
+                shared.sort(byYear);
+            } else if (i % 4 == 3 && current.size() > 0) {
+                shared.remove(writes.nextInt(current.size()));
+            } else {
+                CollectionItem item = ItemFactory.createCassette("Tape " + i, "Tester", 1950 + writes.nextInt(70),
+                    "G", "Normal", 60);
+                shared.add(byYear.insertionPoint(current, item), item);
+            }
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // 3000 adds less 996 removes - every fourth write that isn't one of the four re-sorts
+        assertCondition(badReads.get() == 0 && reads.get() >= 3 && shared.size() == 3000 - 996,
+                       "no torn or out-of-order snapshots across " + reads.get() + " reads");
+
+        System.out.println();
+    }
+
+    // tests the headless collection service - no window, several callers at once
+    private static void testCollectionService() {
+        System.out.println("--- testing collection service ---\n");
+
+        // test 59: every operation without a gui, saved through the log
+        System.out.print("test 59: headless add, edit, delete, query and sort... ");
+        Path file = null;
+        boolean headlessOk = false;
+        try {
+            file = Files.createTempFile("service-test", ".log");
+            Files.delete(file);
+            CollectionService service = CollectionService.open(file);
+            CollectionItem abbey = ItemFactory.createRecord("Abbey Road", "The Beatles", 1969, "EX", "12\"", "33");
+            CollectionItem thriller = ItemFactory.createCD("Thriller", "Michael Jackson", 1982, "NM", 9, true);
+            service.add(abbey);
+            CollectionService.Change added = service.add(thriller);
+            List<CollectionItem> batch = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                batch.add(ItemFactory.createCassette("Tape " + i, "Artist " + (i % 13), 1950 + i % 60, "G", "Normal", 60));
+            }
+            service.addAll(batch);
+
+            // an edit that leaves the item in order just updates its row, one that doesn't moves it
+            CollectionService.Change stayed = service.edit(abbey, item -> item.setGrade(Grade.MINT));
+            CollectionService.Change moved = service.edit(thriller, item -> item.setArtist("Aaa Jackson"));
+            CollectionService.Change removed = service.remove(batch.get(0));
+            CollectionService.Change missing = service.remove(batch.get(0));
+
+            boolean changesOk = added.getInsertedRows()[0] == added.getAfter().indexOf(thriller) &&
+                                stayed.getUpdatedRows().length == 1 && stayed.getAfter() == stayed.getBefore() &&
+                                moved.getDeletedRows().length == 1 && moved.getAfter().get(0) == thriller &&
+                                removed.getRemoved().equals(List.of(batch.get(0))) && missing.isEmpty();
+            boolean queryOk = service.query("beatles").equals(List.of(abbey)) &&
+                              service.query("").equals(service.snapshot()) &&
+                              service.query("tape").size() == 199;
+            service.setSortStrategy(new SortByYear());
+            List<CollectionItem> byYear = new ArrayList<>(service.snapshot());
+            new SortByYear().sort(byYear);
+            boolean sortOk = service.snapshot().equals(byYear) &&
+                             service.query("tape 1", new SortByTitle()).get(0).getTitle().equals("Tape 1");
+            List<String> before = describe(service.snapshot());
+            service.close();
+
+            CollectionService reopened = CollectionService.open(file);
+            List<String> after = describe(reopened.snapshot());
+            reopened.close();
+            before.sort(null);
+            after.sort(null);
+            headlessOk = changesOk && queryOk && sortOk && before.equals(after) && after.size() == 201;
+        } catch (IOException | RuntimeException e) {
+            System.out.print("(" + e + ") ");
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                    Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".snapshot"));
+                    Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".order"));
+                } catch (IOException e) {
+                    System.out.println("couldn't delete " + file);
+                }
+            }
+        }
+        assertCondition(headlessOk, "positions, searches, re-sorts and the log all stay in step");
+
+        // test 60: an item the log can't store is turned away before anything changes
+        System.out.print("test 60: unstorable items refused by the service... ");
+        file = null;
+        boolean refusedOk = false;
+        try {
+            file = Files.createTempFile("service-refuse", ".log");
+            Files.delete(file);
+            CollectionService service = CollectionService.open(file);
+            CollectionItem kept = ItemFactory.createCD("Kind of Blue", "Miles Davis", 1959, "VG", 5, false);
+            service.add(kept);
+            String huge = "x".repeat(70_000);
+
+            int refusals = 0;
+            try {
+                service.add(ItemFactory.createCD(huge, "Nobody", 2000, "G", 1, false));
+            } catch (IllegalArgumentException e) {
+                refusals++;
+            }
+            try {
+                service.apply(List.of(ItemFactory.createCD("Fine", "Somebody", 2001, "G", 1, false),
+                                      ItemFactory.createCD("Also fine", huge, 2002, "G", 1, false)), List.of(), List.of());
+            } catch (IllegalArgumentException e) {
+                refusals++;
+            }
+            try {
+                service.edit(kept, item -> {
+                    item.setYear(1960);
+                    item.setTitle(huge);
+                });
+            } catch (IllegalArgumentException e) {
+                refusals++;
+            }
+            // an item that isn't in the collection is turned away before its edits run
+            CollectionItem outside = ItemFactory.createCD("Outside", "Nobody", 2003, "G", 1, false);
+            try {
+                service.edit(outside, item -> item.setTitle("Changed anyway"));
+            } catch (IllegalArgumentException e) {
+                refusals++;
+            }
+            // the refused edit is undone, so the index and the item still agree
+            boolean unchanged = service.size() == 1 && service.query("").size() == 1 &&
+                                kept.getTitle().equals("Kind of Blue") && kept.getYear() == 1959 &&
+                                service.query("kind blue").equals(List.of(kept));
+            service.close();
+
+            CollectionService reopened = CollectionService.open(file);
+            boolean savedOk = describe(reopened.snapshot()).equals(describe(List.of(kept)));
+            reopened.close();
+            refusedOk = refusals == 4 && unchanged && savedOk && outside.getTitle().equals("Outside");
+        } catch (IOException | RuntimeException e) {
+            System.out.print("(" + e + ") ");
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                    Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".snapshot"));
+                    Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".order"));
+                } catch (IOException e) {
+                    System.out.println("couldn't delete " + file);
+                }
+            }
+        }
+        assertCondition(refusedOk, "store, index and log untouched by a refused add, batch or edit, edits to outsiders never run");
+
+        // test 61: reopening keeps the saved order and indexes in the background
+        System.out.print("test 61: reopen in saved order, search while indexing... ");
+        file = null;
+        boolean reopenOk = false;
+        try {
+            file = Files.createTempFile("service-reopen", ".log");
+            Files.delete(file);
+            CollectionService service = CollectionService.open(file);
+            List<CollectionItem> batch = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) {
+                batch.add(ItemFactory.createCD("Disc " + i, "Band " + (i * 7919 % 3000), 1960 + i % 50, "VG", 10, false));
+            }
+            service.addAll(batch);
+            List<String> saved = describe(service.snapshot());
+            service.close();
+
+            // written in the order the service kept them, until the log changes
+            CollectionLog log = CollectionLog.open(file);
+            boolean orderKept = new SortByArtist().getClass().getName().equals(log.getOrderName()) &&
+                                describe(log.items()).equals(saved);
+            log.close();
+
+            // writes made straight after opening reach the index once it's built
+            CollectionService reopened = CollectionService.open(file);
+            CollectionItem first = reopened.snapshot().get(0);
+            CollectionItem zebra = ItemFactory.createCD("Zebra Crossing", "Quagga", 1999, "NM", 12, true);
+            reopened.add(zebra);
+            reopened.remove(first);
+            reopened.edit(reopened.snapshot().get(5), item -> item.setTitle("Renamed Mid Build"));
+            boolean searchOk = reopened.query("zebra quagga").equals(List.of(zebra)) &&
+                               !reopened.query(first.getTitle()).contains(first) &&
+                               reopened.query("renamed mid build").size() == 1 &&
+                               reopened.query("disc").size() == 2998;
+            reopened.close();
+
+            log = CollectionLog.open(file);
+            log.append(CollectionLog.Operation.DELETE, log.items().get(0));
+            log.close();
+            log = CollectionLog.open(file);
+            boolean orderDropped = log.getOrderName() == null && log.items().size() == 2999;
+            log.close();
+            reopenOk = orderKept && searchOk && orderDropped;
+        } catch (IOException | RuntimeException e) {
+            System.out.print("(" + e + ") ");
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                    Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".snapshot"));
+                    Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".order"));
+                } catch (IOException e) {
+                    System.out.println("couldn't delete " + file);
+                }
+            }
+        }
+        assertCondition(reopenOk, "no re-sort for the saved order, changes made while indexing found, order forgotten on change");
+
+        // test 62: writers and readers on several threads at once
+        System.out.print("test 62: concurrent callers... ");
+        CollectionService shared = new CollectionService();
+        shared.setSortStrategy(new SortByYear());
+        AtomicInteger notified = new AtomicInteger();
+        shared.addListener(new CollectionService.Listener() {
+            @Override
+            public void collectionChanged(CollectionService.Change change) {
+                notified.incrementAndGet();
+            }
+
+            @Override
+            public void saveFailed(IOException e) {
+            }
+        });
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger badReads = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            Thread reader = new Thread(() -> {
+                // edits change items in place, so order can't be checked mid-write - but every
+                // snapshot must hold each item exactly once, moved items included
+                do {
+                    try {
+                        ConcurrentCollectionStore.Snapshot snapshot = shared.snapshot();
+                        Set<CollectionItem> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+                        seen.addAll(snapshot);
+                        if (seen.size() != snapshot.size() || seen.contains(null)) {
+                            badReads.incrementAndGet();
+                        }
+                        shared.query("tester");
+                    } catch (RuntimeException e) {
+                        badReads.incrementAndGet();
+                    }
+                } while (writing.get());
+            });
+            reader.start();
+            threads.add(reader);
+        }
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int writer = t;
+            Thread thread = new Thread(() -> {
+                List<CollectionItem> mine = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    CollectionItem item = ItemFactory.createCD("Disc " + i, "Tester " + writer,
+                        1950 + (i * 31 + writer) % 70, "VG", 10, false);
+                    mine.add(item);
+                    shared.add(item);
+                    if (i % 5 == 4) {
+                        shared.edit(item, edited -> edited.setYear(2030 - edited.getYear() % 70));
+                    }
+                    if (i % 10 == 9) {
+                        shared.remove(mine.get(i - 5));
+                    }
+                }
+            });
+            thread.start();
+            writers.add(thread);
+        }
+        try {
+            for (Thread thread : writers) {
+                thread.join();
+            }
+            writing.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<CollectionItem> inOrder = new ArrayList<>(shared.snapshot());
+        new SortByYear().sort(inOrder);
+        // 4 writers x (500 adds, 100 edits, 50 removes), less the 50 removes each
+        assertCondition(badReads.get() == 0 && shared.size() == 4 * 450 &&
+                       shared.snapshot().equals(inOrder) && shared.query("tester").size() == 4 * 450 &&
+                       notified.get() == 4 * 650,
+                       "2600 writes from 4 threads, none lost, every snapshot whole");
+
+        // test 63: edited rows next to each other in one batch are checked against the rows that stay
+        System.out.print("test 63: batch of neighbouring edits stays sorted... ");
+        CollectionService batched = new CollectionService();
+        batched.setSortStrategy(new SortByYear());
+        List<CollectionItem> four = new ArrayList<>();
+        for (int year = 1991; year <= 1994; year++) {
+            four.add(ItemFactory.createCD("Year " + year, "Tester", year, "VG", 10, false));
+        }
+        batched.addAll(four);
+        four.get(0).setYear(2005);
+        four.get(1).setYear(2006);
+        batched.apply(List.of(), List.of(), List.of(four.get(0), four.get(1)));
+        boolean batchOk = batched.snapshot().equals(List.of(four.get(2), four.get(3), four.get(0), four.get(1)));
+
+        // and random runs of edited and removed neighbours, checked against a full sort every time
+        Random shuffle = new Random(61);
+        List<CollectionItem> years = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            years.add(ItemFactory.createCD("Disc " + i, "Tester", 1950 + shuffle.nextInt(60), "VG", 10, false));
+        }
+        batched.addAll(years);
+        for (int round = 0; round < 200 && batchOk; round++) {
+            List<CollectionItem> rows = batched.snapshot();
+            int from = shuffle.nextInt(rows.size() - 6);
+            List<CollectionItem> edited = new ArrayList<>();
+            List<CollectionItem> gone = new ArrayList<>();
+            for (int row = from; row < from + 6; row++) {
+                int what = shuffle.nextInt(3);
+                if (what == 0) {
+                    rows.get(row).setYear(1950 + shuffle.nextInt(60));
+                    edited.add(rows.get(row));
+                } else if (what == 1 && rows.size() > 100) {
+                    gone.add(rows.get(row));
+                }
+            }
+            batched.apply(List.of(), gone, edited);
+            List<CollectionItem> sorted = new ArrayList<>(batched.snapshot());
+            new SortByYear().sort(sorted);
+            batchOk &= batched.snapshot().equals(sorted) && batched.query("").size() == batched.size();
+        }
+        assertCondition(batchOk, "no row stays put next to a neighbour that moves or goes");
+
+        System.out.println();
+    }
+
+    // tests the local query server against a service with no window
+    private static void testServer() {
+        System.out.println("--- testing query server ---\n");
+
+        CollectionService service = new CollectionService();
+        List<CollectionItem> items = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            items.add(ItemFactory.createRecord("Side " + i, "Band \"" + (i % 9) + "\"", 1950 + (i * 13) % 60,
+                "VG+", "12\"", "33"));
+        }
+        service.addAll(items);
+        System.setProperty("sun.net.httpserver.nodelay", "true"); // as Main starts it
+        CollectionServer server = new CollectionServer(service);
+
+        try {
+            server.start(0);
+            int port = server.getPort();
+
+            // test 64: a sorted page comes back as an importable json array, bad requests get a status
+            System.out.print("test 64: paged and sorted json over http... ");
+            List<CollectionItem> byYear = new ArrayList<>(service.snapshot());
+            new SortByYear().sort(byYear);
+            String[] page = httpGet(port, "/items?sort=year&offset=100&limit=50");
+            String[] search = httpGet(port, "/search?q=band+%22" + 3 + "&limit=1000");
+            boolean pageOk = page[0].equals("200") && page[1].startsWith("{\"total\": 250, \"offset\": 100") &&
+                             describe(itemsOf(page[1])).equals(describe(byYear.subList(100, 150))) &&
+                             search[0].equals("200") &&
+                             describe(itemsOf(search[1])).equals(describe(service.query("band \"3"))) &&
+                             httpGet(port, "/items?offset=240")[1].contains("\"total\": 250") &&
+                             itemsOf(httpGet(port, "/items?offset=240")[1]).size() == 10 &&
+                             httpGet(port, "/search")[0].equals("400") &&
+                             httpGet(port, "/items?sort=colour")[0].equals("400") &&
+                             httpGet(port, "/items?limit=-1")[0].equals("400") &&
+                             httpGet(port, "/nowhere")[0].equals("404");
+            assertCondition(pageOk, "rows 100-149 in year order, 400s and 404s for bad requests");
+
+            // test 65: lots of requests at once while the collection is being written to
+            System.out.print("test 65: concurrent requests during writes... ");
+            AtomicInteger good = new AtomicInteger();
+            List<Thread> clients = new ArrayList<>();
+            for (int c = 0; c < 300; c++) {
+                int client = c;
+                clients.add(Thread.ofVirtual().start(() -> {
+                    String[] response = httpGet(port, client % 2 == 0 ? "/items?limit=20&offset=" + client
+                                                                      : "/search?q=side+1&sort=title");
+                    if (response[0].equals("200") && response[1].endsWith("]\n}\n")) {
+                        good.incrementAndGet();
+                    }
+                }));
+            }
+            for (int i = 0; i < 200; i++) {
+                service.add(ItemFactory.createCD("Late " + i, "Band 1", 1999, "NM", 12, true));
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            assertCondition(good.get() == 300 && service.size() == 450,
+                           "300 simultaneous clients all get whole responses");
+        } catch (IOException | InterruptedException e) {
+            assertCondition(false, "server failed: " + e.getMessage());
+        } finally {
+            server.close();
+        }
+
+        System.out.println();
+    }
+
+    // tests paging through sorted and searched views of the collection
+    private static void testViews() {
+        System.out.println("--- testing paged views ---\n");
+
+        CollectionService service = new CollectionService();
+        List<CollectionItem> items = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            items.add(ItemFactory.createCD("Disc " + i, "Group " + (i % 41), 1940 + (i * 7) % 80, "EX", 10, i % 3 == 0));
+        }
+        service.addAll(items);
+
+        // test 66: a page from the middle matches the same rows of a full sort, and the view is reused
+        System.out.print("test 66: pages by position in any order... ");
+        List<CollectionItem> byYear = new ArrayList<>(service.snapshot());
+        new SortByYear().sort(byYear);
+        CollectionView yearView = service.view("", new SortByYear());
+        CollectionView.Page middle = yearView.page(1500, 100);
+        CollectionView.Page own = service.page("", new SortByArtist(false), 1000, 700); // spans several chunks
+
+        List<CollectionItem> walked = new ArrayList<>();
+        for (CollectionView.Page page = service.page("group 7", new SortByTitle(), 0, 16); ; page = page.next()) {
+            walked.addAll(page.getItems());
+            if (!page.hasNext()) {
+                break;
+            }
+        }
+        List<CollectionItem> group7 = new ArrayList<>(service.query("group 7"));
+        new SortByTitle().sort(group7);
+
+        boolean pagesOk = middle.getItems().equals(byYear.subList(1500, 1600)) && middle.getTotal() == 3000 &&
+                          own.getItems().equals(service.snapshot().subList(1000, 1700)) &&
+                          service.view("", new SortByYear(false)) == yearView && // same order, same view
+                          service.page("", new SortByYear(), 2990, 100).getItems().size() == 10 &&
+                          service.page("", new SortByYear(), 5000, 100).getItems().isEmpty() &&
+                          walked.equals(group7) && walked.size() == service.query("group 7").size();
+        assertCondition(pagesOk, "rows 1500-1599 by year, rows 1000-1699 in the collection's order, a search paged through");
+
+        // test 67: a cursor keeps paging its own view while the collection changes underneath it
+        System.out.print("test 67: stable pages across writes... ");
+        CollectionView.Page first = service.page("", new SortByYear(), 0, 1000);
+        long version = service.getVersion();
+        List<CollectionItem> added = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            service.remove(byYear.get(1000 + i));
+            added.add(ItemFactory.createCD("New " + i, "Group 1", 1940, "M", 10, true));
+            service.add(added.get(i));
+        }
+        CollectionView.Page second = first.next();
+        CollectionView.Page third = second.next();
+        CollectionView fresh = service.view("", new SortByYear());
+
+        // an edit that leaves the item where it is still counts as a change
+        long beforeEdit = service.getVersion();
+        CollectionItem edited = service.snapshot().get(0);
+        CollectionService.Change inPlace = service.edit(edited, item -> item.setTitle("Renamed"));
+
+        boolean stableOk = second.getItems().equals(byYear.subList(1000, 2000)) &&
+                           third.getItems().equals(byYear.subList(2000, 3000)) && !third.hasNext() &&
+                           fresh != yearView && fresh.getVersion() == version + 200 &&
+                           fresh.page(0, 200).getItems().containsAll(added) && // 1940 is the earliest year
+                           !fresh.asList().contains(byYear.get(1000)) &&
+                           inPlace.getAfter() == inPlace.getBefore() && service.getVersion() == beforeEdit + 1 &&
+                           service.view("renamed", new SortByYear()).asList().equals(List.of(edited));
+        assertCondition(stableOk, "old cursor pages on unchanged, new views see the writes and edits");
+
+        System.out.println();
+    }
+
+    // tests picking the first k items of an order without a full sort
+    private static void testTopK() {
+        System.out.println("--- testing top-k queries ---\n");
+
+        Random random = new Random(7);
+        List<CollectionItem> items = new ArrayList<>();
+        String[] grades = {"M", "NM", "EX", "VG+", "VG", "G", "P"};
+        for (int i = 0; i < 2000; i++) {
+            items.add(ItemFactory.createCassette("Tape " + random.nextInt(500), "Artist " + random.nextInt(60),
+                1950 + random.nextInt(50), grades[random.nextInt(grades.length)], "Chrome", 90));
+        }
+        List<CollectionItem> original = new ArrayList<>(items);
+
+        // test 68: every strategy's top k is the same as sorting everything and taking k, ties included
+        System.out.print("test 68: top k matches a full sort's first k... ");
+        SortStrategy[] strategies = {new SortByArtist(), new SortByTitle(), new SortByYear(),
+                                     new SortByCondition(), new SortByMediaType()};
+        boolean topOk = true;
+        for (SortStrategy strategy : strategies) {
+            List<CollectionItem> sorted = new ArrayList<>(items);
+            strategy.sort(sorted);
+            for (int k : new int[] {0, 1, 20, 50, 1999, 2000, 2500}) {
+                List<CollectionItem> top = strategy.top(items, k);
+                topOk &= top.equals(sorted.subList(0, Math.min(k, sorted.size())));
+            }
+        }
+        topOk &= items.equals(original);
+        assertCondition(topOk, "same items in the same order for k = 0 to past the end, input untouched");
+
+        // test 69: the service answers "the 20 oldest" and "the 50 best" from views or straight off the items
+        System.out.print("test 69: service top k with and without a view... ");
+        CollectionService service = new CollectionService();
+        service.addAll(items);
+        List<CollectionItem> oldest = service.top("", new SortByYear(), 20);
+        List<CollectionItem> best = service.top("artist 7", new SortByCondition(), 50);
+        List<CollectionItem> ownOrder = service.top("", new SortByArtist(), 5);
+        List<CollectionItem> fromView = service.view("", new SortByYear()).page(0, 20).getItems();
+        List<CollectionItem> cachedOldest = service.top("", new SortByYear(), 20);
+
+        CollectionItem older = ItemFactory.createRecord("Wax Cylinder", "Artist 1", 1890, "G", "7\"", "78");
+        service.add(older);
+        boolean serviceOk = oldest.equals(fromView) && oldest.equals(cachedOldest) &&
+                            best.equals(service.view("artist 7", new SortByCondition()).page(0, 50).getItems()) &&
+                            best.get(0).getGrade() == Grade.MINT &&
+                            ownOrder.equals(service.snapshot().subList(0, 5)) &&
+                            service.top("", new SortByYear(), 20).get(0) == older &&
+                            service.top("nothing matches this", new SortByYear(), 20).isEmpty();
+        assertCondition(serviceOk, "same as the first page of a view, and up to date after a write");
+
+        System.out.println();
+    }
+
+    // tests year range and decade searches through the range index
+    private static void testYearRanges() {
+        System.out.println("--- testing year ranges ---\n");
+
+        CollectionIndex index = new CollectionIndex();
+        List<CollectionItem> items = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            items.add(ItemFactory.createRecord("Record " + i, i % 5 == 0 ? "The Kinks" : "Band " + (i % 17),
+                1940 + (i * 11) % 70, "VG", "12\"", "33"));
+        }
+        index.addAll(items);
+
+        // test 70: ranges and decades match exactly the items in those years, and combine with words
+        System.out.print("test 70: range and decade searches... ");
+        boolean rangesOk = sameItems(index.search("1965-1972"), yearsBetween(items, 1965, 1972, null)) &&
+                           sameItems(index.search("1972 - 1965"), yearsBetween(items, 1965, 1972, null)) &&
+                           sameItems(index.search("1960s"), yearsBetween(items, 1960, 1969, null)) &&
+                           sameItems(index.search("kinks 1960S"), yearsBetween(items, 1960, 1969, "The Kinks")) &&
+                           sameItems(index.search("1950s 1955-1975"), yearsBetween(items, 1955, 1959, null)) &&
+                           index.search("1800-1850").isEmpty() && index.search("kinks 2020s").isEmpty() &&
+                           !index.search("1960s").isEmpty() &&
+                           index.search("1969").size() == yearsBetween(items, 1969, 1969, null).size(); // a year on its own is unchanged
+        assertCondition(rangesOk, "1965-1972, 1960s, backwards ranges and ranges with other words");
+
+        // test 71: edits and deletes move items in and out of ranges
+        System.out.print("test 71: ranges stay current on edits... ");
+        CollectionService service = new CollectionService();
+        service.addAll(items);
+        CollectionItem moved = yearsBetween(items, 1940, 1940, null).get(0);
+        CollectionItem deleted = yearsBetween(items, 1966, 1966, null).get(0);
+        int sixties = service.query("1960s").size();
+        service.edit(moved, item -> item.setYear(1967));
+        service.remove(deleted);
+        List<CollectionItem> after = service.query("1960s");
+        boolean currentOk = after.size() == sixties && after.contains(moved) && !after.contains(deleted) &&
+                            !service.query("1940-1949").contains(moved) &&
+                            service.query("record 1960s").size() == sixties;
+        assertCondition(currentOk, "an edited year moves ranges, a deleted item leaves them");
+
+        System.out.println();
+    }
+
+    // the items from one year to another, optionally only one artist's - the brute force answer
+    private static List<CollectionItem> yearsBetween(List<CollectionItem> items, int from, int to, String artist) {
+        List<CollectionItem> found = new ArrayList<>();
+        for (CollectionItem item : items) {
+            if (item.getYear() >= from && item.getYear() <= to && (artist == null || item.getArtist().equals(artist))) {
+                found.add(item);
+            }
+        }
+        return found;
+    }
+
+    // same items, ignoring order, matched by identity
+    private static boolean sameItems(List<CollectionItem> a, List<CollectionItem> b) {
+        Set<CollectionItem> left = Collections.newSetFromMap(new IdentityHashMap<>());
+        left.addAll(a);
+        return a.size() == b.size() && left.containsAll(b);
+    }
+
+    // GET from the local server - {status, body}, or {"0", message} if it couldn't connect
+    private static String[] httpGet(int port, String path) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) URI.create("http://localhost:" + port + path).toURL()
+                .openConnection();
+            int status = connection.getResponseCode();
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                return new String[] {String.valueOf(status), new String(in.readAllBytes(), StandardCharsets.UTF_8)};
+            }
+        } catch (IOException e) {
+            return new String[] {"0", e.getMessage()};
+        }
+    }
+
+    // the items array out of a server response, read back through the importer
+    private static List<CollectionItem> itemsOf(String response) {
+        List<CollectionItem> items = new ArrayList<>();
+        int start = response.indexOf("\"items\": ");
+        if (start < 0) {
+            return items;
+        }
+        String array = response.substring(start + "\"items\": ".length(), response.lastIndexOf('}'));
+        try {
+            new CatalogImporter().importStream(new ByteArrayInputStream(array.getBytes(StandardCharsets.UTF_8)),
+                CatalogFormat.JSON, (batch, rowsRead, bytesRead) -> items.addAll(batch));
+        } catch (IOException e) {
+            System.out.print("(" + e.getMessage() + ") ");
+        }
+        return items;
+    }
+
+    // exports items to memory and imports them straight back
+    private static List<CollectionItem> exportAndImport(List<CollectionItem> items, CatalogFormat format) {
+        List<CollectionItem> back = new ArrayList<>();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new CatalogExporter().export(items, Channels.newChannel(bytes), format);
+            new CatalogImporter().importStream(new ByteArrayInputStream(bytes.toByteArray()), format,
+                (batch, rowsRead, bytesRead) -> back.addAll(batch));
+        } catch (IOException e) {
+            System.out.print("(" + e.getMessage() + ") ");
+        }
+        return back;
+    }
+
+    // one line per item with every field, for comparing lists of copied items
+    private static List<String> describe(List<CollectionItem> items) {
+        List<String> lines = new ArrayList<>();
+        for (CollectionItem item : items) {
+            lines.add(item + " " + item.getFormatDetails());
+        }
+        return lines;
+    }
+
     // launches the gui with demo data
     private static void launchGUIDemo() {
         SwingUtilities.invokeLater(new Runnable() {